@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.io.ByteStreams;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.PageSize;
+import com.itextpdf.text.pdf.PdfWriter;
+import org.json.JSONObject;
+import org.mapfish.print.FakeHttpd;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.ThreadResources;
+import org.mapfish.print.config.Config;
+import org.mapfish.print.config.HostMatcher;
+import org.mapfish.print.config.layout.Layout;
+import org.mapfish.print.utils.PJsonObject;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * What is needed by the benchmarks to render something without a servlet.
+ */
+public final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * Start a fake server answering a 256x256 PNG to any request.
+     */
+    public static FakeHttpd startTileServer() throws IOException {
+        final FakeHttpd httpd = new FakeHttpd(new FakeHttpd.Route("/",
+                new FakeHttpd.HttpAnswerer(200, "OK", "image/png", createPng(256, 256))));
+        httpd.start();
+        return httpd;
+    }
+
+    public static byte[] createPng(int width, int height) throws IOException {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setColor(Color.ORANGE);
+            graphics.fillRect(0, 0, width / 2, height / 2);
+            graphics.setColor(Color.BLUE);
+            graphics.drawLine(0, 0, width, height);
+        } finally {
+            graphics.dispose();
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", out);
+        return out.toByteArray();
+    }
+
+    public static ThreadResources createThreadResources() {
+        final ThreadResources threadResources = new ThreadResources();
+        threadResources.init();
+        return threadResources;
+    }
+
+    /**
+     * Create a context writing an A4 document to nowhere.
+     */
+    public static RenderingContext createContext(ThreadResources threadResources, PJsonObject globalParams)
+            throws DocumentException {
+        final Document doc = new Document(PageSize.A4);
+        final PdfWriter writer = PdfWriter.getInstance(doc, ByteStreams.nullOutputStream());
+        writer.setFullCompression();
+        doc.open();
+
+        final Config config = new Config();
+        config.setThreadResources(threadResources);
+        config.setMetricRegistry(new MetricRegistry());
+        config.setDpis(new TreeSet<Integer>(Arrays.asList(96, 190, 254)));
+        config.setScales(new TreeSet<Number>(Arrays.asList(20000.0, 25000.0, 100000.0, 500000.0, 4000000.0)));
+        List<HostMatcher> hosts = new ArrayList<HostMatcher>(1);
+        hosts.add(HostMatcher.ACCEPT_ALL);
+        config.setHosts(hosts);
+
+        if (globalParams == null) {
+            globalParams = new PJsonObject(new JSONObject(), "globalParams");
+        }
+        return new RenderingContext(doc, writer, config, globalParams, null, new Layout(),
+                Collections.<String, String>emptyMap());
+    }
+
+    public static void close(RenderingContext context) {
+        //iText refuses to close a document without pages
+        context.getWriter().setPageEmpty(false);
+        context.getDocument().close();
+    }
+}
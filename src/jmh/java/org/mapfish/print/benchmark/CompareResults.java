@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.pvalsecc.misc.FileUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JSON reports written by JMH (for example the one of the last
+ * release and the current one).
+ * <p/>
+ * Usage: CompareResults baseline.json current.json
+ */
+public final class CompareResults {
+    private CompareResults() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2) {
+            System.err.println("Usage: CompareResults baseline.json current.json");
+            System.exit(1);
+        }
+        final Map<String, JSONObject> baseline = load(new File(args[0]));
+        final Map<String, JSONObject> current = load(new File(args[1]));
+
+        System.out.println(String.format("%-70s %14s %14s %8s", "Benchmark", "Baseline", "Current", "Change"));
+        for (Map.Entry<String, JSONObject> entry : current.entrySet()) {
+            final JSONObject currentMetric = entry.getValue().getJSONObject("primaryMetric");
+            final double currentScore = currentMetric.getDouble("score");
+            final String unit = currentMetric.getString("scoreUnit");
+            final JSONObject base = baseline.get(entry.getKey());
+            if (base == null) {
+                System.out.println(String.format("%-70s %14s %14.3f %8s %s", entry.getKey(), "-", currentScore, "new", unit));
+            } else {
+                final double baseScore = base.getJSONObject("primaryMetric").getDouble("score");
+                final double change = (currentScore - baseScore) / baseScore * 100.0;
+                System.out.println(String.format("%-70s %14.3f %14.3f %+7.1f%% %s", entry.getKey(), baseScore,
+                        currentScore, change, unit));
+            }
+        }
+    }
+
+    /**
+     * @return The results by benchmark name and parameters.
+     */
+    private static Map<String, JSONObject> load(File file) throws IOException, JSONException {
+        final JSONArray results = new JSONArray(FileUtilities.readWholeTextFile(file));
+        final Map<String, JSONObject> result = new LinkedHashMap<String, JSONObject>();
+        for (int i = 0; i < results.length(); ++i) {
+            final JSONObject cur = results.getJSONObject(i);
+            final StringBuilder key = new StringBuilder(cur.getString("benchmark"));
+            final JSONObject params = cur.optJSONObject("params");
+            if (params != null) {
+                //sorted to have a stable key
+                final Map<String, String> sorted = new TreeMap<String, String>();
+                for (Iterator<?> it = params.keys(); it.hasNext(); ) {
+                    final String name = (String) it.next();
+                    sorted.put(name, params.getString(name));
+                }
+                key.append(sorted);
+            }
+            result.put(key.toString(), cur);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.itextpdf.awt.geom.AffineTransform;
+import com.itextpdf.awt.geom.Point2D;
+import com.itextpdf.text.pdf.PdfContentByte;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.LinearRing;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.mapfish.print.Transformer;
+import org.mapfish.print.map.renderers.vector.GeometriesRenderer;
+import org.mapfish.print.utils.DistanceUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Transformation of the coordinates of a big ring into a PDF path: one object
+ * per point (how it used to be done) against the bulk transformation of
+ * {@link GeometriesRenderer#addPath}.
+ */
+@State(Scope.Thread)
+public class CoordinateTransformBenchmark {
+    @Param({"100000"})
+    public int nbPoints;
+
+    private LinearRing ring;
+    private AffineTransform affineTransform;
+    private PdfContentByte dc;
+
+    @Setup
+    public void setUp() {
+        final Coordinate[] coords = new Coordinate[nbPoints + 1];
+        for (int i = 0; i < nbPoints; ++i) {
+            final double angle = 2 * Math.PI * i / nbPoints;
+            coords[i] = new Coordinate(600000 + 2000 * Math.cos(angle), 200000 + 2000 * Math.sin(angle));
+        }
+        coords[nbPoints] = coords[0];
+        ring = new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY).createLinearRing(coords);
+
+        final Transformer transformer = new Transformer(600000, 200000, 500, 400, 25000, 254, DistanceUnit.M,
+                0, null, false, false);
+        affineTransform = transformer.getGeoTransform(false);
+        dc = new PdfContentByte(null);
+    }
+
+    @Benchmark
+    public PdfContentByte perCoordinate() {
+        dc.reset();
+        final Coordinate[] coords = ring.getCoordinates();
+        Coordinate coord = (Coordinate) coords[0].clone();
+        transformCoordinate(coord, affineTransform);
+        dc.moveTo((float) coord.x, (float) coord.y);
+        for (int i = 1; i < coords.length - 1; i++) {
+            coord = (Coordinate) coords[i].clone();
+            transformCoordinate(coord, affineTransform);
+            dc.lineTo((float) coord.x, (float) coord.y);
+        }
+        dc.closePath();
+        return dc;
+    }
+
+    private static void transformCoordinate(Coordinate coordinate, AffineTransform affineTransform) {
+        Point2D point2D = new Point2D.Double(coordinate.x, coordinate.y);
+        affineTransform.transform(point2D, point2D);
+        coordinate.setCoordinate(new Coordinate(point2D.getX(), point2D.getY()));
+    }
+
+    @Benchmark
+    public PdfContentByte bulk() {
+        dc.reset();
+        GeometriesRenderer.addPath(dc, ring.getCoordinateSequence(), nbPoints, affineTransform);
+        dc.closePath();
+        return dc;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.Element;
+import org.json.JSONObject;
+import org.mapfish.print.FakeHttpd;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.ThreadResources;
+import org.mapfish.print.config.layout.Block;
+import org.mapfish.print.config.layout.LegendsBlock;
+import org.mapfish.print.utils.PJsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Layout of a legend block with one icon per class.
+ */
+@State(Scope.Thread)
+public class LegendsBlockBenchmark {
+    @Param({"30"})
+    public int nbClasses;
+
+    private FakeHttpd httpd;
+    private ThreadResources threadResources;
+    private RenderingContext context;
+    private PJsonObject params;
+    private LegendsBlock block;
+    private final List<Element> elements = new ArrayList<Element>();
+    private final Block.PdfElement target = new Block.PdfElement() {
+        public void add(Element element) throws DocumentException {
+            elements.add(element);
+        }
+    };
+
+    @Setup
+    public void setUp() throws Exception {
+        httpd = BenchmarkSupport.startTileServer();
+        threadResources = BenchmarkSupport.createThreadResources();
+
+        final StringBuilder legends = new StringBuilder("{\"legends\": [{\"name\": \"a layer\", \"classes\": [");
+        for (int i = 0; i < nbClasses; ++i) {
+            if (i > 0) legends.append(',');
+            legends.append("{\"name\": \"class ").append(i).append("\", \"iconBeforeName\": true, \"icons\": [");
+            legends.append("\"http://localhost:").append(httpd.getPort()).append("/icon").append(i).append(".png\"]}");
+        }
+        legends.append("]}]}");
+        params = new PJsonObject(new JSONObject(legends.toString()), "legend");
+        context = BenchmarkSupport.createContext(threadResources, params);
+        block = new LegendsBlock();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkSupport.close(context);
+        threadResources.destroy();
+        httpd.shutdown();
+    }
+
+    @Benchmark
+    public List<Element> render() throws Exception {
+        elements.clear();
+        context.getTemplateCache().clear();
+        block.render(params, target, context);
+        return elements;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.google.common.io.ByteStreams;
+import org.mapfish.print.FakeHttpd;
+import org.mapfish.print.MapPrinter;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.ShellMapPrinter;
+import org.mapfish.print.utils.PJsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.pvalsecc.misc.FileUtilities;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Full print of the samples/spec*.json files, the map servers being replaced
+ * by a local fake server always answering the same image.
+ * <p/>
+ * Must be run from the root of the project (the gradle jmh task does that).
+ */
+@State(Scope.Benchmark)
+public class MapPrinterBenchmark {
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+
+    @Param({"spec.json", "specVector.json", "specUSGS.json"})
+    public String spec;
+
+    @Param({"pdf", "png"})
+    public String outputFormat;
+
+    private FakeHttpd httpd;
+    private ClassPathXmlApplicationContext springContext;
+    private MapPrinter mapPrinter;
+    private String specJson;
+
+    @Setup
+    public void setUp() throws Exception {
+        httpd = BenchmarkSupport.startTileServer();
+        springContext = new ClassPathXmlApplicationContext(ShellMapPrinter.DEFAULT_SPRING_CONTEXT);
+        mapPrinter = springContext.getBean(MapPrinter.class);
+        final String config = spec.startsWith("specVector") ? "configVector.yaml" : "config.yaml";
+        mapPrinter.setYamlConfigFile(new File("samples", config));
+
+        //all the layers are taken from the fake server
+        specJson = FileUtilities.readWholeTextFile(new File("samples", spec)).replaceAll(
+                "(\"baseURL\"\\s*:\\s*\")https?://[^/\"]+", "$1http://localhost:" + httpd.getPort());
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        mapPrinter.stop();
+        springContext.close();
+        httpd.shutdown();
+    }
+
+    @Benchmark
+    public RenderingContext print() throws Exception {
+        final PJsonObject jsonSpec = MapPrinter.parseSpec(specJson);
+        jsonSpec.getInternalObj().put("outputFormat", outputFormat);
+        return mapPrinter.print(jsonSpec, ByteStreams.nullOutputStream(), NO_HEADERS);
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.itextpdf.text.Image;
+import org.mapfish.print.FakeHttpd;
+import org.mapfish.print.PDFUtils;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.ThreadResources;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URI;
+
+/**
+ * Download, decoding and embedding of an image ({@link PDFUtils#getImage}), as
+ * done for the tiles and the legend icons.
+ */
+@State(Scope.Thread)
+public class PDFUtilsBenchmark {
+    private FakeHttpd httpd;
+    private ThreadResources threadResources;
+    private RenderingContext context;
+    private URI uri;
+
+    @Setup
+    public void setUp() throws Exception {
+        httpd = BenchmarkSupport.startTileServer();
+        threadResources = BenchmarkSupport.createThreadResources();
+        context = BenchmarkSupport.createContext(threadResources, null);
+        uri = new URI("http://localhost:" + httpd.getPort() + "/tile.png");
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        BenchmarkSupport.close(context);
+        threadResources.destroy();
+        httpd.shutdown();
+    }
+
+    @Benchmark
+    public Image getImage() throws Exception {
+        //otherwise, only the first call would load the image
+        context.getTemplateCache().clear();
+        return PDFUtils.getImage(context, uri, 256, 256);
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.itextpdf.awt.geom.AffineTransform;
+import org.mapfish.print.Transformer;
+import org.mapfish.print.utils.DistanceUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The transformations computed for every map and every tile.
+ */
+@State(Scope.Thread)
+public class TransformerBenchmark {
+    private Transformer transformer;
+
+    @Setup
+    public void setUp() {
+        transformer = createTransformer();
+    }
+
+    private static Transformer createTransformer() {
+        final Transformer result = new Transformer(600000, 200000, 500, 400, 25000, 254, DistanceUnit.M,
+                Math.toRadians(15), null, false, false);
+        result.setMapPos(50, 100);
+        return result;
+    }
+
+    @Benchmark
+    public Transformer create() {
+        return createTransformer();
+    }
+
+    @Benchmark
+    public AffineTransform pdfTransform() {
+        return transformer.getPdfTransform();
+    }
+
+    @Benchmark
+    public AffineTransform geoTransform() {
+        return transformer.getGeoTransform(false);
+    }
+
+    @Benchmark
+    public Transformer overview() {
+        final Transformer overview = transformer.clone();
+        overview.zoom(transformer, 0.25f);
+        overview.setRotation(0);
+        return overview;
+    }
+}
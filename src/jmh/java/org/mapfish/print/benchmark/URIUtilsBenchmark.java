@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.pvalsecc.misc.URIUtils;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Building the URL of a WMS tile.
+ */
+@State(Scope.Thread)
+public class URIUtilsBenchmark {
+    private URI baseUri;
+    private Map<String, List<String>> params;
+    private Set<String> overridden;
+
+    @Setup
+    public void setUp() throws Exception {
+        baseUri = new URI("http://localhost:8080/wms?MAP=/var/maps/test.map&FORMAT=image/png&TRANSPARENT=true");
+        params = new HashMap<String, List<String>>();
+        params.put("SERVICE", Collections.singletonList("WMS"));
+        params.put("REQUEST", Collections.singletonList("GetMap"));
+        params.put("VERSION", Collections.singletonList("1.1.1"));
+        params.put("LAYERS", Arrays.asList("roads", "buildings", "rivers"));
+        params.put("STYLES", Arrays.asList("", "", ""));
+        params.put("SRS", Collections.singletonList("EPSG:21781"));
+        params.put("BBOX", Collections.singletonList("600000.0,200000.0,600256.0,200256.0"));
+        params.put("WIDTH", Collections.singletonList("256"));
+        params.put("HEIGHT", Collections.singletonList("256"));
+        params.put("FORMAT", Collections.singletonList("image/png"));
+        overridden = new HashSet<String>(Arrays.asList("FORMAT"));
+    }
+
+    @Benchmark
+    public URI addParams() throws Exception {
+        return URIUtils.addParams(baseUri, params, overridden);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.itextpdf.awt.geom.AffineTransform;
+import com.itextpdf.text.pdf.PdfContentByte;
+import org.json.JSONObject;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.mapfish.geo.MfGeo;
+import org.mapfish.geo.MfGeoJSONReader;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.ThreadResources;
+import org.mapfish.print.Transformer;
+import org.mapfish.print.map.renderers.vector.FeaturesRenderer;
+import org.mapfish.print.map.renderers.vector.StyledMfGeoFactory;
+import org.mapfish.print.utils.DistanceUnit;
+import org.mapfish.print.utils.PJsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Decoding and rendering of a vector layer made of polygons
+ * ({@link MfGeoJSONReader#decode} and PolygonRenderer.renderRing).
+ */
+@State(Scope.Thread)
+public class VectorBenchmark {
+    @Param({"1000"})
+    public int nbFeatures;
+
+    @Param({"50"})
+    public int nbVertices;
+
+    private ThreadResources threadResources;
+    private RenderingContext context;
+    private String geoJson;
+    private PJsonObject styles;
+    private JSONObject geoJsonObject;
+    private MfGeo geo;
+    private AffineTransform affineTransform;
+
+    @Setup
+    public void setUp() throws Exception {
+        geoJson = createGeoJson(nbFeatures, nbVertices);
+        styles = new PJsonObject(new JSONObject(
+                "{\"1\": {\"fillColor\": \"red\", \"fillOpacity\": 0.4, \"strokeColor\": \"blue\", \"strokeWidth\": 0.5}}"),
+                "styles");
+        geo = decode();
+        geoJsonObject = new JSONObject(geoJson);
+
+        threadResources = BenchmarkSupport.createThreadResources();
+        context = BenchmarkSupport.createContext(threadResources, null);
+        final Transformer transformer = new Transformer(600000, 200000, 500, 400, 25000, 254, DistanceUnit.M,
+                0, null, false, false);
+        affineTransform = transformer.getGeoTransform(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkSupport.close(context);
+        threadResources.destroy();
+    }
+
+    /**
+     * Create a feature collection of regular polygons around 600000,200000.
+     */
+    private static String createGeoJson(int nbFeatures, int nbVertices) {
+        final StringBuilder result = new StringBuilder("{\"type\": \"FeatureCollection\", \"features\": [");
+        for (int i = 0; i < nbFeatures; ++i) {
+            if (i > 0) result.append(',');
+            result.append("{\"type\": \"Feature\", \"properties\": {\"_style\": 1, \"name\": \"feature ").append(i);
+            result.append("\"}, \"geometry\": {\"type\": \"Polygon\", \"coordinates\": [[");
+            final double centerX = 597000 + (i % 40) * 150;
+            final double centerY = 197500 + (i / 40) * 200;
+            for (int j = 0; j <= nbVertices; ++j) {
+                final double angle = 2 * Math.PI * (j % nbVertices) / nbVertices;
+                if (j > 0) result.append(',');
+                result.append('[').append(centerX + 60 * Math.cos(angle)).append(',');
+                result.append(centerY + 60 * Math.sin(angle)).append(']');
+            }
+            result.append("]]}}");
+        }
+        return result.append("]}").toString();
+    }
+
+    @Benchmark
+    public MfGeo decode() throws Exception {
+        final MfGeoJSONReader reader = new MfGeoJSONReader(new StyledMfGeoFactory(styles, "_style"));
+        return reader.decode(geoJson);
+    }
+
+    @Benchmark
+    public PdfContentByte render() {
+        final PdfContentByte dc = context.getDirectContent();
+        dc.reset();
+        FeaturesRenderer.render(context, dc, geo, affineTransform);
+        return dc;
+    }
+
+    /**
+     * What VectorMapReader does: decode the features one at a time while rendering them.
+     */
+    @Benchmark
+    public PdfContentByte decodeAndRenderStreaming() throws Exception {
+        final MfGeoJSONReader reader = new MfGeoJSONReader(new StyledMfGeoFactory(styles, "_style"),
+                new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY));
+        final PdfContentByte dc = context.getDirectContent();
+        dc.reset();
+        FeaturesRenderer.render(context, dc, reader.decodeFeatures(geoJsonObject), affineTransform);
+        return dc;
+    }
+}
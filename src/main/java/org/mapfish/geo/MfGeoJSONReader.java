@@ -20,12 +20,15 @@
 package org.mapfish.geo;
 
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryFactory;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.LinearRing;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequence;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -33,6 +36,9 @@ import org.json.JSONObject;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
 
 public class MfGeoJSONReader {
     private final MfGeoFactory mfFactory;
@@ -68,6 +74,69 @@ public class MfGeoJSONReader {
         }
     }
 
+    /**
+     * Pull mode: the features of a FeatureCollection are decoded one at a time,
+     * when the iterator reaches them, so that the whole collection never needs
+     * to be in memory as JTS objects. For other GeoJSON types, the iterator
+     * returns a single object.
+     * <p/>
+     * The iterator throws an IllegalArgumentException (caused by a JSONException)
+     * for invalid features.
+     */
+    public Iterator<MfGeo> decodeFeatures(JSONObject json) throws JSONException {
+        return decodeFeatures(json, 0, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Same as {@link #decodeFeatures(JSONObject)}, but limited to the features from
+     * start (inclusive) to end (exclusive). Can be called from several threads at the
+     * same time to decode different ranges of the same collection.
+     */
+    public Iterator<MfGeo> decodeFeatures(JSONObject json, int start, final int end) throws JSONException {
+        final String type = json.getString("type");
+        if (!type.equals("FeatureCollection")) {
+            if (start > 0) {
+                return Collections.<MfGeo>emptyList().iterator();
+            }
+            return Collections.singletonList(decode(json)).iterator();
+        }
+        final JSONArray features = json.getJSONArray("features");
+        final int last = Math.min(end, features.length());
+        final int first = start;
+        return new Iterator<MfGeo>() {
+            private int next = first;
+
+            public boolean hasNext() {
+                return next < last;
+            }
+
+            public MfGeo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return decodeFeature(features.getJSONObject(next++));
+                } catch (JSONException e) {
+                    throw new IllegalArgumentException("Invalid feature #" + (next - 1), e);
+                }
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * @return The number of features {@link #decodeFeatures(JSONObject)} would return.
+     */
+    public int countFeatures(JSONObject json) throws JSONException {
+        if (!json.getString("type").equals("FeatureCollection")) {
+            return 1;
+        }
+        return json.getJSONArray("features").length();
+    }
+
     private MfFeatureCollection decodeFeatureCollection(JSONObject json) throws JSONException {
         JSONArray features = json.getJSONArray("features");
         Collection<MfFeature> collection = new ArrayList<MfFeature>(features.length());
@@ -111,7 +180,7 @@ public class MfGeoJSONReader {
                 geometry = jtsFactory.createPoint(decodeCoordinate(coordinates));
 
             } else if (type.equals("LineString")) {
-                geometry = jtsFactory.createLineString(decodeCoordinates(coordinates));
+                geometry = jtsFactory.createLineString(decodeSequence(coordinates));
 
             } else if (type.equals("Polygon")) {
                 geometry = decodePolygon(coordinates);
@@ -127,7 +196,7 @@ public class MfGeoJSONReader {
             } else if (type.equals("MultiLineString")) {
                 LineString[] lineStrings = new LineString[coordinates.length()];
                 for (int i = 0; i < lineStrings.length; ++i) {
-                    lineStrings[i] = jtsFactory.createLineString(decodeCoordinates(coordinates.getJSONArray(i)));
+                    lineStrings[i] = jtsFactory.createLineString(decodeSequence(coordinates.getJSONArray(i)));
                 }
                 geometry = jtsFactory.createMultiLineString(lineStrings);
 
@@ -148,20 +217,32 @@ public class MfGeoJSONReader {
     }
 
     private Polygon decodePolygon(JSONArray coordinates) throws JSONException {
-        LinearRing outer = jtsFactory.createLinearRing(decodeCoordinates(coordinates.getJSONArray(0)));
+        LinearRing outer = jtsFactory.createLinearRing(decodeSequence(coordinates.getJSONArray(0)));
         LinearRing[] holes = new LinearRing[coordinates.length() - 1];
         for (int i = 1; i < coordinates.length(); ++i) {
-            holes[i - 1] = jtsFactory.createLinearRing(decodeCoordinates(coordinates.getJSONArray(i)));
+            holes[i - 1] = jtsFactory.createLinearRing(decodeSequence(coordinates.getJSONArray(i)));
         }
         return jtsFactory.createPolygon(outer, holes);
     }
 
-    private Coordinate[] decodeCoordinates(JSONArray coordinates) throws JSONException {
+    private CoordinateSequence decodeSequence(JSONArray coordinates) throws JSONException {
+        if (jtsFactory.getCoordinateSequenceFactory() instanceof PackedCoordinateSequenceFactory) {
+            //avoid creating one Coordinate object per point
+            final int dimension = coordinates.length() > 0 && coordinates.getJSONArray(0).length() > 2 ? 3 : 2;
+            final double[] packed = new double[coordinates.length() * dimension];
+            for (int i = 0; i < coordinates.length(); ++i) {
+                final JSONArray coord = coordinates.getJSONArray(i);
+                for (int j = 0; j < dimension; ++j) {
+                    packed[i * dimension + j] = j < coord.length() ? coord.getDouble(j) : Double.NaN;
+                }
+            }
+            return new PackedCoordinateSequence.Double(packed, dimension, 0);
+        }
         Coordinate[] result = new Coordinate[coordinates.length()];
         for (int i = 0; i < result.length; ++i) {
             result[i] = decodeCoordinate(coordinates.getJSONArray(i));
         }
-        return result;
+        return jtsFactory.getCoordinateSequenceFactory().create(result);
     }
 
     private Coordinate decodeCoordinate(JSONArray coord) throws JSONException {
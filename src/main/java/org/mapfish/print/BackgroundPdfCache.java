@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.io.Files;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
+
+/**
+ * The content of the background PDF files (see the backgroundPdf attribute of the
+ * pages), shared by all the prints.
+ * <p/>
+ * The imported pages belong to the writer of a print and cannot be shared, so it's the
+ * bytes of the files that are kept, by path and modification time. The readers
+ * created from them are in partial mode: only the objects of the imported page are
+ * parsed, not the whole file.
+ */
+public class BackgroundPdfCache {
+    private static final long MB = 1024L * 1024L;
+
+    private final ConcurrentMap<String, byte[]> files;
+
+    /**
+     * @param maxSize the max number of MB kept in memory.
+     */
+    public BackgroundPdfCache(int maxSize) {
+        files = CacheBuilder.newBuilder().
+                maximumWeight(maxSize * MB).
+                weigher(new Weigher<String, byte[]>() {
+                    public int weigh(String key, byte[] value) {
+                        return value.length;
+                    }
+                }).<String, byte[]>build().asMap();
+    }
+
+    /**
+     * Create a reader for the given file or URL. Only local files are cached.
+     */
+    public PdfReader getReader(String path) throws IOException {
+        final File file = new File(path);
+        if (!file.isFile()) {
+            return new PdfReader(path);
+        }
+        //a file that is modified gets a new key, the old content will be evicted
+        final String key = file.getAbsolutePath() + "@" + file.lastModified() + "@" + file.length();
+        byte[] content = files.get(key);
+        if (content == null) {
+            content = Files.toByteArray(file);
+            files.put(key, content);
+        }
+        return new PdfReader(new RandomAccessFileOrArray(new RandomAccessSourceFactory().createSource(content)), null);
+    }
+
+    public void clear() {
+        files.clear();
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.FontFactory;
+import com.itextpdf.text.FontFactoryImp;
+import com.itextpdf.text.pdf.BaseFont;
+
+/**
+ * The fonts used by the prints. Registers the fonts of the configurations in iText
+ * and keeps the {@link Font} and {@link BaseFont} instances, so that the labels,
+ * scalebars and legends don't have to look them up by name again.
+ * <p/>
+ * The fonts registered from a configuration are parsed in advance, in parallel, for
+ * all the encodings used by its layouts, so that the first print doesn't have to do it.
+ * <p/>
+ * The iText registry is shared by all the configurations. When one is loaded, only the
+ * cached fonts whose name it registers are dropped, the others stay valid.
+ */
+public final class FontRegistry {
+    public static final Logger LOGGER = Logger.getLogger(FontRegistry.class);
+
+    private static final ConcurrentMap<String, Font> FONTS = new ConcurrentHashMap<String, Font>();
+
+    private static final ConcurrentMap<String, BaseFont> BASE_FONTS = new ConcurrentHashMap<String, BaseFont>();
+
+    private FontRegistry() {
+    }
+
+    /**
+     * Register the given font files and directories in iText and parse the fonts they
+     * contain, for each of the given encodings.
+     */
+    public static synchronized void register(Collection<String> fontPaths, Collection<String> encodings) {
+        //the registration is not thread safe in iText
+
+        //registered a second time on their own, to know the names of the fonts of this
+        //configuration, including the ones already registered by another one (iText
+        //doesn't tell to which file a name points)
+        final FontFactoryImp configFonts = new FontFactoryImp();
+        final Set<String> standardFonts = new HashSet<String>(configFonts.getRegisteredFonts());
+        for (String fontPath : fontPaths) {
+            register(FontFactory.getFontImp(), fontPath);
+            register(configFonts, fontPath);
+        }
+
+        //those names may now point to another font
+        final Set<String> names = new HashSet<String>(configFonts.getRegisteredFonts());
+        names.addAll(configFonts.getRegisteredFamilies());
+        evict(FONTS, names);
+        evict(BASE_FONTS, names);
+
+        final List<String> toPreload = new ArrayList<String>(configFonts.getRegisteredFonts());
+        toPreload.removeAll(standardFonts);
+        preload(toPreload, encodings);
+    }
+
+    private static void register(FontFactoryImp fonts, String fontPath) {
+        if (new File(fontPath).isDirectory()) {
+            fonts.registerDirectory(fontPath, true);
+        } else {
+            fonts.register(fontPath);
+        }
+    }
+
+    /**
+     * Remove the cached fonts for the given names (lower case, like in iText).
+     */
+    private static void evict(ConcurrentMap<String, ?> cache, Set<String> names) {
+        for (Iterator<String> it = cache.keySet().iterator(); it.hasNext(); ) {
+            final String key = it.next();
+            final String name = key.substring(0, key.indexOf('\n'));
+            if (names.contains(name.toLowerCase())) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Parse the fonts, the result is kept by iText ({@link BaseFont#createFont} cache).
+     */
+    private static void preload(List<String> names, Collection<String> encodings) {
+        if (names.isEmpty() || encodings.isEmpty()) {
+            return;
+        }
+        final int nbThreads = Math.min(names.size() * encodings.size(), Runtime.getRuntime().availableProcessors());
+        final ExecutorService executor = Executors.newFixedThreadPool(nbThreads,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("font-preload-%d").build());
+        try {
+            for (final String name : names) {
+                for (final String encoding : encodings) {
+                    executor.execute(new Runnable() {
+                        public void run() {
+                            try {
+                                FontFactory.getFont(name, encoding, true).getBaseFont();
+                            } catch (RuntimeException e) {
+                                //will be reported when the font is used
+                                LOGGER.debug("Cannot preload the font " + name + " (" + encoding + "): " + e);
+                            }
+                        }
+                    });
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Same as {@link FontFactory#getFont(String, String, float, int)}.
+     *
+     * @return A copy of the font, to be modified at will (color, ...).
+     */
+    public static Font getFont(String name, String encoding, float size, int style) {
+        final String key = name + "\n" + encoding + "\n" + size + "\n" + style;
+        Font result = FONTS.get(key);
+        if (result == null) {
+            result = FontFactory.getFont(name, encoding, size, style);
+            FONTS.put(key, result);
+        }
+        return new Font(result);
+    }
+
+    /**
+     * The font used for the labels. If the font is not registered, the fontFamily is
+     * used (COURIER, HELVETICA or TIMES_ROMAN).
+     *
+     * @param fontWeight contains NORMAL, BOLD or ITALIC, case insensitive
+     */
+    public static BaseFont getBaseFont(String font, String fontEncoding, String fontFamily, String fontWeight) {
+        //the size of the font is not part of the BaseFont
+        final String key = font + "\n" + fontEncoding + "\n" + fontFamily + "\n" + fontWeight;
+        BaseFont result = BASE_FONTS.get(key);
+        if (result == null) {
+            result = createBaseFont(font, fontEncoding, fontFamily, fontWeight);
+            BASE_FONTS.put(key, result);
+        }
+        return result;
+    }
+
+    private static BaseFont createBaseFont(String font, String fontEncoding, String fontFamily, String fontWeight) {
+        final String weight = fontWeight.toUpperCase();
+        final int myFontWeight;
+        if (weight.contains("NORMAL")) {
+            myFontWeight = Font.NORMAL;
+        } else if (weight.contains("BOLD")) {
+            myFontWeight = Font.BOLD;
+        } else if (weight.contains("ITALIC")) {
+            myFontWeight = Font.ITALIC;
+        } else {
+            myFontWeight = Font.NORMAL;
+        }
+
+        final Font pdfFont;
+        if (font != null && FontFactory.isRegistered(font)) {
+            pdfFont = FontFactory.getFont(font, fontEncoding, Font.UNDEFINED, myFontWeight);
+        } else {
+            final String family = fontFamily.toUpperCase();
+            final Font.FontFamily myFontValue;
+            if (family.contains("COURIER")) {
+                myFontValue = Font.FontFamily.COURIER;
+            } else if (family.contains("HELVETICA")) {
+                myFontValue = Font.FontFamily.HELVETICA;
+            } else if (family.contains("ROMAN")) {
+                myFontValue = Font.FontFamily.TIMES_ROMAN;
+            } else {
+                myFontValue = Font.FontFamily.HELVETICA;
+            }
+            pdfFont = new Font(myFontValue, Font.UNDEFINED, myFontWeight);
+        }
+        return pdfFont.getCalculatedBaseFont(false);
+    }
+}
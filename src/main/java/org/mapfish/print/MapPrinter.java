@@ -41,6 +41,9 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeSet;
 import java.util.concurrent.TimeUnit;
@@ -103,6 +106,7 @@ public class MapPrinter {
      */
     public MapPrinter setYamlConfigFile(File configFile) throws FileNotFoundException {
         this.config = configFactory.fromYaml(configFile);
+        fontsInitialized = false;
         configDir = configFile.getParentFile();
         if (configDir == null) {
             try {
@@ -111,16 +115,20 @@ public class MapPrinter {
                 configDir = new File(".");
             }
         }
+        //at load time rather than during the first print
+        initFonts();
         return this;
     }
 
     public MapPrinter setConfig(String strConfig) {
         this.config = configFactory.fromString(strConfig);
+        fontsInitialized = false;
         return this;
     }
 
     public MapPrinter setConfig(InputStream inputConfig) {
         this.config =  configFactory.fromInputStream(inputConfig);
+        fontsInitialized = false;
         return this;
     }
 
@@ -130,7 +138,7 @@ public class MapPrinter {
     }
 
     /**
-     * Register the user specified fonts in iText.
+     * Register the user specified fonts in iText and parse them (see {@link FontRegistry}).
      */
     private void initFonts() {
         if(!fontsInitialized) {
@@ -144,17 +152,19 @@ public class MapPrinter {
 
                     final TreeSet<String> fontPaths = config.getFonts();
                     if (fontPaths != null) {
+                        final Timer.Context timer = metricRegistry.timer(MetricRegistry.name(FontRegistry.class, "load")).time();
                         String backSlashCompatiblePath = configDir.getPath().replace("\\", "/");
+                        final List<String> resolvedPaths = new ArrayList<String>(fontPaths.size());
                         for (String fontPath : fontPaths) {
-                            fontPath = fontPath.replaceAll("\\$\\{configDir\\}", backSlashCompatiblePath);
-                            File fontFile = new File(fontPath);
-                            if (fontFile.isDirectory()) {
-                                FontFactory.registerDirectory(fontPath, true);
-                            } else {
-                                FontFactory.register(fontPath);
-                            }
+                            resolvedPaths.add(fontPath.replaceAll("\\$\\{configDir\\}", backSlashCompatiblePath));
+                        }
+                        FontRegistry.register(resolvedPaths, config.getFontEncodings());
+                        final long loadTime = timer.stop();
+                        if (LOGGER.isInfoEnabled()) {
+                            LOGGER.info("Fonts loaded in " + TimeUnit.NANOSECONDS.toMillis(loadTime) + "ms");
                         }
                     }
+                    fontsInitialized = true;
                 }
             }
         }
@@ -167,13 +177,20 @@ public class MapPrinter {
      * @throws InterruptedException
      */
     public RenderingContext print(PJsonObject jsonSpec, OutputStream outputStream, Map<String, String> headers) throws DocumentException, InterruptedException {
+        return print(jsonSpec, outputStream, headers, new PrintProgress());
+    }
+
+    /**
+     * Generate the PDF using the given spec, reporting the progress to the given object.
+     *
+     * @return The context that was used for printing.
+     * @throws InterruptedException
+     */
+    public RenderingContext print(PJsonObject jsonSpec, OutputStream outputStream, Map<String, String> headers,
+                                  PrintProgress progress) throws DocumentException, InterruptedException {
         final Timer.Context timer = metricRegistry.timer(getClass().getName()).time();
         try {
-            initFonts();
-            OutputFormat output = this.outputFactory.create(config, jsonSpec);
-
-            PrintParams params = new PrintParams(config, configDir, jsonSpec, outputStream, headers);
-            return output.print(params);
+            return doPrint(jsonSpec, outputStream, headers, progress);
         } finally {
             final long printTime = timer.stop();
             if (TimeUnit.SECONDS.toNanos(getConfig().getMaxPrintTimeBeforeWarningInSeconds()) < printTime) {
@@ -182,6 +199,23 @@ public class MapPrinter {
         }
     }
 
+    /**
+     * Print a synthetic spec for the {@link WarmUp}, without counting it in the metrics
+     * of the real prints.
+     */
+    RenderingContext warmUpPrint(PJsonObject jsonSpec, OutputStream outputStream) throws DocumentException, InterruptedException {
+        return doPrint(jsonSpec, outputStream, Collections.<String, String>emptyMap(), new PrintProgress());
+    }
+
+    private RenderingContext doPrint(PJsonObject jsonSpec, OutputStream outputStream, Map<String, String> headers,
+                                     PrintProgress progress) throws DocumentException, InterruptedException {
+        initFonts();
+        OutputFormat output = this.outputFactory.create(config, jsonSpec);
+
+        PrintParams params = new PrintParams(config, configDir, jsonSpec, outputStream, headers, progress);
+        return output.print(params);
+    }
+
     public static PJsonObject parseSpec(String spec) {
         final JSONObject jsonSpec;
         try {
@@ -216,6 +250,13 @@ public class MapPrinter {
     
     public synchronized void start() {
         usages++;
+        if (config != null) {
+            final WarmUp warmUp = config.getWarmUp();
+            if (warmUp != null) {
+                //only the first printer started on this node is actually warmed up
+                warmUp.warmUp(this);
+            }
+        }
     }
 
     public String getOutputFilename(String layout, String defaultName) {
@@ -62,7 +62,8 @@ public class PDFCustomBlocks extends PdfPageEventHelper {
     private final List<PdfReader> readers;
 
     /**
-     * cache of background PDF pages
+     * cache of background PDF pages for this document (the files are cached across
+     * the prints by {@link BackgroundPdfCache})
      */
     private final Map<String, PdfImportedPage> backgroundPdfs = new HashMap<String, PdfImportedPage>();
 
@@ -105,7 +106,8 @@ public class PDFCustomBlocks extends PdfPageEventHelper {
             try {
                 PdfImportedPage page = backgroundPdfs.get(backgroundPdf);
                 if (page == null) {
-                    PdfReader reader = new PdfReader(backgroundPdf);
+                    final BackgroundPdfCache cache = context.getConfig().getBackgroundPdfCache();
+                    PdfReader reader = cache != null ? cache.getReader(backgroundPdf) : new PdfReader(backgroundPdf);
                     this.readers.add(reader);
                     page = writer.getImportedPage(reader, 1);
                     backgroundPdfs.put(backgroundPdf, page);
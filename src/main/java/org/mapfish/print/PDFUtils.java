@@ -20,15 +20,13 @@
 package org.mapfish.print;
 
 import com.codahale.metrics.MetricRegistry;
-import com.codahale.metrics.Timer;
+import com.google.common.io.ByteStreams;
 
 import com.itextpdf.awt.PdfGraphics2D;
 import com.itextpdf.text.BadElementException;
 import com.itextpdf.text.Chunk;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Element;
-import com.itextpdf.text.Font;
-import com.itextpdf.text.FontFactory;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.Paragraph;
 import com.itextpdf.text.Phrase;
@@ -48,22 +46,21 @@ import org.apache.batik.bridge.UserAgent;
 import org.apache.batik.bridge.UserAgentAdapter;
 import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
 import org.apache.batik.dom.svg.SVGDocumentFactory;
-import java.io.ByteArrayOutputStream;
+import java.io.ByteArrayInputStream;
 import org.apache.batik.gvt.GraphicsNode;
 import java.io.File;
 import org.apache.batik.util.XMLResourceDescriptor;
 import java.io.IOException;
-import org.apache.commons.httpclient.Header;
 import java.io.InputStream;
 import java.io.StringReader;
-import java.net.HttpURLConnection;
+import java.awt.image.BufferedImage;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
-import org.apache.commons.httpclient.methods.GetMethod;
 import java.text.SimpleDateFormat;
 import org.apache.log4j.Logger;
+import javax.imageio.ImageIO;
 import java.util.Date;
 import org.mapfish.print.config.layout.Block;
 import java.util.HashMap;
@@ -71,11 +68,18 @@ import org.mapfish.print.config.layout.HorizontalAlign;
 import java.util.List;
 import org.mapfish.print.config.layout.MapBlock;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import org.mapfish.print.config.layout.ScalebarBlock;
 import java.util.regex.Matcher;
 import org.mapfish.print.config.layout.TableConfig;
+import org.mapfish.print.legend.LegendIconCache;
+import org.mapfish.print.map.cache.InFlightFetches;
+import org.mapfish.print.map.cache.TileCache;
+import org.mapfish.print.map.cache.TileResponse;
+import org.mapfish.print.map.http.TileFetcher;
 import java.util.regex.Pattern;
 import org.mapfish.print.utils.PJsonObject;
+import org.mapfish.print.utils.TextTemplate;
 import org.w3c.dom.svg.SVGDocument;
 
 /**
@@ -84,6 +88,7 @@ import org.w3c.dom.svg.SVGDocument;
 public class PDFUtils {
     public static final Logger LOGGER = Logger.getLogger(PDFUtils.class);
     private static final Map<String, Image> placeholderCache = new HashMap<String, Image>();
+    private static final Map<String, BufferedImage> bufferedPlaceholderCache = new ConcurrentHashMap<String, BufferedImage>();
 
     /**
      * Gets an iText image with a cache that uses PdfTemplates to re-use the same
@@ -98,6 +103,14 @@ public class PDFUtils {
      * bitmap content multiple times in order to reduce the file size.
      */
     public static Image getImage(RenderingContext context, URI uri, float w, float h, float scale) throws IOException, DocumentException {
+        return getImage(context, uri, w, h, scale, false);
+    }
+
+    /**
+     * Same as {@link #getImage(RenderingContext, java.net.URI, float, float, float)}, but
+     * if legendIcon is true, the image is taken from the legend icons cache when possible.
+     */
+    public static Image getImage(RenderingContext context, URI uri, float w, float h, float scale, boolean legendIcon) throws IOException, DocumentException {
         //Check the image is not already used in the PDF file.
         //
         //This part is not protected against multi-threads... worst case, a single image can
@@ -106,7 +119,7 @@ public class PDFUtils {
         Map<URI, PdfTemplate> cache = context.getTemplateCache();
         PdfTemplate template = cache.get(uri);
         if (template == null) {
-            Image content = getImageDirect(context, uri);
+            Image content = legendIcon ? getLegendIcon(context, uri) : getImageDirect(context, uri);
             content.setAbsolutePosition(0, 0);
             final PdfContentByte dc = context.getDirectContent();
             synchronized (context.getPdfLock()) {  //protect against parallel writing on the PDF file
@@ -186,7 +199,28 @@ public class PDFUtils {
      * Gets an iText image. Avoids doing the query twice.
      */
     protected static Image getImageDirect(RenderingContext context, URI uri) throws IOException, DocumentException {
-            return loadImageFromUrl(context, uri, false);
+        return loadImageFromUrl(context, uri, false);
+    }
+
+    /**
+     * Gets an iText image from the legend icons cache, or loads it if it's not there.
+     */
+    private static Image getLegendIcon(RenderingContext context, URI uri) throws IOException, DocumentException {
+        final LegendIconCache icons = context.getConfig().getLegendIconCache();
+        if (icons != null) {
+            final Image icon = icons.getImage(context, uri.toString());
+            if (icon != null) {
+                return icon;
+            }
+        }
+        return getImageDirect(context, uri);
+    }
+
+    /**
+     * Gets an iText image, without any placeholder in case of error.
+     */
+    public static Image loadImage(RenderingContext context, URI uri) throws IOException, DocumentException {
+        return loadImageFromUrl(context, uri, true);
     }
 
     private static Image loadImageFromUrl(final RenderingContext context, final URI uri, final boolean alwaysThrowExceptionOnError)
@@ -222,80 +256,11 @@ public class PDFUtils {
             byte[] image = Base64.decode(base64);
             return Image.getInstance(image);
         } else {
-
-            final String contentType;
-            final int statusCode;
-            final String statusText;
-            byte[] data = null;
             try {
-                //read the whole image content in memory, then give that to iText
-                if ((uri.getScheme().equals("http") || uri.getScheme().equals("https"))
-                        && context.getConfig().localHostForwardIsFrom(uri.getHost())) {
-                    String scheme = uri.getScheme();
-                    final String host = uri.getHost();
-                    if (uri.getScheme().equals("https")
-                            && context.getConfig().localHostForwardIsHttps2http()) {
-                        scheme = "http";
-                    }
-                    URL url = new URL(scheme, "localhost", uri.getPort(),
-                            uri.getPath() + "?" + uri.getQuery());
-
-                    HttpURLConnection connexion = (HttpURLConnection) url.openConnection();
-                    connexion.setRequestProperty("Host", host);
-                    for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
-                        connexion.setRequestProperty(entry.getKey(), entry.getValue());
-                    }
-                    InputStream is = null;
-                    try {
-                        try {
-                            is = connexion.getInputStream();
-                            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                            byte[] buffer = new byte[1024];
-                            int length;
-                            while ((length = is.read(buffer)) != -1) {
-                                baos.write(buffer, 0, length);
-                            }
-                            baos.flush();
-                            data = baos.toByteArray();
-                        } catch (IOException e) {
-                            LOGGER.warn(e);
-                        }
-                        statusCode = connexion.getResponseCode();
-                        statusText = connexion.getResponseMessage();
-                        contentType = connexion.getContentType();
-                    } finally {
-                        if (is != null) {
-                            is.close();
-                        }
-                    }
-                } else {
-                    GetMethod getMethod = null;
-                    MetricRegistry registry = context.getConfig().getMetricRegistry();
-                    final Timer.Context timer = registry.timer("http_" + uri.getAuthority()).time();
-                    try {
-                        getMethod = new GetMethod(uri.toString());
-                        for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
-                            getMethod.setRequestHeader(entry.getKey(), entry.getValue());
-                        }
-                        if (LOGGER.isDebugEnabled()) LOGGER.debug("loading image: " + uri);
-                        context.getConfig().getHttpClient(uri).executeMethod(getMethod);
-                        statusCode = getMethod.getStatusCode();
-                        statusText = getMethod.getStatusText();
-
-                        Header contentTypeHeader = getMethod.getResponseHeader("Content-Type");
-                        if (contentTypeHeader == null) {
-                            contentType = "";
-                        } else {
-                            contentType = contentTypeHeader.getValue();
-                        }
-                        data = getMethod.getResponseBody();
-                    } finally {
-                        timer.close();
-                        if (getMethod != null) {
-                            getMethod.releaseConnection();
-                        }
-                    }
-                }
+                final TileResponse response = loadRemote(context, uri);
+                final int statusCode = response.getStatusCode();
+                final String contentType = response.getContentType();
+                byte[] data = response.getData();
 
                 if (statusCode == 204) {
                     // returns a transparent image
@@ -327,7 +292,7 @@ public class PDFUtils {
                     if (LOGGER.isDebugEnabled()) LOGGER.debug("Server returned an error for " + uri + ": " + new String(data));
                     String errorMessage;
                     if (statusCode < 200 || statusCode >= 300) {
-                        errorMessage = "Error (status=" + statusCode + ") while reading the image from " + uri + ": " + statusText;
+                        errorMessage = "Error (status=" + statusCode + ") while reading the image from " + uri + ": " + response.getStatusText();
                     } else {
                         errorMessage = "Didn't receive an image while reading: " + uri;
                     }
@@ -357,6 +322,215 @@ public class PDFUtils {
         }
     }
 
+    /**
+     * Gets a Java2D image, for the outputs that don't go through a PDF file. The
+     * errors are handled like in {@link #getImage}.
+     *
+     * @return null if the server returned an empty answer (204).
+     */
+    public static BufferedImage getBufferedImage(RenderingContext context, URI uri) throws IOException {
+        return loadBufferedImage(context, uri, false);
+    }
+
+    private static BufferedImage loadBufferedImage(final RenderingContext context, final URI uri, final boolean alwaysThrowExceptionOnError)
+            throws IOException {
+        try {
+            final String scheme = uri.getScheme();
+            final BufferedImage image;
+            if (!uri.isAbsolute()) {
+                //Assumption is that the file is on the local file system
+                image = ImageIO.read(new File(uri.toString()));
+            } else if ("data".equalsIgnoreCase(scheme)) {
+                String data = uri.toString().substring("data:".length());
+                String base64 = data.split(",")[1];
+                image = ImageIO.read(new ByteArrayInputStream(Base64.decode(base64)));
+            } else if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+                image = ImageIO.read(uri.toURL());
+            } else {
+                final TileResponse response = loadRemote(context, uri);
+                final int statusCode = response.getStatusCode();
+                if (statusCode == 204) {
+                    return null;
+                }
+                final String contentType = response.getContentType();
+                if (!response.isSuccess() || contentType.startsWith("text/") || contentType.equals("application/vnd.ogc.se_xml")) {
+                    if (LOGGER.isDebugEnabled() && response.getData() != null) LOGGER.debug("Server returned an error for " + uri + ": " + new String(response.getData()));
+                    if (!response.isSuccess()) {
+                        throw new IOException("Error (status=" + statusCode + ") while reading the image from " + uri + ": " + response.getStatusText());
+                    } else {
+                        throw new IOException("Didn't receive an image while reading: " + uri);
+                    }
+                }
+                image = ImageIO.read(new ByteArrayInputStream(response.getData()));
+            }
+            if (image == null) {
+                throw new IOException("Unsupported image format for: " + uri);
+            }
+            if (LOGGER.isDebugEnabled()) LOGGER.debug("loaded image: " + uri);
+            return image;
+        } catch (IOException e) {
+            LOGGER.error("Server returned an error for " + uri + ": " + e.getMessage());
+
+            if (alwaysThrowExceptionOnError) {
+                throw e;
+            }
+
+            return handleBufferedImageLoadError(context, e.getMessage());
+        }
+    }
+
+    /**
+     * Download a tile that will be needed later in the print and keep it in the context.
+     */
+    public static void prefetch(RenderingContext context, URI uri) throws IOException {
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            return;
+        }
+        final TileResponse response = loadRemote(context, uri);
+        if (response.isSuccess()) {
+            context.putPrefetchedTile(uri, response);
+        }
+    }
+
+    /**
+     * Start the download of a tile without blocking the calling thread. The response is
+     * kept in the context, where the next load of this URI takes it.
+     *
+     * @param done called (from an I/O thread) when the download is finished, successfully or not.
+     * @return false if nothing was started: the tile is already available or being
+     * downloaded, or the fetcher cannot do it without blocking.
+     */
+    public static boolean fetchAsync(final RenderingContext context, final URI uri, final Runnable done) {
+        if (!"http".equalsIgnoreCase(uri.getScheme()) && !"https".equalsIgnoreCase(uri.getScheme())) {
+            return false;
+        }
+        final TileFetcher tileFetcher = context.getConfig().getTileFetcher();
+        final TileCache tileCache = context.getConfig().getTileCache();
+        if (context.hasPrefetchedTile(uri) || !tileFetcher.supportsAsync(context, uri) ||
+                tileCache != null && tileCache.contains(uri, context.getHeaders())) {
+            return false;
+        }
+        final InFlightFetches inFlightFetches = context.getConfig().getInFlightFetches();
+        final InFlightFetches.AsyncFetch inFlight;
+        if (inFlightFetches != null) {
+            inFlight = inFlightFetches.startAsync(TileCache.createKey(uri, context.getHeaders()));
+            if (inFlight == null) {
+                //another print is downloading it, the load will wait for it
+                return false;
+            }
+        } else {
+            inFlight = null;
+        }
+
+        try {
+            tileFetcher.fetchAsync(context, uri, new TileFetcher.Callback() {
+                public void completed(TileResponse response) {
+                    try {
+                        if (tileCache != null) {
+                            tileCache.put(uri, context.getHeaders(), response);
+                        }
+                        context.putPrefetchedTile(uri, response);
+                        if (inFlight != null) {
+                            inFlight.completed(response);
+                        }
+                    } finally {
+                        done.run();
+                    }
+                }
+
+                public void failed(Exception e) {
+                    //the load will try again and report the error
+                    try {
+                        if (inFlight != null) {
+                            inFlight.failed(e);
+                        }
+                    } finally {
+                        done.run();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            if (inFlight != null) {
+                inFlight.failed(e);
+            }
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Get the raw content of a document that is not an image (SVG, PDF, ...), the same
+     * way as the images: with the shared HTTP client, the tile cache and the prefetched
+     * tiles.
+     */
+    public static byte[] loadDocument(RenderingContext context, URI uri) throws IOException {
+        final String scheme = uri.getScheme();
+        if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) {
+            final InputStream stream = uri.toURL().openStream();
+            try {
+                return ByteStreams.toByteArray(stream);
+            } finally {
+                stream.close();
+            }
+        }
+        final TileResponse response = loadRemote(context, uri);
+        if (!response.isSuccess()) {
+            throw new IOException("Error (status=" + response.getStatusCode() + ") while reading " + uri + ": " + response.getStatusText());
+        }
+        return response.getData();
+    }
+
+    /**
+     * Get the raw content of the given URI, going through the tile cache if one is configured.
+     */
+    private static TileResponse loadRemote(final RenderingContext context, final URI uri) throws IOException {
+        final TileResponse prefetched = context.takePrefetchedTile(uri);
+        if (prefetched != null) {
+            return prefetched;
+        }
+        final TileCache.Loader fetcher = new TileCache.Loader() {
+            public TileResponse load(TileResponse stale) throws IOException {
+                return fetchRemote(context, uri, stale);
+            }
+        };
+        final InFlightFetches inFlightFetches = context.getConfig().getInFlightFetches();
+        final TileCache.Loader loader;
+        if (inFlightFetches == null) {
+            loader = fetcher;
+        } else {
+            //concurrent prints asking for the same tile share the same download
+            final String key = TileCache.createKey(uri, context.getHeaders());
+            loader = new TileCache.Loader() {
+                public TileResponse load(TileResponse stale) throws IOException {
+                    final InFlightFetches.Result result = inFlightFetches.fetch(key, fetcher, stale);
+                    if (result.coalesced) {
+                        final MetricRegistry registry = context.getConfig().getMetricRegistry();
+                        if (registry != null) {
+                            registry.counter(MetricRegistry.name(PDFUtils.class, "coalescedFetches")).inc();
+                        }
+                        if (LOGGER.isDebugEnabled()) LOGGER.debug("Shared the download of " + uri);
+                    }
+                    return result.response;
+                }
+            };
+        }
+        final TileCache tileCache = context.getConfig().getTileCache();
+        if (tileCache != null && ("http".equals(uri.getScheme()) || "https".equals(uri.getScheme()))) {
+            return tileCache.get(uri, context.getHeaders(), loader);
+        } else {
+            return loader.load(null);
+        }
+    }
+
+    /**
+     * Read the whole content of the given URI in memory.
+     *
+     * @param stale if not null, a conditional GET is done using its ETag/Last-Modified.
+     */
+    private static TileResponse fetchRemote(final RenderingContext context, final URI uri, final TileResponse stale) throws IOException {
+        return context.getConfig().getTileFetcher().fetch(context, uri, stale);
+    }
+
     /**
      * In the case url fails to load an image this method should be called to handle the issue.  If the configuration
      * has a default image for broken image urls then it will be returned otherwise an error will be thrown.
@@ -391,6 +565,35 @@ public class PDFUtils {
         }
     }
 
+    /**
+     * Same as {@link #handleImageLoadError} for the Java2D images.
+     */
+    public static BufferedImage handleBufferedImageLoadError(final RenderingContext context, final String errorMessage) throws IOException {
+        String placeholderString = context.getConfig().getBrokenUrlPlaceholder();
+        if (placeholderString.equalsIgnoreCase(Constants.ImagePlaceHolderConstants.THROW)) {
+            throw new IOException(errorMessage);
+        } else {
+            BufferedImage image = bufferedPlaceholderCache.get(placeholderString);
+
+            if (image == null) {
+                try {
+                    if (placeholderString.equalsIgnoreCase(Constants.ImagePlaceHolderConstants.DEFAULT)) {
+                        URL url = PDFUtils.class.getClassLoader().getResource(Constants.ImagePlaceHolderConstants.DEFAULT_ERROR_IMAGE);
+                        image = loadBufferedImage(context, url.toURI(), true);
+                    } else {
+                        image = loadBufferedImage(context, new URI(placeholderString), true);
+                    }
+                } catch (URISyntaxException e) {
+                    throw new RuntimeException(e);
+                }
+                if (image != null) {
+                    bufferedPlaceholderCache.put(placeholderString, image);
+                }
+            }
+            return image;
+        }
+    }
+
     /**
      * When we have to do some custom drawing in a block that is layed out by
      * iText, we first give an empty table with the good dimensions to iText,
@@ -430,32 +633,39 @@ public class PDFUtils {
 
     private static final Pattern VAR_REGEXP = Pattern.compile("\\$\\{([^}]+)\\}");
 
+    private static final boolean IS_WINDOWS = System.getProperty("os.name").toLowerCase().indexOf("win") >= 0;
+
+    /**
+     * Styles for the texts rendered as HTML. Only read by the parser.
+     */
+    private static final StyleSheet HTML_STYLES = new StyleSheet();
+
+    static {
+        HTML_STYLES.loadTagStyle("a", "color", "blue");
+        HTML_STYLES.loadTagStyle("a", "text-decoration", "underline");
+    }
+
     public static Phrase renderString(RenderingContext context, PJsonObject params, String val, int maxLength, com.itextpdf.text.Font font, String mapName, boolean asHTML) throws DocumentException {
+        return renderString(context, params, TextTemplate.get(val), maxLength, font, mapName, asHTML);
+    }
+
+    public static Phrase renderString(RenderingContext context, PJsonObject params, TextTemplate template, int maxLength, com.itextpdf.text.Font font, String mapName, boolean asHTML) throws DocumentException {
         Phrase result = new Phrase();
-        while (true) {
-            Matcher matcher = VAR_REGEXP.matcher(val);
-            if (matcher.find()) {
-                result.add(val.substring(0, matcher.start()));
-                final String value;
-                final String varName = matcher.group(1);
-                if (varName.equals("pageTot")) {
-                    result.add(context.getCustomBlocks().getOrCreateTotalPagesBlock(font));
-                } else {
-                    value = getContextValue(context, params, varName, mapName);
-                    result.add(value);
-                }
-                val = val.substring(matcher.end());
+        final int nbVariables = template.getNbVariables();
+        for (int i = 0; i < nbVariables; ++i) {
+            result.add(template.getLiteral(i));
+            final TextTemplate.Variable variable = template.getVariable(i);
+            if (variable.getType() == TextTemplate.Variable.Type.PAGE_TOT) {
+                result.add(context.getCustomBlocks().getOrCreateTotalPagesBlock(font));
             } else {
-                break;
+                result.add(getContextValue(context, params, variable, mapName));
             }
         }
+        String val = template.getLiteral(nbVariables);
         if(asHTML) {
         	val = result.getContent();
         	try {
-        		StyleSheet styles = new StyleSheet();
-                styles.loadTagStyle("a", "color", "blue");
-                styles.loadTagStyle("a", "text-decoration", "underline");
-				List<Element> list = HTMLWorker.parseToList(new StringReader(val), styles);
+				List<Element> list = HTMLWorker.parseToList(new StringReader(val), HTML_STYLES);
 				Paragraph p = new Paragraph();
 				for(Element element : list) {
 					p.add(element);
@@ -479,21 +689,25 @@ public class PDFUtils {
         if (val == null) {
             return null;
         }
-        StringBuilder result = new StringBuilder();
-        while (true) {
-            Matcher matcher = VAR_REGEXP.matcher(val);
-            if (matcher.find()) {
-                result.append(val.substring(0, matcher.start()));
-                result.append(getContextValue(context, params, matcher.group(1), mapName));
-                val = val.substring(matcher.end());
-            } else {
-                break;
+        return evalString(context, params, TextTemplate.get(val), mapName);
+    }
+
+    public static String evalString(RenderingContext context, PJsonObject params, TextTemplate template, String mapName) {
+        String uri;
+        if (template.isConstant()) {
+            uri = template.getText();
+        } else {
+            StringBuilder result = new StringBuilder();
+            final int nbVariables = template.getNbVariables();
+            for (int i = 0; i < nbVariables; ++i) {
+                result.append(template.getLiteral(i));
+                result.append(getContextValue(context, params, template.getVariable(i), mapName));
             }
+            result.append(template.getLiteral(nbVariables));
+            uri = result.toString();
         }
-        result.append(val);
-        String uri = result.toString();
 
-        if(System.getProperty("os.name").toLowerCase().indexOf("win") >= 0){
+        if(IS_WINDOWS){
             uri = uri.replace("\\", "/");
             if(uri.matches("file://\\w:(/.*)?")) {
                 return "file:/"+uri.substring(7);
@@ -503,8 +717,6 @@ public class PDFUtils {
         return uri;
     }
 
-    private static final Pattern FORMAT_PATTERN = Pattern.compile("^format\\s+(%[-+# 0,(]*\\d*(\\.\\d*)?(d))\\s+(.*)$");
-
     public static String getValueFromString(String val) {
         String str = val;
         while (true) {
@@ -531,27 +743,30 @@ public class PDFUtils {
         return val;
     }
 
-    private static String getContextValue(RenderingContext context, PJsonObject params, String key, String mapName) {
+    private static String getContextValue(RenderingContext context, PJsonObject params, TextTemplate.Variable variable, String mapName) {
+        final String key = variable.getKey();
         String result = null;
         if (context != null) {
-            Matcher matcher;
-            if (key.equals("pageNum")) {
-                return Integer.toString(context.getWriter().getPageNumber());
-            } else if (key.equals("now")) {
-                return new Date().toString();
-            } else if (key.startsWith("now ")) {
-                return formatTime(context, key);
-            } else if ((matcher = FORMAT_PATTERN.matcher(key)) != null && matcher.matches()) {
-                return format(context, params, matcher, mapName);
-            } else if (key.equals("configDir")) {
-                return context.getConfigDir().replace('\\', '/');
-            } else if (key.equals("scale") || key.startsWith("scale.")) {
-                if(key.startsWith("scale.")) {
-                    mapName = key.substring(6);
-                }
-                return Integer.toString((int)context.getLayout().getMainPage().getMap(mapName).createTransformer(context, params).getScale());
+            switch (variable.getType()) {
+                case PAGE_NUM:
+                    return Integer.toString(context.getWriter().getPageNumber());
+                case NOW:
+                    return new Date().toString();
+                case NOW_FORMAT:
+                    return formatTime(context, key);
+                case FORMAT:
+                    return format(context, params, variable, mapName);
+                case CONFIG_DIR:
+                    return context.getConfigDir().replace('\\', '/');
+                case SCALE:
+                    if (variable.getArgument() != null) {
+                        mapName = variable.getArgument();
+                    }
+                    return Integer.toString((int)context.getLayout().getMainPage().getMap(mapName).createTransformer(context, params).getScale());
+                default:
+                    //PAGE_TOT is only special when rendered in a phrase
+                    result = context.getGlobalParams().optString(key);
             }
-            result = context.getGlobalParams().optString(key);
         }
         if (result == null) {
             result = params.getString(key);
@@ -559,11 +774,11 @@ public class PDFUtils {
         return result;
     }
 
-    private static String format(RenderingContext context, PJsonObject params, Matcher matcher, String mapName) {
-        final String valueTxt = getContextValue(context, params, matcher.group(4), mapName);
+    private static String format(RenderingContext context, PJsonObject params, TextTemplate.Variable variable, String mapName) {
+        final String valueTxt = getContextValue(context, params, variable.getFormatted(), mapName);
         final Object value;
         try {
-            switch (matcher.group(3).charAt(0)) {
+            switch (variable.getConversion()) {
                 case 'd':
                 case 'o':
                 case 'x':
@@ -583,11 +798,11 @@ public class PDFUtils {
                     value = valueTxt;
             }
         } catch (Throwable e) {
-            context.addError(new RuntimeException("Error converting valueTxt: '" + valueTxt + "' to a number.  Pattern: " + matcher.group(3)));
+            context.addError(new RuntimeException("Error converting valueTxt: '" + valueTxt + "' to a number.  Pattern: " + variable.getConversion()));
             return valueTxt;
         }
         try {
-            return String.format(matcher.group(1), value);
+            return String.format(variable.getArgument(), value);
         } catch (RuntimeException e) {
             // gracefuly fallback to the standard format
             context.addError(e);
@@ -694,9 +909,20 @@ public class PDFUtils {
         return createImage(context, maxWidth, maxHeight, 0f, url, rotation);
     }
     public static Image createImage(RenderingContext context, double maxWidth, double maxHeight, float scale, URI url, float rotation) throws DocumentException {
+        return createImage(context, maxWidth, maxHeight, scale, url, rotation, false);
+    }
+
+    /**
+     * Create a chunk for a raster legend icon, taken from the legend icons cache if possible.
+     */
+    public static Chunk createLegendIconChunk(RenderingContext context, double maxWidth, double maxHeight, float scale, URI url) throws DocumentException {
+        return new Chunk(createImage(context, maxWidth, maxHeight, scale, url, 0f, true), 0f, 0f, true);
+    }
+
+    private static Image createImage(RenderingContext context, double maxWidth, double maxHeight, float scale, URI url, float rotation, boolean legendIcon) throws DocumentException {
         final Image image;
         try {
-            image = getImage(context, url, (float) maxWidth, (float) maxHeight, scale);
+            image = getImage(context, url, (float) maxWidth, (float) maxHeight, scale, legendIcon);
         } catch (IOException e) {
             throw new InvalidValueException("url", url.toString(), e);
         }
@@ -707,40 +933,12 @@ public class PDFUtils {
         return image;
     }
 
+    /**
+     * @see FontRegistry#getBaseFont
+     */
     public static BaseFont getBaseFont(String font, String fontEncoding, String fontFamily,
     		String fontSize, String fontWeight) {
-        float myFontSize = (float) Double.parseDouble(fontSize.toLowerCase()
-                .replaceAll("px", ""));
-        
-        int myFontWeight;
-        if (fontWeight.toUpperCase().contains("NORMAL")) {
-            myFontWeight = Font.NORMAL;
-        } else if (fontWeight.toUpperCase().contains("BOLD")) {
-            myFontWeight = Font.BOLD;
-        } else if (fontWeight.toUpperCase().contains("ITALIC")) {
-            myFontWeight = Font.ITALIC;
-        } else {
-            myFontWeight = Font.NORMAL;
-        }
-
-    	Font pdfFont;
-    	if (font != null && FontFactory.isRegistered(font)) {
-    		pdfFont = FontFactory.getFont(font, fontEncoding, myFontSize, myFontWeight);
-    	}
-    	else {
-	        Font.FontFamily myFontValue;
-	        if (fontFamily.toUpperCase().contains("COURIER")) {
-	            myFontValue = Font.FontFamily.COURIER;
-	        } else if (fontFamily.toUpperCase().contains("HELVETICA")) {
-	            myFontValue = Font.FontFamily.HELVETICA;
-	        } else if (fontFamily.toUpperCase().contains("ROMAN")) {
-	            myFontValue = Font.FontFamily.TIMES_ROMAN;
-	        } else {
-	            myFontValue = Font.FontFamily.HELVETICA;
-	        }
-	        pdfFont = new Font(myFontValue, myFontSize, myFontWeight);
-    	}
-        return pdfFont.getCalculatedBaseFont(false);
+        return FontRegistry.getBaseFont(font, fontEncoding, fontFamily, fontWeight);
     }
 
     public static int getHorizontalAlignment(String labelAlign) {
@@ -788,29 +986,16 @@ public class PDFUtils {
         Image image = null;
         try {
             PdfContentByte dc = context.getDirectContent();
-            URI uri = URI.create(iconItem);
-            URL url = uri.toURL();
-            SVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
-            UserAgent userAgent = new UserAgentAdapter();
-            DocumentLoader loader = new DocumentLoader(userAgent);
-            BridgeContext ctx = new BridgeContext(userAgent, loader);
-            ctx.setDynamicState(BridgeContext.DYNAMIC);
-            SVGDocument svgDoc = factory.createSVGDocument(null, url.openStream());
-            GVTBuilder builder = new GVTBuilder();
-            GraphicsNode graphics = builder.build(ctx, svgDoc);
-            String svgWidthString = svgDoc.getDocumentElement().getAttribute("width");
-            String svgHeightString = svgDoc.getDocumentElement().getAttribute("height");
-            float svgWidth = Float.valueOf(svgWidthString.substring(0, svgWidthString.length() - 2));
-            float svgHeight = Float.valueOf(svgHeightString.substring(0, svgHeightString.length() - 2));
-            /**
-             * svgFactor needs to be calculated depending on the screen DPI by the PDF DPI
-             * This is 96 / 72 = 4 / 3 ~= 1.3333333 on Windows, but might be different on *nix.
-             */
-            final float svgFactor = 25.4f / userAgent.getPixelUnitToMillimeter() / 72f; // 25.4 mm = 1 inch TODO: Might need to get 72 from somewhere else?
-            //float svgFactor = (float) Toolkit.getDefaultToolkit().getScreenResolution() / 72f; // this only works with AWT, i.e. when a window environment is running
-            PdfTemplate map = dc.createTemplate(svgWidth * svgFactor, svgHeight * svgFactor);
-            PdfGraphics2D g2d = new PdfGraphics2D(map, svgWidth * svgFactor, svgHeight * svgFactor);
-            graphics.paint(g2d);
+            final LegendIconCache icons = context.getConfig().getLegendIconCache();
+            LegendIconCache.SvgIcon icon = icons != null ? icons.getSvgIcon(context, iconItem) : null;
+            if (icon == null) {
+                icon = loadSvgIcon(context, iconItem);
+            }
+            PdfTemplate map = dc.createTemplate(icon.getWidth(), icon.getHeight());
+            PdfGraphics2D g2d = new PdfGraphics2D(map, icon.getWidth(), icon.getHeight());
+            synchronized (icon) {
+                icon.getGraphics().paint(g2d);
+            }
             g2d.dispose();
             image = Image.getInstance(map);
             image.scalePercent((float) (scale * 100));
@@ -826,4 +1011,31 @@ public class PDFUtils {
         }
         return image;
     }
+
+    /**
+     * Download and parse an SVG icon.
+     */
+    public static LegendIconCache.SvgIcon loadSvgIcon(RenderingContext context, String iconItem) throws IOException {
+        URI uri = URI.create(iconItem);
+        byte[] content = loadDocument(context, uri);
+        SVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+        UserAgent userAgent = new UserAgentAdapter();
+        DocumentLoader loader = new DocumentLoader(userAgent);
+        BridgeContext ctx = new BridgeContext(userAgent, loader);
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        SVGDocument svgDoc = factory.createSVGDocument(iconItem, new ByteArrayInputStream(content));
+        GVTBuilder builder = new GVTBuilder();
+        GraphicsNode graphics = builder.build(ctx, svgDoc);
+        String svgWidthString = svgDoc.getDocumentElement().getAttribute("width");
+        String svgHeightString = svgDoc.getDocumentElement().getAttribute("height");
+        float svgWidth = Float.valueOf(svgWidthString.substring(0, svgWidthString.length() - 2));
+        float svgHeight = Float.valueOf(svgHeightString.substring(0, svgHeightString.length() - 2));
+        /**
+         * svgFactor needs to be calculated depending on the screen DPI by the PDF DPI
+         * This is 96 / 72 = 4 / 3 ~= 1.3333333 on Windows, but might be different on *nix.
+         */
+        final float svgFactor = 25.4f / userAgent.getPixelUnitToMillimeter() / 72f; // 25.4 mm = 1 inch TODO: Might need to get 72 from somewhere else?
+        //float svgFactor = (float) Toolkit.getDefaultToolkit().getScreenResolution() / 72f; // this only works with AWT, i.e. when a window environment is running
+        return new LegendIconCache.SvgIcon(graphics, svgWidth * svgFactor, svgHeight * svgFactor);
+    }
 }
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress of a print, updated by the rendering code (pages and map tiles)
+ * and read by the thread reporting the status of the print job.
+ * <p/>
+ * Can also be used to cancel a print: the rendering code calls
+ * {@link #checkCancelled()} between two steps.
+ */
+public class PrintProgress {
+    private volatile int nbPages = 0;
+    private final AtomicInteger pagesDone = new AtomicInteger(0);
+
+    private final AtomicInteger nbTiles = new AtomicInteger(0);
+    private final AtomicInteger tilesDone = new AtomicInteger(0);
+
+    /**
+     * Tile counters when the current page was started.
+     */
+    private volatile int pageStartNbTiles = 0;
+    private volatile int pageStartTilesDone = 0;
+
+    private volatile boolean cancelled = false;
+
+    public void setNbPages(int nbPages) {
+        this.nbPages = nbPages;
+    }
+
+    public void pageDone() {
+        pagesDone.incrementAndGet();
+        pageStartNbTiles = nbTiles.get();
+        pageStartTilesDone = tilesDone.get();
+        checkCancelled();
+    }
+
+    public void addTiles(int nb) {
+        nbTiles.addAndGet(nb);
+    }
+
+    public void tileDone() {
+        tilesDone.incrementAndGet();
+    }
+
+    public int getNbPages() {
+        return nbPages;
+    }
+
+    public int getPagesDone() {
+        return pagesDone.get();
+    }
+
+    public int getNbTiles() {
+        return nbTiles.get();
+    }
+
+    public int getTilesDone() {
+        return tilesDone.get();
+    }
+
+    /**
+     * @return An estimation of the progress between 0 and 1. The tiles loaded for
+     * the current page count as a fraction of a page.
+     */
+    public double getProgress() {
+        final int pages = nbPages;
+        if (pages <= 0) {
+            return 0.0;
+        }
+        double current = 0.0;
+        final int pageTiles = nbTiles.get() - pageStartNbTiles;
+        if (pageTiles > 0) {
+            current = (double) (tilesDone.get() - pageStartTilesDone) / pageTiles;
+        }
+        return Math.min(1.0, (pagesDone.get() + Math.min(current, 1.0)) / pages);
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws CancellationException if the print has been cancelled.
+     */
+    public void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Print cancelled");
+        }
+    }
+}
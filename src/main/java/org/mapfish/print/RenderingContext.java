@@ -19,6 +19,8 @@
 
 package org.mapfish.print;
 
+import java.io.Closeable;
+import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -26,12 +28,15 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.apache.log4j.Logger;
 import org.mapfish.print.config.Config;
 import org.mapfish.print.config.layout.ExtraPage;
 import org.mapfish.print.config.layout.Layout;
 import org.mapfish.print.config.layout.Page;
 import org.mapfish.print.config.layout.Page.Position;
+import org.mapfish.print.map.cache.TileResponse;
 import org.mapfish.print.utils.PJsonObject;
 
 import com.itextpdf.text.Document;
@@ -43,6 +48,8 @@ import com.itextpdf.text.pdf.PdfWriter;
  * Holds some "per rendering request" information.
  */
 public class RenderingContext {
+    public static final Logger LOGGER = Logger.getLogger(RenderingContext.class);
+
     private final Document document;
     private final PdfWriter writer;
     private final Config config;
@@ -91,8 +98,29 @@ public class RenderingContext {
      */
     private final Object pdfLock=new Object();
 
+    private final PrintProgress progress;
+
+    /**
+     * Tiles downloaded in advance for the next pages, see {@link org.mapfish.print.map.PagePrefetcher}.
+     */
+    private final Map<URI, TileResponse> prefetchedTiles = new ConcurrentHashMap<URI, TileResponse>();
+
+    /**
+     * What to release at the end of the print, see {@link #addCloseHook(java.io.Closeable)}.
+     * Protected by itself.
+     */
+    private final List<Closeable> closeHooks = new ArrayList<Closeable>();
+    private boolean closed = false;
+
     public RenderingContext(Document document, PdfWriter writer, Config config,
                             PJsonObject globalParams, String configDir, Layout layout, Map<String, String> headers) {
+        this(document, writer, config, globalParams, configDir, layout, headers, new PrintProgress());
+    }
+
+    public RenderingContext(Document document, PdfWriter writer, Config config,
+                            PJsonObject globalParams, String configDir, Layout layout, Map<String, String> headers,
+                            PrintProgress progress) {
+        this.progress = progress;
         this.document = document;
         this.writer = writer;
         this.config = config;
@@ -192,6 +220,45 @@ public class RenderingContext {
         customBlocks.addError(e);
     }
 
+    /**
+     * Register something to release at the end of the print, even if it failed or was
+     * cancelled. If the print is already finished, it is released right away.
+     */
+    public void addCloseHook(Closeable hook) {
+        synchronized (closeHooks) {
+            if (!closed) {
+                closeHooks.add(hook);
+                return;
+            }
+        }
+        close(hook);
+    }
+
+    /**
+     * To call at the end of the print, successful or not.
+     */
+    public void close() {
+        final List<Closeable> hooks;
+        synchronized (closeHooks) {
+            closed = true;
+            hooks = new ArrayList<Closeable>(closeHooks);
+            closeHooks.clear();
+        }
+        for (Closeable hook : hooks) {
+            close(hook);
+        }
+    }
+
+    private static void close(Closeable hook) {
+        try {
+            hook.close();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot release a resource of the print", e);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cannot release a resource of the print", e);
+        }
+    }
+
     public float getStyleFactor() {
         return styleFactor;
     }
@@ -208,6 +275,25 @@ public class RenderingContext {
         return headers;
     }
 
+    public void putPrefetchedTile(URI uri, TileResponse response) {
+        prefetchedTiles.put(uri, response);
+    }
+
+    public boolean hasPrefetchedTile(URI uri) {
+        return prefetchedTiles.containsKey(uri);
+    }
+
+    /**
+     * @return The tile downloaded in advance for this URI (and forget about it) or null.
+     */
+    public TileResponse takePrefetchedTile(URI uri) {
+        return prefetchedTiles.remove(uri);
+    }
+
+    public PrintProgress getProgress() {
+        return progress;
+    }
+
     public Object getPdfLock() {
         return pdfLock;
     }
@@ -1,12 +1,31 @@
 package org.mapfish.print;
 
+import com.codahale.metrics.health.HealthCheckRegistry;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.log4j.Logger;
+import org.mapfish.print.config.TileCacheConfig;
+import org.mapfish.print.legend.LegendIconCache;
 import org.mapfish.print.map.MapTileTask;
+import org.mapfish.print.map.cache.InFlightFetches;
+import org.mapfish.print.map.cache.TileCache;
+import org.mapfish.print.map.http.AsyncTileFetcher;
+import org.mapfish.print.map.http.BlockingTileFetcher;
+import org.mapfish.print.map.http.TileFetcher;
+import org.mapfish.print.map.readers.ServerInfoCache;
+import org.mapfish.print.metrics.WarmUpHealthCheck;
 import org.pvalsecc.concurrent.OrderedResultsExecutor;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Encapsulates resources that start and stop threads and need to be disposed and controlled.
@@ -14,6 +33,7 @@ import javax.annotation.PreDestroy;
  * @author Jesse on 5/13/2014.
  */
 public class ThreadResources {
+    public static final Logger LOGGER = Logger.getLogger(ThreadResources.class);
 
     /**
      * The bunch of threads that will be used to do the // fetching of the map
@@ -22,6 +42,84 @@ public class ThreadResources {
     private OrderedResultsExecutor<MapTileTask> mapRenderingExecutor = null;
 
     private MultiThreadedHttpConnectionManager connectionManager;
+
+    /**
+     * The tile caches, by settings. The configurations having the same tileCache
+     * settings share the same cache. Kept here since the configurations are reloaded
+     * much more often than this object.
+     */
+    private final ConcurrentMap<TileCacheConfig, TileCache> tileCaches = new ConcurrentHashMap<TileCacheConfig, TileCache>();
+
+    /**
+     * The tiles currently being downloaded, shared by all the prints.
+     */
+    private final InFlightFetches inFlightFetches = new InFlightFetches();
+
+    /**
+     * The decoded legend icons, shared by all the prints.
+     */
+    private LegendIconCache legendIconCache;
+
+    /**
+     * Max number of legend icons kept in memory.
+     */
+    private int legendIconCacheSize = 500;
+
+    /**
+     * The content of the background PDF files, shared by all the prints.
+     */
+    private BackgroundPdfCache backgroundPdfCache;
+
+    /**
+     * Max number of MB of background PDF files kept in memory.
+     */
+    private int backgroundPdfCacheSize = 32;
+
+    /**
+     * Time in seconds after which the capabilities of a server are reloaded.
+     */
+    private long capabilitiesTimeToLive = 60 * 60;
+
+    /**
+     * Time in seconds after which a server that didn't answer its capabilities is tried again.
+     */
+    private long capabilitiesErrorTimeToLive = 60;
+
+    /**
+     * Where to save the capabilities documents so they survive restarts. Null to disable.
+     */
+    private String capabilitiesCacheDir = null;
+
+    /**
+     * Downloads the tiles, images and legends.
+     */
+    private TileFetcher tileFetcher;
+
+    /**
+     * If true, the tiles are downloaded using a non-blocking HTTP client.
+     */
+    private boolean asyncHttpClient = false;
+
+    /**
+     * Number of I/O threads of the non-blocking HTTP client.
+     */
+    private int asyncIoThreads = Runtime.getRuntime().availableProcessors();
+    /**
+     * If true, the projections and the layouts of the first printer started are loaded
+     * in the background (see {@link WarmUp}).
+     */
+    private boolean warmUp = false;
+
+    /**
+     * The projections decoded during the warm-up.
+     */
+    private List<String> warmUpSrs = Arrays.asList("EPSG:4326", "EPSG:3857");
+
+    private WarmUp warmUpTasks;
+
+    @Autowired(required = false)
+    private HealthCheckRegistry healthCheckRegistry;
+
     private int perHostParallelFetches = 10;
     private int globalParallelFetches = 30;
     private int connectionTimeout = 30000;
@@ -37,16 +135,58 @@ public class ThreadResources {
         params.setSoTimeout(this.socketTimeout);
         params.setConnectionTimeout(this.connectionTimeout);
 
-        mapRenderingExecutor = new OrderedResultsExecutor<MapTileTask>(globalParallelFetches, "tilesReader");
+        mapRenderingExecutor = new OrderedResultsExecutor<MapTileTask>(globalParallelFetches, perHostParallelFetches, "tilesReader");
         mapRenderingExecutor.start();
+
+        if (this.asyncHttpClient) {
+            tileFetcher = new AsyncTileFetcher(globalParallelFetches, perHostParallelFetches, asyncIoThreads,
+                    connectionTimeout, socketTimeout);
+        } else {
+            tileFetcher = new BlockingTileFetcher();
+        }
+
+        legendIconCache = new LegendIconCache(legendIconCacheSize);
+        backgroundPdfCache = new BackgroundPdfCache(backgroundPdfCacheSize);
+
+        ServerInfoCache.configure(capabilitiesTimeToLive * 1000L, capabilitiesErrorTimeToLive * 1000L,
+                capabilitiesCacheDir != null ? new File(capabilitiesCacheDir) : null);
+
+        if (this.warmUp) {
+            warmUpTasks = new WarmUp();
+            warmUpTasks.decodeSrs(warmUpSrs);
+            if (healthCheckRegistry != null) {
+                healthCheckRegistry.register(WarmUpHealthCheck.NAME, new WarmUpHealthCheck(warmUpTasks));
+            }
+        }
     }
 
     @PreDestroy
     public void destroy() {
         try {
             this.connectionManager.shutdown();
+            if (this.tileFetcher instanceof AsyncTileFetcher) {
+                ((AsyncTileFetcher) this.tileFetcher).close();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Error while closing the HTTP client", e);
         } finally {
             this.mapRenderingExecutor.stop();
+            if (this.warmUpTasks != null) {
+                this.warmUpTasks.stop();
+                if (this.healthCheckRegistry != null) {
+                    this.healthCheckRegistry.unregister(WarmUpHealthCheck.NAME);
+                }
+            }
+            for (TileCache tileCache : this.tileCaches.values()) {
+                tileCache.clearMemory();
+            }
+            this.tileCaches.clear();
+            if (this.legendIconCache != null) {
+                this.legendIconCache.clear();
+            }
+            if (this.backgroundPdfCache != null) {
+                this.backgroundPdfCache.clear();
+            }
         }
     }
 
@@ -58,6 +198,42 @@ public class ThreadResources {
         this.globalParallelFetches = globalParallelFetches;
     }
 
+    public void setAsyncHttpClient(boolean asyncHttpClient) {
+        this.asyncHttpClient = asyncHttpClient;
+    }
+
+    public void setAsyncIoThreads(int asyncIoThreads) {
+        this.asyncIoThreads = asyncIoThreads;
+    }
+
+    public void setLegendIconCacheSize(int legendIconCacheSize) {
+        this.legendIconCacheSize = legendIconCacheSize;
+    }
+
+    public void setBackgroundPdfCacheSize(int backgroundPdfCacheSize) {
+        this.backgroundPdfCacheSize = backgroundPdfCacheSize;
+    }
+
+    public void setCapabilitiesTimeToLive(long capabilitiesTimeToLive) {
+        this.capabilitiesTimeToLive = capabilitiesTimeToLive;
+    }
+
+    public void setCapabilitiesErrorTimeToLive(long capabilitiesErrorTimeToLive) {
+        this.capabilitiesErrorTimeToLive = capabilitiesErrorTimeToLive;
+    }
+
+    public void setCapabilitiesCacheDir(String capabilitiesCacheDir) {
+        this.capabilitiesCacheDir = capabilitiesCacheDir;
+    }
+
+    public void setWarmUp(boolean warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    public void setWarmUpSrs(List<String> warmUpSrs) {
+        this.warmUpSrs = warmUpSrs;
+    }
+
     public void setConnectionTimeout(int connectionTimeout) {
         this.connectionTimeout = connectionTimeout;
     }
@@ -70,7 +246,63 @@ public class ThreadResources {
         return connectionManager;
     }
 
+    public TileFetcher getTileFetcher() {
+        return tileFetcher;
+    }
+
+    public LegendIconCache getLegendIconCache() {
+        return legendIconCache;
+    }
+
+    public BackgroundPdfCache getBackgroundPdfCache() {
+        return backgroundPdfCache;
+    }
+
+    /**
+     * @return The warm-up tasks or null if the warm-up is disabled.
+     */
+    public WarmUp getWarmUp() {
+        return warmUpTasks;
+    }
+
     public OrderedResultsExecutor<MapTileTask> getMapRenderingExecutor() {
         return mapRenderingExecutor;
     }
+
+    /**
+     * Get the tile cache for the given settings. Each distinct settings have their own
+     * cache, except that a disk directory is used by only one cache: the cache of new
+     * settings using the same directory replaces the previous one.
+     */
+    public TileCache getTileCache(TileCacheConfig config) {
+        TileCache current = this.tileCaches.get(config);
+        if (current != null) {
+            return current;
+        }
+        synchronized (this.tileCaches) {
+            current = this.tileCaches.get(config);
+            if (current == null) {
+                if (config.getDirectory() != null) {
+                    final Iterator<TileCache> it = this.tileCaches.values().iterator();
+                    while (it.hasNext()) {
+                        final TileCache other = it.next();
+                        if (config.getDirectory().equals(other.getConfig().getDirectory())) {
+                            other.clearMemory();
+                            it.remove();
+                        }
+                    }
+                }
+                current = new TileCache(config);
+                this.tileCaches.put(config, current);
+            }
+            return current;
+        }
+    }
+
+    /**
+     * @return The tiles being downloaded, shared by all the configurations.
+     */
+    public InFlightFetches getInFlightFetches() {
+        return inFlightFetches;
+    }
 }
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mapfish.print.config.Config;
+import org.mapfish.print.utils.DistanceUnit;
+import org.mapfish.print.utils.PJsonObject;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Does, in the background, what is slow the first time it's done: decoding the
+ * projections (starts the EPSG database) and rendering each layout (loads the fonts,
+ * iText, Batik, ...). So that the first real prints are not slower than the others.
+ * <p/>
+ * The layouts are rendered with a synthetic spec without any layer, to a null
+ * output. Layouts needing attributes that are not in this spec fail, but most of the
+ * work is already done by then.
+ * <p/>
+ * The layouts are those of the first {@link MapPrinter} started on this node. What
+ * is slow the first time is shared by all the configurations, so the others, and the
+ * reloaded ones, are not warmed up. The synthetic prints are not counted in the
+ * metrics of the real prints.
+ * <p/>
+ * {@link #isReady()} tells if all the scheduled tasks are done (see
+ * {@link org.mapfish.print.metrics.WarmUpHealthCheck}). The warm-up is not ready
+ * before the layouts are scheduled or {@link #setScheduled()} is called.
+ */
+public class WarmUp {
+    public static final Logger LOGGER = Logger.getLogger(WarmUp.class);
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("warmUp-%d").build());
+
+    /**
+     * Number of tasks scheduled and not done yet, plus one until {@link #setScheduled()}
+     * is called.
+     */
+    private final AtomicInteger pending = new AtomicInteger(1);
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    private final AtomicBoolean layoutsScheduled = new AtomicBoolean(false);
+
+    /**
+     * Decode the given projections, the same way as the geodetic maps.
+     */
+    public void decodeSrs(Collection<String> srsCodes) {
+        for (final String srs : srsCodes) {
+            submit(new Runnable() {
+                public void run() {
+                    try {
+                        new Transformer(0, 0, 100, 100, 25000, 72, DistanceUnit.M, 0, srs, false, false);
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Cannot decode the projection " + srs + ": " + e);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Render each layout of the printer with a synthetic spec, if no printer has been
+     * warmed up yet. The printer is not used if it is stopped before its turn.
+     */
+    public void warmUp(final MapPrinter printer) {
+        final Config config = printer.getConfig();
+        if (config == null || !layoutsScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (final String layout : config.getLayoutNames()) {
+                submit(new Runnable() {
+                    public void run() {
+                        printer.start();
+                        try {
+                            if (printer.isRunning()) {
+                                render(printer, layout);
+                            }
+                        } finally {
+                            printer.stop();
+                        }
+                    }
+                });
+            }
+        } finally {
+            setScheduled();
+        }
+    }
+
+    private static void render(MapPrinter printer, String layout) {
+        final long start = System.currentTimeMillis();
+        try {
+            printer.warmUpPrint(createSpec(printer.getConfig(), layout), ByteStreams.nullOutputStream());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Throwable e) {
+            //the attributes of the real specs are missing
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Warm-up print of the layout '" + layout + "' failed: " + e);
+            }
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Layout '" + layout + "' warm-up done in " + (System.currentTimeMillis() - start) + "ms");
+        }
+    }
+
+    static PJsonObject createSpec(Config config, String layout) {
+        try {
+            final JSONObject page = new JSONObject();
+            page.put("center", new JSONArray().put(0).put(0));
+            page.put("scale", (int) config.getBestScale(25000));
+            page.put("rotation", 0);
+
+            final JSONObject spec = new JSONObject();
+            spec.put("layout", layout);
+            spec.put("units", "m");
+            spec.put("dpi", config.getDpis().first());
+            spec.put("layers", new JSONArray());
+            spec.put("pages", new JSONArray().put(page));
+            return new PJsonObject(spec, "spec");
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * To call when no layout will be warmed up, for example because the default
+     * configuration couldn't be loaded. Done by {@link #warmUp(MapPrinter)} otherwise.
+     */
+    public void setScheduled() {
+        if (scheduled.compareAndSet(false, true)) {
+            pending.decrementAndGet();
+        }
+    }
+
+    void submit(final Runnable task) {
+        pending.incrementAndGet();
+        try {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        pending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //stopped
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return True if all the scheduled tasks are done.
+     */
+    public boolean isReady() {
+        return pending.get() == 0;
+    }
+
+    /**
+     * @return The number of tasks left.
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+}
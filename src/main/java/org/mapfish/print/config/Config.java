@@ -21,6 +21,7 @@ package org.mapfish.print.config;
 
 //import org.apache.commons.httpclient.HostConfiguration;
 import com.codahale.metrics.MetricRegistry;
+import com.itextpdf.text.pdf.BaseFont;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
@@ -28,13 +29,20 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.json.JSONException;
 import org.json.JSONWriter;
+import org.mapfish.print.BackgroundPdfCache;
 import org.mapfish.print.Constants;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
 import org.mapfish.print.ThreadResources;
+import org.mapfish.print.WarmUp;
 import org.mapfish.print.config.layout.Layout;
 import org.mapfish.print.config.layout.Layouts;
+import org.mapfish.print.legend.LegendIconCache;
 import org.mapfish.print.map.MapTileTask;
+import org.mapfish.print.map.cache.InFlightFetches;
+import org.mapfish.print.map.cache.TileCache;
+import org.mapfish.print.map.http.BlockingTileFetcher;
+import org.mapfish.print.map.http.TileFetcher;
 import org.mapfish.print.map.readers.MapReaderFactoryFinder;
 import org.mapfish.print.map.readers.WMSServiceInfo;
 import org.mapfish.print.output.OutputFactory;
@@ -50,9 +58,11 @@ import java.net.URI;
 import java.net.UnknownHostException;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.TreeSet;
 //import org.mapfish.print.output.OutputFormat;
 
@@ -76,6 +86,18 @@ public class Config implements Closeable {
     private boolean ignoreCapabilities = false;
     private int maxPrintTimeBeforeWarningInSeconds = 30;
     private int printTimeoutMinutes = 5;
+
+    /**
+     * Number of print jobs (submit.json) executed in // and max number of jobs
+     * waiting to be executed.
+     */
+    private int maxRunningPrintJobs = 2;
+    private int maxQueuedPrintJobs = 20;
+
+    /**
+     * Number of pages for which the tiles are downloaded in advance.
+     */
+    private int prefetchPages = 1;
     private boolean disableLayersMerging = false;
 
     private ThreadResources threadResources;
@@ -86,6 +108,12 @@ public class Config implements Closeable {
 
     private TreeSet<String> fonts = null;
     private List<HostMatcher> hosts = new ArrayList<HostMatcher>();
+
+    /**
+     * The decisions of the {@link #hosts}, cached for a while.
+     */
+    private final HostAuthorizationCache hostAuthorizations = new HostAuthorizationCache();
+
     private HashMap localHostForward;
     private TreeSet<String> headers;
     private TreeSet<Key> keys;
@@ -96,6 +124,7 @@ public class Config implements Closeable {
     private int connectionTimeout = 40*60*1000; // 40 minutes //30*1000;
 
     private boolean tilecacheMerging = false;
+    private TileCacheConfig tileCache = null;
     private boolean disableScaleLocking = false;
     private boolean addForwardedFor = false;
     
@@ -108,6 +137,7 @@ public class Config implements Closeable {
      * Used only in case of bbox printing (use by the PrintAction JS component).
      */
     private static final double BEST_SCALE_TOLERANCE = 0.98;
+    private static final TileFetcher DEFAULT_TILE_FETCHER = new BlockingTileFetcher();
 
     private TreeSet<String> formats; // private int svgMaxWidth = -1; private int svgMaxHeight = -1;
 
@@ -130,6 +160,10 @@ public class Config implements Closeable {
         return layouts.get(name);
     }
 
+    public Set<String> getLayoutNames() {
+        return layouts.keySet();
+    }
+
     public void setLayouts(Layouts layouts) {
         this.layouts = layouts;
     }
@@ -231,6 +265,7 @@ public class Config implements Closeable {
 
     public void setHosts(List<HostMatcher> hosts) {
         this.hosts = hosts;
+        this.hostAuthorizations.clear();
     }
 
     public void setFonts(TreeSet<String> fonts) {
@@ -241,6 +276,19 @@ public class Config implements Closeable {
         return fonts;
     }
 
+    /**
+     * @return The font encodings used by the blocks of the layouts, to parse the
+     * fonts in advance.
+     */
+    public Set<String> getFontEncodings() {
+        final Set<String> result = new TreeSet<String>();
+        result.add(BaseFont.WINANSI);
+        if (layouts != null) {
+            layouts.collectFontEncodings(result);
+        }
+        return result;
+    }
+
     public void setKeys(TreeSet<Key> keys) {
         this.keys = keys;
     }
@@ -255,16 +303,17 @@ public class Config implements Closeable {
      * Make sure an URI is authorized
      */
     public boolean validateUri(URI uri) throws UnknownHostException, SocketException, MalformedURLException {
-        for (int i = 0; i < hosts.size(); i++) {
-            HostMatcher matcher = hosts.get(i);
-            if (matcher.validate(uri)) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("URI [" + uri + "] accepted by: " + matcher);
-                }
-                return true;
-            }
+        return hostAuthorizations.validate(hosts, uri);
+    }
+
+    /**
+     * Validate in parallel the URIs that will be validated one by one later, to do the
+     * DNS resolutions of the different hosts at the same time.
+     */
+    public void prevalidateUris(Collection<URI> uris) {
+        if (uris.size() > 1) {
+            hostAuthorizations.validateAll(hosts, uris);
         }
-        return false;
     }
 
     /**
@@ -297,6 +346,16 @@ public class Config implements Closeable {
             throw new InvalidValueException("perHostParallelFetches", perHostParallelFetches);
         }
 
+        if (prefetchPages < 0) {
+            throw new InvalidValueException("prefetchPages", prefetchPages);
+        }
+        if (maxRunningPrintJobs < 1) {
+            throw new InvalidValueException("maxRunningPrintJobs", maxRunningPrintJobs);
+        }
+        if (maxQueuedPrintJobs < 0) {
+            throw new InvalidValueException("maxQueuedPrintJobs", maxQueuedPrintJobs);
+        }
+
         if (socketTimeout < 0) {
             throw new InvalidValueException("socketTimeout", socketTimeout);
         }
@@ -308,6 +367,10 @@ public class Config implements Closeable {
             key.validate();
         }
 
+        if (tileCache != null) {
+            tileCache.validate();
+        }
+
     }
 
     /**
@@ -395,6 +458,67 @@ public class Config implements Closeable {
         return tilecacheMerging;
     }
 
+    public void setTileCache(TileCacheConfig tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * @return The cache to use for the tiles or null if it is not enabled.
+     */
+    public TileCache getTileCache() {
+        if (tileCache == null || !tileCache.isEnabled() || threadResources == null) {
+            return null;
+        }
+        return threadResources.getTileCache(tileCache);
+    }
+
+    /**
+     * @return The tiles being downloaded by all the prints or null if not available.
+     */
+    public InFlightFetches getInFlightFetches() {
+        return threadResources != null ? threadResources.getInFlightFetches() : null;
+    }
+
+    /**
+     * @return The legend icons shared by all the prints or null if not available.
+     */
+    public LegendIconCache getLegendIconCache() {
+        return threadResources != null ? threadResources.getLegendIconCache() : null;
+    }
+
+    /**
+     * @return The background PDF files shared by all the prints or null if not available.
+     */
+    public BackgroundPdfCache getBackgroundPdfCache() {
+        return threadResources != null ? threadResources.getBackgroundPdfCache() : null;
+    }
+
+    /**
+     * @return The background warm-up or null if disabled or not available.
+     */
+    public WarmUp getWarmUp() {
+        return threadResources != null ? threadResources.getWarmUp() : null;
+    }
+
+    /**
+     * @return The object used to download the tiles, images and legends.
+     */
+    public TileFetcher getTileFetcher() {
+        return threadResources != null ? threadResources.getTileFetcher() : DEFAULT_TILE_FETCHER;
+    }
+
+    /**
+     * @return True if one of the security strategies applies to this URI.
+     */
+    public boolean isSecured(URI uri) {
+        for (SecurityStrategy sec : security) {
+            if (sec.matches(uri)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public void setDisableScaleLocking(boolean disableScaleLocking) {
         this.disableScaleLocking = disableScaleLocking;
     }
@@ -618,6 +742,30 @@ public class Config implements Closeable {
         this.printTimeoutMinutes = printTimeoutMinutes;
     }
 
+    public int getPrefetchPages() {
+        return prefetchPages;
+    }
+
+    public void setPrefetchPages(int prefetchPages) {
+        this.prefetchPages = prefetchPages;
+    }
+
+    public int getMaxRunningPrintJobs() {
+        return maxRunningPrintJobs;
+    }
+
+    public void setMaxRunningPrintJobs(int maxRunningPrintJobs) {
+        this.maxRunningPrintJobs = maxRunningPrintJobs;
+    }
+
+    public int getMaxQueuedPrintJobs() {
+        return maxQueuedPrintJobs;
+    }
+
+    public void setMaxQueuedPrintJobs(int maxQueuedPrintJobs) {
+        this.maxQueuedPrintJobs = maxQueuedPrintJobs;
+    }
+
     public void setMaxPrintTimeBeforeWarningInSeconds(int maxPrintTimeBeforeWarningInSeconds) {
         this.maxPrintTimeBeforeWarningInSeconds = maxPrintTimeBeforeWarningInSeconds;
     }
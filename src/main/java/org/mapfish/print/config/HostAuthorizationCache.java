@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.config;
+
+import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Remembers for a while which URIs were accepted or refused by the {@link HostMatcher}s
+ * of a configuration, to avoid doing the DNS resolutions again for each layer of each
+ * print.
+ * <p/>
+ * The matchers only look at the host, the port and the path, so the decisions are
+ * cached by those.
+ */
+public class HostAuthorizationCache {
+    public static final Logger LOGGER = Logger.getLogger(HostAuthorizationCache.class);
+
+    /**
+     * Time after which a decision is taken again, in case the DNS changed.
+     */
+    private static final long TIME_TO_LIVE_SECONDS = 60;
+
+    private static final int MAX_DECISIONS = 10000;
+
+    /**
+     * Threads used to validate the URIs of a print in parallel. When they are all busy,
+     * the caller does the work itself.
+     */
+    private static final ThreadPoolExecutor VALIDATORS = new ThreadPoolExecutor(0, 8, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<Runnable>(),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("hostValidation-%d").build(),
+            new ThreadPoolExecutor.CallerRunsPolicy());
+
+    private final Cache<String, Boolean> decisions = CacheBuilder.newBuilder().
+            maximumSize(MAX_DECISIONS).
+            expireAfterWrite(TIME_TO_LIVE_SECONDS, TimeUnit.SECONDS).
+            build();
+
+    /**
+     * @return True if one of the matchers accepts the URI.
+     */
+    public boolean validate(List<HostMatcher> hosts, URI uri) throws UnknownHostException, SocketException, MalformedURLException {
+        final String key = createKey(uri);
+        final Boolean cached = decisions.getIfPresent(key);
+        if (cached != null) {
+            return cached;
+        }
+        boolean result = false;
+        for (int i = 0; i < hosts.size(); i++) {
+            HostMatcher matcher = hosts.get(i);
+            if (matcher.validate(uri)) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("URI [" + uri + "] accepted by: " + matcher);
+                }
+                result = true;
+                break;
+            }
+        }
+        decisions.put(key, result);
+        return result;
+    }
+
+    /**
+     * Validate the given URIs in parallel, so that the slow DNS resolutions of the
+     * different hosts don't add up. The errors are ignored: they'll be thrown again when
+     * the URIs are validated one by one.
+     */
+    public void validateAll(final List<HostMatcher> hosts, Collection<URI> uris) {
+        final List<Future<Boolean>> results = new ArrayList<Future<Boolean>>(uris.size());
+        for (final URI uri : uris) {
+            try {
+                if (decisions.getIfPresent(createKey(uri)) != null) {
+                    continue;
+                }
+            } catch (MalformedURLException e) {
+                continue;
+            }
+            results.add(VALIDATORS.submit(new Callable<Boolean>() {
+                public Boolean call() throws Exception {
+                    return validate(hosts, uri);
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                LOGGER.debug("Cannot validate an URI", e.getCause());
+            }
+        }
+    }
+
+    public void clear() {
+        decisions.invalidateAll();
+    }
+
+    private static String createKey(URI uri) throws MalformedURLException {
+        int port = uri.getPort();
+        if (port < 0) {
+            port = uri.toURL().getDefaultPort();
+        }
+        return uri.getScheme() + "://" + uri.getHost() + ":" + port + uri.getPath();
+    }
+}
@@ -35,6 +35,11 @@ public abstract class HostMatcher {
     protected int port = -1;
     protected String pathRegex = null;
 
+    /**
+     * The compiled {@link #pathRegex}.
+     */
+    private Pattern pathPattern = null;
+
     public boolean validate(URI uri) throws UnknownHostException, SocketException, MalformedURLException {
         int uriPort = uri.getPort();
         if (uriPort < 0) {
@@ -45,7 +50,10 @@ public abstract class HostMatcher {
         }
 
         if (pathRegex != null) {
-            Matcher matcher = Pattern.compile(pathRegex).matcher(uri.getPath());
+            if (pathPattern == null) {
+                pathPattern = Pattern.compile(pathRegex);
+            }
+            Matcher matcher = pathPattern.matcher(uri.getPath());
             if (!matcher.matches()) {
                 return false;
             }
@@ -59,6 +67,7 @@ public abstract class HostMatcher {
 
     public void setPathRegex(String pathRegex) {
         this.pathRegex = pathRegex;
+        this.pathPattern = null;
     }
 
     public abstract String toString();
@@ -24,23 +24,44 @@ import java.net.MalformedURLException;
 import java.net.SocketException;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 /**
  * Allows to check that a given URL matches an IP address (numeric format)
  */
 public abstract class InetHostMatcher extends HostMatcher {
     public static final Logger LOGGER = Logger.getLogger(InetHostMatcher.class);
 
+    /**
+     * The addresses of the hosts of the validated URIs, shared by all the matchers, so
+     * that a host is resolved only once even if there are many layers and matchers.
+     */
+    private static final Cache<String, InetAddress[]> RESOLVED_HOSTS = CacheBuilder.newBuilder().
+            maximumSize(1000).
+            expireAfterWrite(60, TimeUnit.SECONDS).
+            build();
+
     protected byte[][] authorizedIPs = null;
 
+    /**
+     * The masked {@link #authorizedIPs}, for a direct lookup of the masked requested IP.
+     */
+    private volatile Set<ByteBuffer> authorizedSet = null;
+
     public boolean validate(URI uri) throws UnknownHostException, SocketException, MalformedURLException {
         final InetAddress maskAddress = getMaskAddress();
         final InetAddress[] requestedIPs;
         try {
-            requestedIPs = InetAddress.getAllByName(uri.getHost());
+            requestedIPs = resolve(uri.getHost());
         } catch (UnknownHostException ex) {
             return false;
         }
@@ -55,14 +76,30 @@ public abstract class InetHostMatcher extends HostMatcher {
         return oneMatching && super.validate(uri);
     }
 
+    private static InetAddress[] resolve(String host) throws UnknownHostException {
+        InetAddress[] result = RESOLVED_HOSTS.getIfPresent(host);
+        if (result == null) {
+            result = InetAddress.getAllByName(host);
+            RESOLVED_HOSTS.put(host, result);
+        }
+        return result;
+    }
+
     private boolean isInAuthorized(InetAddress requestedIP, InetAddress mask) throws UnknownHostException, SocketException {
         byte[] rBytes = mask(requestedIP, mask);
         final byte[][] authorizedIPs = getAuthorizedIPs(mask);
-        for (int i = 0; i < authorizedIPs.length; ++i) {
-            byte[] authorizedIP = authorizedIPs[i];
-            if (compareIP(rBytes, authorizedIP)) {
+        final Set<ByteBuffer> authorizedSet = this.authorizedSet;
+        if (authorizedSet != null) {
+            if (authorizedSet.contains(ByteBuffer.wrap(rBytes))) {
                 return true;
             }
+        } else {
+            for (int i = 0; i < authorizedIPs.length; ++i) {
+                byte[] authorizedIP = authorizedIPs[i];
+                if (compareIP(rBytes, authorizedIP)) {
+                    return true;
+                }
+            }
         }
         LOGGER.debug("Address not in the authorizeds: " + requestedIP);
         return false;
@@ -105,10 +142,15 @@ public abstract class InetHostMatcher extends HostMatcher {
 
     protected void buildMaskedAuthorizedIPs(InetAddress[] ips) throws UnknownHostException {
         final InetAddress maskAddress = getMaskAddress();
-        authorizedIPs = new byte[ips.length][];
+        final byte[][] masked = new byte[ips.length][];
+        final Set<ByteBuffer> set = new HashSet<ByteBuffer>();
         for (int i = 0; i < ips.length; ++i) {
-            authorizedIPs[i] = mask(ips[i], maskAddress);
+            masked[i] = mask(ips[i], maskAddress);
+            set.add(ByteBuffer.wrap(masked[i]));
         }
+        //published only once complete, since the matchers are used by concurrent prints
+        authorizedSet = set;
+        authorizedIPs = masked;
     }
 
     protected abstract byte[][] getAuthorizedIPs(InetAddress mask) throws UnknownHostException, SocketException;
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.config;
+
+import org.mapfish.print.InvalidValueException;
+
+/**
+ * Bean mapping the tileCache part of the configuration file.
+ * <p/>
+ * The cache itself ({@link org.mapfish.print.map.cache.TileCache}) is kept by the
+ * {@link org.mapfish.print.ThreadResources} so that it survives the reloading of the
+ * configuration between two print requests.
+ */
+public class TileCacheConfig {
+    private boolean enabled = true;
+
+    /**
+     * Maximum size of the memory tier in MB.
+     */
+    private int maxMemorySize = 64;
+
+    /**
+     * Directory of the disk tier. If null, there is no disk tier.
+     */
+    private String directory = null;
+
+    /**
+     * Maximum size of the disk tier in MB.
+     */
+    private int maxDiskSize = 1024;
+
+    /**
+     * Time in seconds a tile is considered fresh when the server didn't send any
+     * Cache-Control or Expires header.
+     */
+    private int timeToLive = 3600;
+
+    /**
+     * If true, stale tiles having an ETag or a Last-Modified header are revalidated
+     * using a conditional GET instead of being downloaded again.
+     */
+    private boolean revalidate = true;
+
+    public void validate() {
+        if (maxMemorySize < 0) throw new InvalidValueException("tileCache.maxMemorySize", maxMemorySize);
+        if (maxDiskSize < 0) throw new InvalidValueException("tileCache.maxDiskSize", maxDiskSize);
+        if (timeToLive < 0) throw new InvalidValueException("tileCache.timeToLive", timeToLive);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMaxMemorySize() {
+        return maxMemorySize;
+    }
+
+    public void setMaxMemorySize(int maxMemorySize) {
+        this.maxMemorySize = maxMemorySize;
+    }
+
+    public String getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(String directory) {
+        this.directory = directory;
+    }
+
+    public int getMaxDiskSize() {
+        return maxDiskSize;
+    }
+
+    public void setMaxDiskSize(int maxDiskSize) {
+        this.maxDiskSize = maxDiskSize;
+    }
+
+    public int getTimeToLive() {
+        return timeToLive;
+    }
+
+    public void setTimeToLive(int timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public boolean isRevalidate() {
+        return revalidate;
+    }
+
+    public void setRevalidate(boolean revalidate) {
+        this.revalidate = revalidate;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        TileCacheConfig that = (TileCacheConfig) o;
+
+        if (enabled != that.enabled) return false;
+        if (maxDiskSize != that.maxDiskSize) return false;
+        if (maxMemorySize != that.maxMemorySize) return false;
+        if (revalidate != that.revalidate) return false;
+        if (timeToLive != that.timeToLive) return false;
+        if (directory != null ? !directory.equals(that.directory) : that.directory != null) return false;
+
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (enabled ? 1 : 0);
+        result = 31 * result + maxMemorySize;
+        result = 31 * result + (directory != null ? directory.hashCode() : 0);
+        result = 31 * result + maxDiskSize;
+        result = 31 * result + timeToLive;
+        result = 31 * result + (revalidate ? 1 : 0);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "TileCacheConfig{maxMemorySize=" + maxMemorySize + ", directory=" + directory +
+               ", maxDiskSize=" + maxDiskSize + ", timeToLive=" + timeToLive + ", revalidate=" + revalidate + "}";
+    }
+}
@@ -21,6 +21,7 @@ package org.mapfish.print.config.layout;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import org.mapfish.print.InvalidJsonValueException;
 import org.mapfish.print.InvalidValueException;
@@ -214,4 +215,10 @@ public class AttributesBlock extends Block {
         columnDefs.validate();
         if (tableConfig != null) tableConfig.validate();
     }
+
+    public void collectFontEncodings(Set<String> encodings) {
+        for (ColumnDef columnDef : columnDefs.values()) {
+            columnDef.collectFontEncodings(encodings);
+        }
+    }
 }
@@ -19,6 +19,7 @@
 
 package org.mapfish.print.config.layout;
 
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -64,6 +65,13 @@ public abstract class Block {
     public void validate() {
     }
 
+    /**
+     * Add the font encodings used by this block (and the blocks it contains) to the
+     * given set.
+     */
+    public void collectFontEncodings(Set<String> encodings) {
+    }
+
     public boolean isAbsolute() {
         return false;
     }
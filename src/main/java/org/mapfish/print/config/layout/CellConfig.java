@@ -61,17 +61,22 @@ public class CellConfig extends BorderConfig {
         if (borderWidthBottom != null)
             cell.setBorderWidthBottom(borderWidthBottom.floatValue());
 
-        if (getBorderColorLeftVal(context, params) != null)
-            cell.setBorderColorLeft(getBorderColorLeftVal(context, params));
-        if (getBorderColorRightVal(context, params) != null)
-            cell.setBorderColorRight(getBorderColorRightVal(context, params));
-        if (getBorderColorTopVal(context, params) != null)
-            cell.setBorderColorTop(getBorderColorTopVal(context, params));
-        if (getBorderColorBottomVal(context, params) != null)
-            cell.setBorderColorBottom(getBorderColorBottomVal(context, params));
-
-        if (getBackgroundColorVal(context, params) != null)
-            cell.setBackgroundColor(getBackgroundColorVal(context, params));
+        final BaseColor borderColorLeft = getBorderColorLeftVal(context, params);
+        if (borderColorLeft != null)
+            cell.setBorderColorLeft(borderColorLeft);
+        final BaseColor borderColorRight = getBorderColorRightVal(context, params);
+        if (borderColorRight != null)
+            cell.setBorderColorRight(borderColorRight);
+        final BaseColor borderColorTop = getBorderColorTopVal(context, params);
+        if (borderColorTop != null)
+            cell.setBorderColorTop(borderColorTop);
+        final BaseColor borderColorBottom = getBorderColorBottomVal(context, params);
+        if (borderColorBottom != null)
+            cell.setBorderColorBottom(borderColorBottom);
+
+        final BaseColor backgroundColorVal = getBackgroundColorVal(context, params);
+        if (backgroundColorVal != null)
+            cell.setBackgroundColor(backgroundColorVal);
 
         if (align != null) cell.setHorizontalAlignment(align.getCode());
         if (vertAlign != null) cell.setVerticalAlignment(vertAlign.getCode());
@@ -19,6 +19,8 @@
 
 package org.mapfish.print.config.layout;
 
+import java.util.Set;
+
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
@@ -64,6 +66,11 @@ public class ColumnDef {
         cell.validate();
     }
 
+    public void collectFontEncodings(Set<String> encodings) {
+        header.collectFontEncodings(encodings);
+        cell.collectFontEncodings(encodings);
+    }
+
     public void setColumnWeight(int columnWeight) {
         this.columnWeight = columnWeight;
         if (columnWeight < 0)
@@ -20,6 +20,7 @@
 package org.mapfish.print.config.layout;
 
 import java.util.List;
+import java.util.Set;
 
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFCustomBlocks;
@@ -121,6 +122,12 @@ public class ColumnsBlock extends Block {
         return null;
     }
 
+    public void collectFontEncodings(Set<String> encodings) {
+        for (Block item : items) {
+            item.collectFontEncodings(encodings);
+        }
+    }
+
     public void setConfig(TableConfig config) {
         this.config = config;
     }
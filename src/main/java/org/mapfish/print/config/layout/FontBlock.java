@@ -21,12 +21,13 @@ package org.mapfish.print.config.layout;
 
 import com.itextpdf.text.BaseColor;
 import java.awt.Color;
+import java.util.Set;
 
+import org.mapfish.print.FontRegistry;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.config.ColorWrapper;
 
 import com.itextpdf.text.Font;
-import com.itextpdf.text.FontFactory;
 import com.itextpdf.text.pdf.BaseFont;
 
 /**
@@ -68,8 +69,14 @@ public abstract class FontBlock extends Block {
         this.fontEncoding = fontEncoding;
     }
 
+    public void collectFontEncodings(Set<String> encodings) {
+        if (fontEncoding != null) {
+            encodings.add(fontEncoding);
+        }
+    }
+
     protected Font getPdfFont() {
-        Font result = FontFactory.getFont(font, fontEncoding, (float) getFontSize());
+        Font result = FontRegistry.getFont(font, fontEncoding, (float) getFontSize(), Font.UNDEFINED);
         result.setColor(getFontColorVal());
         return result;
     }
@@ -20,6 +20,7 @@
 package org.mapfish.print.config.layout;
 
 import java.util.ArrayList;
+import java.util.Set;
 
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
@@ -68,4 +69,10 @@ public class HeaderFooter {
             items.get(i).validate();
         }
     }
+
+    public void collectFontEncodings(Set<String> encodings) {
+        for (Block item : items) {
+            item.collectFontEncodings(encodings);
+        }
+    }
 }
@@ -19,10 +19,14 @@
 
 package org.mapfish.print.config.layout;
 
+import java.util.Set;
+
 import org.json.JSONException;
 import org.json.JSONWriter;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.RenderingContext;
+import org.mapfish.print.legend.LegendIconPrefetcher;
+import org.mapfish.print.map.PagePrefetcher;
 import org.mapfish.print.utils.PJsonArray;
 import org.mapfish.print.utils.PJsonObject;
 
@@ -48,6 +52,8 @@ public class Layout {
     private String outputFilename;
 
     public void render(PJsonObject params, RenderingContext context) throws DocumentException {
+        LegendIconPrefetcher.prefetch(context);
+
         if (metaData != null) {
             metaData.render(params, context);
         }
@@ -59,9 +65,15 @@ public class Layout {
 
         if (mainPage != null) {
             PJsonArray pages = params.getJSONArray("pages");
+            context.getProgress().setNbPages(pages.size());
+            final PagePrefetcher prefetcher = PagePrefetcher.create(context, mainPage.getMap(null), pages);
             for (int i = 0; i < pages.size(); ++i) {
+                if (prefetcher != null) {
+                    prefetcher.beforePage(i);
+                }
                 final PJsonObject cur = pages.getJSONObject(i);
                 mainPage.render(cur, context);
+                context.getProgress().pageDone();
             }
         }
 
@@ -169,6 +181,17 @@ public class Layout {
         if(lastPage !=null) lastPage.validate();
     }
 
+    /**
+     * Add the font encodings used by the blocks of this layout to the given set.
+     */
+    public void collectFontEncodings(Set<String> encodings) {
+        if (titlePage != null) titlePage.collectFontEncodings(encodings);
+        if (mainPage != null) mainPage.collectFontEncodings(encodings);
+        if (dynamicImagesPage != null) dynamicImagesPage.collectFontEncodings(encodings);
+        if (extraPage != null) extraPage.collectFontEncodings(encodings);
+        if (lastPage != null) lastPage.collectFontEncodings(encodings);
+    }
+
     public String getOutputFilename() {
         return outputFilename;
     }
@@ -20,6 +20,7 @@
 package org.mapfish.print.config.layout;
 
 import java.util.HashMap;
+import java.util.Set;
 
 import org.ho.yaml.wrapper.DefaultMapWrapper;
 import org.mapfish.print.InvalidValueException;
@@ -54,4 +55,13 @@ public class Layouts extends HashMap<String, Layout> {
             layout.validate();
         }
     }
+
+    /**
+     * Add the font encodings used by the blocks of the layouts to the given set.
+     */
+    public void collectFontEncodings(Set<String> encodings) {
+        for (Layout layout : values()) {
+            layout.collectFontEncodings(encodings);
+        }
+    }
 }
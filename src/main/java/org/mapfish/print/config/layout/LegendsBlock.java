@@ -21,33 +21,31 @@ package org.mapfish.print.config.layout;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Comparator;
-import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeSet;
 
 import org.apache.log4j.Logger;
+import org.mapfish.print.FontRegistry;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
+import org.mapfish.print.legend.LegendIconCache;
 import org.mapfish.print.legend.LegendItemTable;
+import org.mapfish.print.legend.LegendMeasurer;
 import org.mapfish.print.utils.PJsonArray;
 import org.mapfish.print.utils.PJsonObject;
 
 import com.itextpdf.text.Chunk;
-import com.itextpdf.text.Document;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Element;
 import com.itextpdf.text.Font;
-import com.itextpdf.text.FontFactory;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.Phrase;
 import com.itextpdf.text.pdf.BaseFont;
@@ -55,7 +53,6 @@ import com.itextpdf.text.pdf.PdfContentByte;
 import com.itextpdf.text.pdf.PdfPCell;
 import com.itextpdf.text.pdf.PdfPTable;
 import com.itextpdf.text.pdf.PdfTemplate;
-import com.itextpdf.text.pdf.PdfWriter;
 
 /**
  * Bean to configure a !legends block.
@@ -66,10 +63,6 @@ public class LegendsBlock extends Block {
 
     public static final Logger LOGGER = Logger.getLogger(LegendsBlock.class);
 
-    private static String tempDir = System.getProperty("java.io.tmpdir");
-
-    private static String fileSeparator = System.getProperty("file.separator");
-
     private boolean borders = false; // for debugging or seeing effects
 
     private float maxWidth = Float.MAX_VALUE; // so setting max value!
@@ -158,20 +151,6 @@ public class LegendsBlock extends Block {
      * @author Stéphane Brunner
      */
     private class Renderer {
-        /*
-         * need these to calculate widths/heights of output
-         *
-         * For example a cell could contain the text "Hello World" while it is the equivalent of 7 characters wide "World" would be wrapped onto the
-         * next line which would make the height calculation complicated if not actually rendered onto a page. This is important for long legend texts
-         * which wrap.
-         */
-
-        private String tempFilename;
-
-        private Document tempDocument = new Document();
-
-        private PdfWriter writer;
-
         private RenderingContext context;
 
         // all the pdf columns
@@ -205,8 +184,6 @@ public class LegendsBlock extends Block {
 
         private float[] absoluteWidths;
 
-        private boolean needTempDocument = true;
-
         private final HashMap<Integer, Float> subHeights = new HashMap<Integer, Float>();
 
         /**
@@ -219,14 +196,6 @@ public class LegendsBlock extends Block {
             column = getDefaultOuterTable(1);
             columns.add(column);
             this.context = context;
-            PJsonArray legends = context.getGlobalParams().optJSONArray("legends");
-            if (legends == null || legends.size() == 0 || (overflow && hasExtraRendering())) {
-                // this prevents a bug when there are no legends
-                needTempDocument = false;
-            }
-            if (needTempDocument) {
-                makeTempDocument(); // need this to calculate widths and heights of elements!
-            }
         }
 
         public void render(PdfElement target) throws DocumentException {
@@ -310,8 +279,8 @@ public class LegendsBlock extends Block {
             }
             table.setHorizontalAlignment(horizontalAlignment);
             if (fitWidth != 0.0f || fitHeight != 0.0) {
-                tempDocument.add(table);
-                float aspectRatio = table.getTotalWidth() / table.getTotalHeight();
+                final float totalHeight = LegendMeasurer.calculateHeights(table);
+                float aspectRatio = table.getTotalWidth() / totalHeight;
                 if (fitWidth == 0.0f) {
                     fitWidth = aspectRatio * fitHeight;
                 }
@@ -319,9 +288,8 @@ public class LegendsBlock extends Block {
                     fitHeight = fitWidth / aspectRatio;
                 }
                 PdfContentByte canvas = context.getDirectContent();
-                PdfTemplate template = canvas.createTemplate(table.getTotalWidth(),
-                        table.getTotalHeight());
-                table.writeSelectedRows(0, -1, 0, table.getTotalHeight(), template);
+                PdfTemplate template = canvas.createTemplate(table.getTotalWidth(), totalHeight);
+                table.writeSelectedRows(0, -1, 0, totalHeight, template);
                 Image img = Image.getInstance(template);
                 img.scaleToFit(fitWidth, fitHeight);
                 // img.setAbsolutePosition(0, 0);
@@ -330,9 +298,6 @@ public class LegendsBlock extends Block {
             } else {
                 target.add(table);
             }
-            if (!overflowDone) {
-                cleanup(); // don't forget to cleanup afterwards
-            }
         }
 
         /**
@@ -667,12 +632,12 @@ public class LegendsBlock extends Block {
                 float maxIconWidth, float maxIconHeight, float scale) throws DocumentException {
             Chunk iconChunk = null;
             try {
-                if (iconItem.indexOf("image%2Fsvg%2Bxml") != -1) { // TODO: make this cleaner
+                if (LegendIconCache.isSvg(iconItem)) {
                     iconChunk = PDFUtils.createImageChunkFromSVG(context, iconItem, maxIconWidth,
                             maxIconHeight, scale);
                 } else {
-                    iconChunk = PDFUtils.createImageChunk(context, maxIconWidth, maxIconHeight,
-                            scale, URI.create(iconItem), 0f);
+                    iconChunk = PDFUtils.createLegendIconChunk(context, maxIconWidth, maxIconHeight,
+                            scale, URI.create(iconItem));
                 }
             } catch (IOException e) {
                 throw new DocumentException(e);
@@ -681,59 +646,14 @@ public class LegendsBlock extends Block {
         }
 
         /**
-         * creates a "real" PDF document to draw on to be able to calculate correct widths of text etc
-         *
-         * @throws DocumentException
-         */
-        private void makeTempDocument() throws DocumentException {
-            try {
-                tempFilename = tempDir.indexOf('/') != -1 ? "" : "\\";
-                long time = (new Date()).getTime();
-                tempFilename = tempDir + fileSeparator + "mapfish-print-tmp-" + time + ".pdf";
-                // Unfortunately have to open an actual file on disk
-                // for the calculations to work properly
-                writer = PdfWriter.getInstance(tempDocument, new FileOutputStream(tempFilename));
-                tempDocument.open();
-            } catch (FileNotFoundException e) {
-                throw new DocumentException(e);
-            } catch (DocumentException e) {
-                // don't forget to delete the useless file
-                new File(tempFilename).delete();
-                throw new DocumentException(e);
-            }
-        }
-
-        /**
-         * delete the temporary file needed for dimensions' calculations
-         *
-         * @throws DocumentException
-         */
-        private void cleanup() throws DocumentException {
-            if (!needTempDocument) {
-                return;
-            }
-            try {
-                tempDocument.close();
-                writer.close();
-                // don't forget to delete the useless file
-            } catch (Exception e) {
-                throw new DocumentException(e);
-            } finally {
-                new File(tempFilename).delete();
-            }
-        }
-
-        /**
-         * get the height in points when printed onto the temporary document
+         * get the height in points of an element, computed in memory (see {@link LegendMeasurer})
          *
          * @param element any PDF element
          * @return height in points
-         * @throws DocumentException
          */
-        private float getHeight(Element element) throws DocumentException {
-            tempDocument.add(element);
+        private float getHeight(Element element) {
             if (element instanceof PdfPTable) {
-                return ((PdfPTable) element).getTotalHeight();
+                return LegendMeasurer.getHeight((PdfPTable) element);
             }
             if (element instanceof PdfPCell) {
                 return ((PdfPCell) element).getHeight();
@@ -1270,7 +1190,7 @@ public class LegendsBlock extends Block {
      * @return Font used for layers' texts but not for classes
      */
     protected Font getLayerPdfFont() {
-        return FontFactory.getFont(layerFont, fontEncoding, (float) layerFontSize);
+        return FontRegistry.getFont(layerFont, fontEncoding, (float) layerFontSize, Font.UNDEFINED);
     }
 
     /**
@@ -1279,7 +1199,7 @@ public class LegendsBlock extends Block {
      * @return Font used for class items
      */
     protected Font getClassPdfFont() {
-        return FontFactory.getFont(classFont, fontEncoding, (float) classFontSize);
+        return FontRegistry.getFont(classFont, fontEncoding, (float) classFontSize, Font.UNDEFINED);
     }
 
     /**
@@ -1332,6 +1252,12 @@ public class LegendsBlock extends Block {
         this.fontEncoding = fontEncoding;
     }
 
+    public void collectFontEncodings(Set<String> encodings) {
+        if (fontEncoding != null) {
+            encodings.add(fontEncoding);
+        }
+    }
+
     /**
      * CSS style margin of each legend column
      *
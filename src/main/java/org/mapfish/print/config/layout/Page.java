@@ -20,6 +20,7 @@
 package org.mapfish.print.config.layout;
 
 import java.util.List;
+import java.util.Set;
 
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
@@ -196,6 +197,19 @@ public class Page {
         if (header != null) header.validate();
         if (footer != null) footer.validate();
     }
+
+    /**
+     * Add the font encodings used by the blocks of this page to the given set.
+     */
+    public void collectFontEncodings(Set<String> encodings) {
+        if (items != null) {
+            for (Block item : items) {
+                item.collectFontEncodings(encodings);
+            }
+        }
+        if (header != null) header.collectFontEncodings(encodings);
+        if (footer != null) footer.collectFontEncodings(encodings);
+    }
     
     /**
      * Apply this page format properties (size, margins, etc.) to
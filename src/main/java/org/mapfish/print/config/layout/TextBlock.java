@@ -23,6 +23,7 @@ import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.utils.PJsonObject;
+import org.mapfish.print.utils.TextTemplate;
 
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Font;
@@ -38,13 +39,18 @@ public class TextBlock extends FontBlock {
     private String text = "";
     private boolean asHTML = false;
 
+    /**
+     * The {@link #text}, parsed when the configuration is loaded.
+     */
+    private TextTemplate template = TextTemplate.get(text);
+
     public void render(PJsonObject params, PdfElement target, final RenderingContext context) throws DocumentException {
         Paragraph paragraph = new Paragraph();
 
         final Font pdfFont = getPdfFont();
         paragraph.setFont(pdfFont);
 
-        final Phrase text = PDFUtils.renderString(context, params, this.text,Integer.MAX_VALUE, pdfFont, null,
+        final Phrase text = PDFUtils.renderString(context, params, this.template,Integer.MAX_VALUE, pdfFont, null,
                 asHTML);
         paragraph.add(text);
 
@@ -55,6 +61,7 @@ public class TextBlock extends FontBlock {
 
     public void setText(String text) {
         this.text = text;
+        this.template = text != null ? TextTemplate.get(text) : null;
     }
 
     public String getText() {
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.legend;
+
+import java.net.URI;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.log4j.Logger;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.map.cache.TileCache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.itextpdf.text.Image;
+
+/**
+ * The decoded legend icons (iText images for the rasters and Batik GVT trees for the
+ * SVGs), shared by all the prints. The legends of a WMS layer are usually the same
+ * for all the prints, so most of the time they don't need to be downloaded and
+ * decoded again.
+ * <p/>
+ * The icons are decoded in advance by {@link LegendIconPrefetcher}. An icon being
+ * loaded when it's needed is waited for instead of being downloaded twice. The
+ * errors are not cached.
+ * <p/>
+ * The decoded icons don't depend on the scale, which is applied when they are used,
+ * so they are cached by URL and HTTP headers only (the same way as in the
+ * {@link org.mapfish.print.map.cache.TileCache}, so that an icon downloaded with the
+ * credentials of a user is not given to another one).
+ */
+public class LegendIconCache {
+    public static final Logger LOGGER = Logger.getLogger(LegendIconCache.class);
+
+    /**
+     * Time after which an icon is downloaded again, in case it changed on the server.
+     */
+    private static final long TIME_TO_LIVE_MINUTES = 60;
+
+    private final Cache<String, FutureTask<Object>> icons;
+
+    public LegendIconCache(int maxSize) {
+        icons = CacheBuilder.newBuilder().
+                maximumSize(maxSize).
+                expireAfterWrite(TIME_TO_LIVE_MINUTES, TimeUnit.MINUTES).
+                build();
+    }
+
+    /**
+     * Same test as the one done by the legends block to know if an icon is an SVG.
+     */
+    public static boolean isSvg(String url) {
+        return url.indexOf("image%2Fsvg%2Bxml") != -1; // TODO: make this cleaner
+    }
+
+    /**
+     * Load the icon with the given loader, unless it's already loaded or being loaded.
+     * Called from the threads of the tile executor.
+     */
+    public void load(RenderingContext context, String url, Callable<Object> loader) {
+        final String key = createKey(context, url);
+        final FutureTask<Object> task = new FutureTask<Object>(loader);
+        final FutureTask<Object> previous = icons.asMap().putIfAbsent(key, task);
+        if (previous == null) {
+            get(key, task);
+        }
+    }
+
+    /**
+     * @return A copy of the raster icon or null if it is not in the cache.
+     */
+    public Image getImage(RenderingContext context, String url) {
+        final Object result = get(createKey(context, url));
+        return result instanceof Image ? Image.getInstance((Image) result) : null;
+    }
+
+    /**
+     * @return The SVG icon or null if it is not in the cache.
+     */
+    public SvgIcon getSvgIcon(RenderingContext context, String url) {
+        final Object result = get(createKey(context, url));
+        return result instanceof SvgIcon ? (SvgIcon) result : null;
+    }
+
+    private static String createKey(RenderingContext context, String url) {
+        try {
+            return TileCache.createKey(URI.create(url), context.getHeaders());
+        } catch (IllegalArgumentException e) {
+            return url;
+        }
+    }
+
+    private Object get(String key) {
+        final FutureTask<Object> task = icons.getIfPresent(key);
+        return task != null ? get(key, task) : null;
+    }
+
+    private Object get(String key, FutureTask<Object> task) {
+        //if the prefetching task didn't start yet, do it now instead of waiting for its turn
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            icons.asMap().remove(key, task);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Cannot load the legend icon " + key + ": " + e.getCause());
+            }
+            return null;
+        }
+    }
+
+    public void clear() {
+        icons.invalidateAll();
+    }
+
+    /**
+     * An SVG icon parsed by Batik. The GVT tree is not thread safe, so it must be painted
+     * while synchronized on this object.
+     */
+    public static class SvgIcon {
+        private final GraphicsNode graphics;
+        private final float width;
+        private final float height;
+
+        public SvgIcon(GraphicsNode graphics, float width, float height) {
+            this.graphics = graphics;
+            this.width = width;
+            this.height = height;
+        }
+
+        public GraphicsNode getGraphics() {
+            return graphics;
+        }
+
+        /**
+         * @return The width in points.
+         */
+        public float getWidth() {
+            return width;
+        }
+
+        /**
+         * @return The height in points.
+         */
+        public float getHeight() {
+            return height;
+        }
+    }
+}
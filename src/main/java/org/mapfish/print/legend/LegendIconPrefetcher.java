@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.legend;
+
+import java.net.URI;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.apache.log4j.Logger;
+import org.mapfish.print.PDFUtils;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.map.MapTileTask;
+import org.mapfish.print.utils.PJsonArray;
+import org.mapfish.print.utils.PJsonObject;
+import org.pvalsecc.concurrent.OrderedResultsExecutor;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PdfContentByte;
+
+/**
+ * Starts the download and decoding of all the legend icons of the spec on the tile
+ * executor, before the layout is rendered. The result goes in the {@link LegendIconCache}
+ * where the legends block will find it.
+ */
+public class LegendIconPrefetcher implements OrderedResultsExecutor.ResultCollector<MapTileTask> {
+    public static final Logger LOGGER = Logger.getLogger(LegendIconPrefetcher.class);
+
+    private LegendIconPrefetcher() {
+    }
+
+    /**
+     * Schedule the loading of the icons. Doesn't wait for them.
+     */
+    public static void prefetch(final RenderingContext context) {
+        final LegendIconCache icons = context.getConfig().getLegendIconCache();
+        final OrderedResultsExecutor<MapTileTask> executor = context.getConfig().getMapRenderingExecutor();
+        final PJsonArray legends = context.getGlobalParams().optJSONArray("legends");
+        if (icons == null || executor == null || legends == null) {
+            return;
+        }
+
+        //one collector per print, so that the executor treats it like any other job
+        final LegendIconPrefetcher collector = new LegendIconPrefetcher();
+        final Set<String> urls = new LinkedHashSet<String>();
+        for (int i = 0; i < legends.size(); ++i) {
+            final PJsonObject layer = legends.getJSONObject(i);
+            addIcons(layer, urls);
+            final PJsonArray classes = layer.optJSONArray("classes");
+            if (classes != null) {
+                for (int j = 0; j < classes.size(); ++j) {
+                    addIcons(classes.getJSONObject(j), urls);
+                }
+            }
+        }
+
+        for (final String url : urls) {
+            final URI uri;
+            try {
+                uri = URI.create(url);
+            } catch (IllegalArgumentException e) {
+                //will fail later with a better error
+                continue;
+            }
+            if ("data".equalsIgnoreCase(uri.getScheme())) {
+                //nothing to download
+                continue;
+            }
+            executor.addTask(new MapTileTask(uri) {
+                protected void readTile() {
+                    icons.load(context, url, new Callable<Object>() {
+                        public Object call() throws Exception {
+                            if (LegendIconCache.isSvg(url)) {
+                                return PDFUtils.loadSvgIcon(context, url);
+                            } else {
+                                return PDFUtils.loadImage(context, uri);
+                            }
+                        }
+                    });
+                }
+
+                protected void renderOnPdf(PdfContentByte dc) throws DocumentException {
+                    //not rendered
+                }
+            }, collector);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Prefetching " + urls.size() + " legend icons");
+        }
+    }
+
+    private static void addIcons(PJsonObject node, Set<String> urls) {
+        final String icon = node.optString("icon");
+        if (icon != null) {
+            urls.add(icon);
+        }
+        final PJsonArray iconsArray = node.optJSONArray("icons");
+        if (iconsArray != null) {
+            for (int i = 0; i < iconsArray.size(); ++i) {
+                urls.add(iconsArray.getString(i));
+            }
+        }
+    }
+
+    public void handle(MapTileTask result) {
+        //nothing to do, the result is in the cache
+    }
+
+    public void handleError(Throwable error) {
+        //will be loaded again when needed
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.legend;
+
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.cache.CacheBuilder;
+import com.itextpdf.text.Chunk;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.Element;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.Image;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPRow;
+import com.itextpdf.text.pdf.PdfPTable;
+
+/**
+ * Computes the height of the legend tables in memory, the same way iText lays them out
+ * when they are added to a document (see {@link PdfPTable#calculateHeights()}).
+ * <p/>
+ * The heights are cached by the content of the cells (texts, fonts, images, paddings)
+ * and their widths, so the same legend items are measured only once, even across
+ * print jobs.
+ */
+public final class LegendMeasurer {
+    /**
+     * Width available for tables without a locked width, same as a default
+     * {@link Document} (A4 with margins of 36 points).
+     */
+    private static final float DEFAULT_WIDTH = 595f - 36f - 36f;
+
+    private static final int MAX_CACHED_HEIGHTS = 10000;
+
+    private static final ConcurrentMap<String, Float> HEIGHTS = CacheBuilder.newBuilder().
+            maximumSize(MAX_CACHED_HEIGHTS).<String, Float>build().asMap();
+
+    private LegendMeasurer() {
+    }
+
+    /**
+     * Only the total height is cached: on a cache hit, the heights of the rows are not
+     * computed and {@link PdfPTable#getTotalHeight()} must not be used (see
+     * {@link #calculateHeights(PdfPTable)}).
+     *
+     * @return The total height of the table in points.
+     */
+    public static float getHeight(PdfPTable table) {
+        setDefaultWidth(table);
+        final String key = createKey(table);
+        if (key == null) {
+            return table.calculateHeights();
+        }
+        Float result = HEIGHTS.get(key);
+        if (result == null) {
+            result = table.calculateHeights();
+            HEIGHTS.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Compute the heights of the rows of the table, without cache. Needed for the
+     * tables written afterwards (with {@link PdfPTable#writeSelectedRows}, ...).
+     *
+     * @return The total height of the table in points.
+     */
+    public static float calculateHeights(PdfPTable table) {
+        setDefaultWidth(table);
+        return table.calculateHeights();
+    }
+
+    private static void setDefaultWidth(PdfPTable table) {
+        if (!table.isLockedWidth()) {
+            table.setTotalWidth(DEFAULT_WIDTH * table.getWidthPercentage() / 100f);
+        }
+    }
+
+    /**
+     * @return The key identifying what the height of the table depends on or null if
+     * the table contains things we don't know how to describe (nested tables, ...).
+     */
+    static String createKey(PdfPTable table) {
+        final StringBuilder key = new StringBuilder();
+        for (float width : table.getAbsoluteWidths()) {
+            key.append(width).append(',');
+        }
+        for (PdfPRow row : table.getRows()) {
+            key.append('[');
+            for (PdfPCell cell : row.getCells()) {
+                if (cell == null) {
+                    key.append("-;");
+                } else if (!appendCell(key, cell)) {
+                    return null;
+                }
+            }
+            key.append(']');
+        }
+        return key.toString();
+    }
+
+    private static boolean appendCell(StringBuilder key, PdfPCell cell) {
+        if (cell.getTable() != null || cell.getCompositeElements() != null || cell.getImage() != null) {
+            return false;
+        }
+        key.append(cell.getColspan()).append(' ').append(cell.getRotation()).append(' ').
+                append(cell.getPaddingTop()).append(' ').append(cell.getPaddingRight()).append(' ').
+                append(cell.getPaddingBottom()).append(' ').append(cell.getPaddingLeft()).append(' ').
+                append(cell.getLeading()).append(' ').append(cell.getMultipliedLeading()).append(' ').
+                append(cell.getFixedHeight()).append(' ').append(cell.getMinimumHeight()).append(' ').
+                append(cell.isUseAscender()).append(' ').append(cell.isUseDescender()).append(' ').
+                append(cell.isUseBorderPadding()).append(' ').append(cell.getBorderWidth()).append('(');
+        final Phrase phrase = cell.getPhrase();
+        if (phrase != null) {
+            for (Element element : phrase) {
+                if (!(element instanceof Chunk)) {
+                    return false;
+                }
+                appendChunk(key, (Chunk) element);
+            }
+        }
+        key.append(");");
+        return true;
+    }
+
+    private static void appendChunk(StringBuilder key, Chunk chunk) {
+        final Image image = chunk.getImage();
+        if (image != null) {
+            key.append("<img ").append(image.getScaledWidth()).append('x').append(image.getScaledHeight()).append('>');
+        } else {
+            appendFont(key, chunk.getFont());
+            key.append('"').append(chunk.getContent().replace("\"", "\"\"")).append('"');
+        }
+    }
+
+    private static void appendFont(StringBuilder key, Font font) {
+        key.append('{').append(font.getFamilyname()).append(' ').append(font.getSize()).append(' ').
+                append(font.getStyle());
+        final BaseFont baseFont = font.getBaseFont();
+        if (baseFont != null) {
+            key.append(' ').append(baseFont.getPostscriptFontName()).append(' ').append(baseFont.getEncoding());
+        }
+        key.append('}');
+    }
+}
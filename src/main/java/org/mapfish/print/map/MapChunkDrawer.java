@@ -20,8 +20,12 @@
 package org.mapfish.print.map;
 
 import com.itextpdf.text.BaseColor;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.mapfish.print.ChunkDrawer;
 import org.mapfish.print.InvalidJsonValueException;
@@ -71,40 +75,18 @@ public class MapChunkDrawer extends ChunkDrawer {
         }
     }
 
-    public void renderImpl(Rectangle rectangle, PdfContentByte dc) {
-        final PJsonObject parent = Maps.getMapRoot(context.getGlobalParams(), name);
-        PJsonArray layers = parent.getJSONArray("layers");
-        String srs = parent.getString("srs");
-
-        if (!context.getConfig().isDisableScaleLocking() && !context.getConfig().isScalePresent(transformer.getScale())) {
-            throw new InvalidJsonValueException(params, "scale", transformer.getScale());
-        }
-
-        Transformer mainTransformer = null;
-        if (!Double.isNaN(overviewMap)) {
-            //manage the overview map
-            mainTransformer = context.getLayout().getMainPage().getMap(name).createTransformer(context, params);
-            transformer.zoom(mainTransformer, (float) (1.0 / overviewMap));
-            transformer.setRotation(0);   //overview always north up!
-            context.setStyleFactor((float) (transformer.getPaperW() / mainTransformer.getPaperW() / overviewMap));
-            layers = parent.optJSONArray("overviewLayers", layers);
-        }
-
-        transformer.setMapPos(rectangle.getLeft(), rectangle.getBottom());
-        if (rectangle.getWidth() < transformer.getPaperW() - 0.2) {
-            throw new RuntimeException("The map width on the paper is wrong");
-        }
-        if (rectangle.getHeight() < transformer.getPaperH() - 0.2) {
-            throw new RuntimeException("The map height on the paper is wrong (" + rectangle.getHeight() + "!=" + transformer.getPaperH() + ")");
-        }
-
-        //create the readers/renderers
+    /**
+     * Create the readers for the given layers, merging them when possible.
+     *
+     * @param overview True if rendering an overview map (only the layers with overview=true are used)
+     */
+    public static List<MapReader> createReaders(RenderingContext context, Transformer transformer, PJsonArray layers, boolean overview) {
         List<MapReader> readers = new ArrayList<MapReader>(layers.size());
+        List<PJsonObject> printedLayers = new ArrayList<PJsonObject>(layers.size());
+        Set<URI> baseUrls = new LinkedHashSet<URI>();
         for (int i = 0; i < layers.size(); ++i) {
             PJsonObject layer = layers.getJSONObject(i);
-            if (mainTransformer == null || layer.optBool("overview", true)) {
-                final String type = layer.getString("type");
-
+            if (!overview || layer.optBool("overview", true)) {
                 // Don't create a reader if the layer is out of scale!!
                 float minScale = layer.optFloat("minScaleDenominator", -1f);
                 float maxScale = layer.optFloat("maxScaleDenominator", -1f);
@@ -117,11 +99,20 @@ public class MapChunkDrawer extends ChunkDrawer {
 
                 }
                 if (bPrint) {
-                    context.getConfig().getMapReaderFactoryFinder().create(readers, type, context, layer);
+                    printedLayers.add(layer);
+                    addBaseUrl(layer, baseUrls);
                 }
             }
         }
 
+        //the readers validate their URL, resolve all the hosts at the same time
+        context.getConfig().prevalidateUris(baseUrls);
+
+        for (PJsonObject layer : printedLayers) {
+            final String type = layer.getString("type");
+            context.getConfig().getMapReaderFactoryFinder().create(readers, type, context, layer);
+        }
+
         //check if we cannot merge a few queries
         for (int i = 1; i < readers.size();) {
             MapReader reader1 = readers.get(i - 1);
@@ -133,6 +124,49 @@ public class MapChunkDrawer extends ChunkDrawer {
             }
 
         }
+        return readers;
+    }
+
+    private static void addBaseUrl(PJsonObject layer, Set<URI> baseUrls) {
+        final String baseUrl = layer.optString("baseURL");
+        if (baseUrl != null) {
+            try {
+                baseUrls.add(new URI(baseUrl));
+            } catch (URISyntaxException e) {
+                //the reader will complain
+            }
+        }
+    }
+
+    public void renderImpl(Rectangle rectangle, PdfContentByte dc) {
+        final PJsonObject parent = Maps.getMapRoot(context.getGlobalParams(), name);
+        PJsonArray layers = parent.getJSONArray("layers");
+        String srs = parent.getString("srs");
+
+        if (!context.getConfig().isDisableScaleLocking() && !context.getConfig().isScalePresent(transformer.getScale())) {
+            throw new InvalidJsonValueException(params, "scale", transformer.getScale());
+        }
+
+        Transformer mainTransformer = null;
+        if (!Double.isNaN(overviewMap)) {
+            //manage the overview map
+            mainTransformer = context.getLayout().getMainPage().getMap(name).createTransformer(context, params);
+            transformer.zoom(mainTransformer, (float) (1.0 / overviewMap));
+            transformer.setRotation(0);   //overview always north up!
+            context.setStyleFactor((float) (transformer.getPaperW() / mainTransformer.getPaperW() / overviewMap));
+            layers = parent.optJSONArray("overviewLayers", layers);
+        }
+
+        transformer.setMapPos(rectangle.getLeft(), rectangle.getBottom());
+        if (rectangle.getWidth() < transformer.getPaperW() - 0.2) {
+            throw new RuntimeException("The map width on the paper is wrong");
+        }
+        if (rectangle.getHeight() < transformer.getPaperH() - 0.2) {
+            throw new RuntimeException("The map height on the paper is wrong (" + rectangle.getHeight() + "!=" + transformer.getPaperH() + ")");
+        }
+
+        //create the readers/renderers
+        List<MapReader> readers = createReaders(context, transformer, layers, mainTransformer != null);
 
         //draw some background
         if (backgroundColor != null) {
@@ -19,8 +19,12 @@
 
 package org.mapfish.print.map;
 
+import java.awt.Graphics2D;
 import java.io.IOException;
+import java.net.URI;
 
+import org.mapfish.print.InvalidJsonValueException;
+import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
 import org.pvalsecc.concurrent.OrderedResultsExecutor;
 
@@ -29,14 +33,91 @@ import com.itextpdf.text.pdf.PdfContentByte;
 
 /**
  * Task for loading and rendering a tile.
+ * <p/>
+ * If the task is {@link #isPrefetchable()}, the tile is downloaded by
+ * {@link #startAsync(Runnable)} without holding an executor thread and
+ * {@link #readTile()} finds it in the context.
  */
-public abstract class MapTileTask implements OrderedResultsExecutor.Task<MapTileTask> {
+public abstract class MapTileTask implements OrderedResultsExecutor.HostTask<MapTileTask>,
+        OrderedResultsExecutor.AsyncTask<MapTileTask> {
     /**
      * When not null, we had an exception in the reading.
      */
     private Exception readException;
 
+    /**
+     * The host the tile is read from (used to limit the number of parallel
+     * fetches per host). Null if nothing is fetched.
+     */
+    private final String host;
+
+    /**
+     * The URI the tile is read from or null if not known.
+     */
+    private final URI uri;
+
+    /**
+     * When the task was created and when it started to be processed (System.nanoTime()).
+     */
+    private final long queuedTime = System.nanoTime();
+    private volatile long startTime = 0L;
+
+    /**
+     * Where the tile downloaded by {@link #startAsync(Runnable)} is kept. Null if the
+     * task is not run by an executor.
+     */
+    private volatile RenderingContext fetchContext;
+
+    protected MapTileTask() {
+        this.host = null;
+        this.uri = null;
+    }
+
+    /**
+     * @param uri The URI the tile will be read from.
+     */
+    protected MapTileTask(URI uri) {
+        this.host = uri != null ? uri.getAuthority() : null;
+        this.uri = uri;
+    }
+
+    public URI getUri() {
+        return uri;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return The time in nanoseconds the task waited in the queue before being
+     * processed or -1 if it was not processed yet.
+     */
+    public long getQueueWaitNanos() {
+        return startTime == 0L ? -1L : startTime - queuedTime;
+    }
+
+    public void setFetchContext(RenderingContext fetchContext) {
+        this.fetchContext = fetchContext;
+    }
+
+    /**
+     * @return True if {@link #readTile()} loads {@link #getUri()} with {@link PDFUtils},
+     * which takes the tiles downloaded in advance from the context.
+     */
+    protected boolean isPrefetchable() {
+        return false;
+    }
+
+    public boolean startAsync(Runnable done) {
+        if (fetchContext == null || uri == null || !isPrefetchable()) {
+            return false;
+        }
+        return PDFUtils.fetchAsync(fetchContext, uri, done);
+    }
+
     public MapTileTask process() {
+        startTime = System.nanoTime();
         try {
             readTile();
         } catch (Exception e) {
@@ -53,6 +134,14 @@ public abstract class MapTileTask implements OrderedResultsExecutor.Task<MapTile
         return false;
     }
 
+    /**
+     * @return The error of {@link #readTile()} if the spec is invalid. It fails the whole
+     * print, as it would have if it had been found before loading the tiles.
+     */
+    public InvalidJsonValueException getSpecError() {
+        return readException instanceof InvalidJsonValueException ? (InvalidJsonValueException) readException : null;
+    }
+
     /**
      * Do the reading.
      * <p/>
@@ -65,6 +154,23 @@ public abstract class MapTileTask implements OrderedResultsExecutor.Task<MapTile
      */
     protected abstract void renderOnPdf(PdfContentByte dc) throws DocumentException;
 
+    /**
+     * @return True if the tile can be rendered with {@link #renderOnGraphics(java.awt.Graphics2D)}.
+     */
+    public boolean supportsGraphics() {
+        return false;
+    }
+
+    /**
+     * Do the rendering on a Java2D graphics, for the outputs that don't go through
+     * a PDF. The graphics uses the same coordinates as the PDF's direct content.
+     * <p/>
+     * Only called if {@link #supportsGraphics()}.
+     */
+    protected void renderOnGraphics(Graphics2D graphics) {
+        //not supported by default
+    }
+
     /**
      * Task for rending something (no loading needed)
      */
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map;
+
+import org.apache.log4j.Logger;
+import org.mapfish.print.PDFUtils;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.Transformer;
+import org.mapfish.print.config.layout.MapBlock;
+import org.mapfish.print.map.readers.MapReader;
+import org.mapfish.print.utils.Maps;
+import org.mapfish.print.utils.PJsonArray;
+import org.mapfish.print.utils.PJsonObject;
+import org.pvalsecc.concurrent.OrderedResultsExecutor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PdfContentByte;
+
+/**
+ * Starts the download of the tiles of the next pages while the current page is
+ * rendered, so that the pages of a multi-page print don't wait one after the
+ * other for the map servers.
+ * <p/>
+ * The readers of the next pages are created and asked to render with a loader
+ * that only collects the URIs of the tiles. Those are downloaded by the global
+ * tile executor and kept in the {@link RenderingContext} until the page is
+ * actually rendered.
+ */
+public class PagePrefetcher implements OrderedResultsExecutor.ResultCollector<MapTileTask> {
+    public static final Logger LOGGER = Logger.getLogger(PagePrefetcher.class);
+
+    private final RenderingContext context;
+    private final MapBlock mapBlock;
+    private final PJsonArray pages;
+    private final int lookAhead;
+    private final OrderedResultsExecutor<MapTileTask> executor;
+
+    /**
+     * Index of the next page to prefetch.
+     */
+    private int nextPage = 0;
+
+    public PagePrefetcher(RenderingContext context, MapBlock mapBlock, PJsonArray pages, int lookAhead) {
+        this.context = context;
+        this.mapBlock = mapBlock;
+        this.pages = pages;
+        this.lookAhead = lookAhead;
+        this.executor = context.getConfig().getMapRenderingExecutor();
+    }
+
+    /**
+     * @return null if there is nothing to prefetch for this print.
+     */
+    public static PagePrefetcher create(RenderingContext context, MapBlock mapBlock, PJsonArray pages) {
+        final int lookAhead = context.getConfig().getPrefetchPages();
+        if (lookAhead <= 0 || mapBlock == null || pages.size() < 2 ||
+                context.getConfig().getMapRenderingExecutor() == null ||
+                context.getGlobalParams().optJSONObject("maps") != null) {
+            return null;
+        }
+        return new PagePrefetcher(context, mapBlock, pages, lookAhead);
+    }
+
+    /**
+     * To be called before rendering the given page. Starts the downloads for the
+     * next pages, up to the look-ahead.
+     */
+    public void beforePage(int current) {
+        if (nextPage <= current) {
+            //no need to prefetch the page we are going to render
+            nextPage = current + 1;
+        }
+        while (nextPage < pages.size() && nextPage <= current + lookAhead) {
+            try {
+                prefetchPage(pages.getJSONObject(nextPage));
+            } catch (RuntimeException e) {
+                //not a problem, the page will fail later with a better error or simply be slower
+                LOGGER.debug("Cannot prefetch page " + nextPage, e);
+            }
+            ++nextPage;
+        }
+    }
+
+    private void prefetchPage(PJsonObject pageParams) {
+        final Transformer transformer = mapBlock.createTransformer(context, pageParams);
+        transformer.setMapPos(0, 0);
+        final PJsonObject root = Maps.getMapRoot(context.getGlobalParams(), null);
+        final PJsonArray layers = root.getJSONArray("layers");
+        final String srs = root.getString("srs");
+        final List<MapReader> readers = MapChunkDrawer.createReaders(context, transformer, layers, false);
+        final Collector collector = new Collector();
+        for (int i = 0; i < readers.size(); i++) {
+            readers.get(i).render(transformer, collector, srs, i == 0);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Prefetching " + collector.nbTiles + " tiles");
+        }
+    }
+
+    public void handle(MapTileTask result) {
+        //nothing to do, the result is in the context
+    }
+
+    public void handleError(Throwable error) {
+        //will be loaded again when needed
+    }
+
+    /**
+     * Loader that starts a download for each tile instead of loading/rendering them.
+     */
+    private class Collector extends ParallelMapTileLoader {
+        private int nbTiles = 0;
+
+        public Collector() {
+            super(context, (PdfContentByte) null, null);
+        }
+
+        @Override
+        public void addTileToLoad(MapTileTask task) {
+            final URI uri = task.getUri();
+            if (uri == null || !task.isPrefetchable()) {
+                //the page would not take it from the context and download it again
+                return;
+            }
+            nbTiles++;
+            final MapTileTask prefetchTask = new MapTileTask(uri) {
+                protected boolean isPrefetchable() {
+                    return true;
+                }
+
+                protected void readTile() throws IOException {
+                    PDFUtils.prefetch(context, uri);
+                }
+
+                protected void renderOnPdf(PdfContentByte dc) throws DocumentException {
+                    //not rendered
+                }
+            };
+            prefetchTask.setFetchContext(context);
+            executor.addTask(prefetchTask, PagePrefetcher.this);
+        }
+
+        @Override
+        public void waitForCompletion() {
+            //we don't wait for the prefetching
+        }
+    }
+}
@@ -19,10 +19,16 @@
 
 package org.mapfish.print.map;
 
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.apache.log4j.Logger;
+import org.mapfish.print.InvalidJsonValueException;
 import org.mapfish.print.RenderingContext;
 import org.pvalsecc.concurrent.BlockingSimpleTarget;
 import org.pvalsecc.concurrent.OrderedResultsExecutor;
 
+import java.awt.Graphics2D;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -39,10 +45,17 @@ import com.itextpdf.text.pdf.PdfContentByte;
  * <p/>
  * This class uses a global {@link org.pvalsecc.concurrent.OrderedResultsExecutor} to
  * do the things in // and a {@link org.pvalsecc.concurrent.BlockingSimpleTarget} to
- * know when everything is finished.
+ * know when everything is finished. The executor serves the instances in a
+ * round-robin fashion, so a big map doesn't delay the smaller ones.
+ * <p/>
+ * When created with a Graphics2D instead of a PdfContentByte, the tiles are
+ * rendered with Java2D (see {@link MapTileTask#renderOnGraphics(java.awt.Graphics2D)}).
  */
 public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultCollector<MapTileTask> {
+    public static final Logger LOGGER = Logger.getLogger(ParallelMapTileLoader.class);
+
     private final PdfContentByte dc;
+    private final Graphics2D graphics;
     private RenderingContext context;
 
     /**
@@ -60,10 +73,47 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
      */
     private int nbTiles = 0;
 
+    /**
+     * The first tile that failed because of an invalid spec, thrown by {@link #waitForCompletion()}.
+     */
+    private volatile InvalidJsonValueException specError = null;
+
+    /**
+     * Time spent by the tiles in the executor's queue, null if there is no metric registry.
+     */
+    private final Timer queueWaitTimer;
+
+    /**
+     * Per map: the max number of its tiles waiting in the executor's queue and the max
+     * time one of them waited. Null if there is no metric registry.
+     */
+    private final Histogram maxQueueDepthHistogram;
+    private final Timer maxQueueWaitTimer;
+
+    /**
+     * Max number of tiles waiting in the executor's queue and max time one of them waited.
+     * Only accessed by one thread at a time.
+     */
+    private int maxQueueDepth = 0;
+    private long maxQueueWaitNanos = 0L;
+
     public ParallelMapTileLoader(RenderingContext context, PdfContentByte dc) {
+        this(context, dc, null);
+    }
+
+    public ParallelMapTileLoader(RenderingContext context, Graphics2D graphics) {
+        this(context, null, graphics);
+    }
+
+    protected ParallelMapTileLoader(RenderingContext context, PdfContentByte dc, Graphics2D graphics) {
         executor = context.getConfig().getMapRenderingExecutor();
         this.dc = dc;
+        this.graphics = graphics;
         this.context = context;
+        final MetricRegistry registry = context.getConfig().getMetricRegistry();
+        queueWaitTimer = registry != null ? registry.timer(MetricRegistry.name(ParallelMapTileLoader.class, "queueWait")) : null;
+        maxQueueDepthHistogram = registry != null ? registry.histogram(MetricRegistry.name(ParallelMapTileLoader.class, "maxQueueDepth")) : null;
+        maxQueueWaitTimer = registry != null ? registry.timer(MetricRegistry.name(ParallelMapTileLoader.class, "maxQueueWait")) : null;
     }
 
     /**
@@ -71,8 +121,11 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
      */
     public void addTileToLoad(MapTileTask task) {
         nbTiles++;
+        context.getProgress().addTiles(1);
         if (executor != null) {
+            task.setFetchContext(context);
             executor.addTask(task, this);
+            maxQueueDepth = Math.max(maxQueueDepth, executor.getQueueDepth(this));
         } else {
             //no parallel loading... do it right away
             task.process();
@@ -80,6 +133,13 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
         }
     }
 
+    /**
+     * @return True if the tiles are rendered with Java2D.
+     */
+    public boolean isDirectRaster() {
+        return graphics != null;
+    }
+
     /**
      * Wait for all the tiles to be loaded and rendered.
      */
@@ -90,6 +150,19 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
         } catch (TimeoutException e) {
             throw new RuntimeException(e);
         }
+        context.getProgress().checkCancelled();
+        if (specError != null) {
+            throw specError;
+        }
+        if (executor != null && nbTiles > 0 && maxQueueDepthHistogram != null) {
+            maxQueueDepthHistogram.update(maxQueueDepth);
+            maxQueueWaitTimer.update(maxQueueWaitNanos, TimeUnit.NANOSECONDS);
+        }
+        if (executor != null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Loaded " + nbTiles + " tiles, max queue depth=" + maxQueueDepth +
+                         ", max queue wait=" + TimeUnit.NANOSECONDS.toMillis(maxQueueWaitNanos) + "ms, " +
+                         executor.getNbJobs() + " maps in the executor");
+        }
     }
 
     /**
@@ -97,20 +170,57 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
      * scheduled to be loaded. For one PDF file, not called in //.
      */
     public void handle(MapTileTask mapTileTaskResult) {
+        final long queueWait = mapTileTaskResult.getQueueWaitNanos();
+        if (queueWait >= 0) {
+            maxQueueWaitNanos = Math.max(maxQueueWaitNanos, queueWait);
+            if (queueWaitTimer != null) {
+                queueWaitTimer.update(queueWait, TimeUnit.NANOSECONDS);
+            }
+        }
+        if (specError == null) {
+            specError = mapTileTaskResult.getSpecError();
+        }
         try {
-            if (!mapTileTaskResult.handleException(context)) {
+            if (graphics != null) {
+                if (!mapTileTaskResult.handleException(context)) {
+                    final Graphics2D tileGraphics = (Graphics2D) graphics.create();
+                    try {
+                        mapTileTaskResult.renderOnGraphics(tileGraphics);
+                    } catch (RuntimeException e) {
+                        context.addError(e);
+                    } finally {
+                        tileGraphics.dispose();
+                    }
+                }
+            } else if (!mapTileTaskResult.handleException(context)) {
                 synchronized (context.getPdfLock()) {  //tiles may be currently loading in another thread
                     dc.saveState();
                     try {
                         mapTileTaskResult.renderOnPdf(dc);
                     } catch (DocumentException e) {
                         context.addError(e);
+                    } catch (RuntimeException e) {
+                        context.addError(e);
                     } finally {
                         dc.restoreState();
                     }
                 }
             }
         } finally {
+            context.getProgress().tileDone();
+            target.addDone(1);
+        }
+    }
+
+    /**
+     * Called instead of {@link #handle(MapTileTask)} when a task failed outside of
+     * {@link MapTileTask#readTile()}. The tile is counted as done, with an error.
+     */
+    public void handleError(Throwable error) {
+        try {
+            context.addError(error instanceof Exception ? (Exception) error : new RuntimeException(error));
+        } finally {
+            context.getProgress().tileDone();
             target.addDone(1);
         }
     }
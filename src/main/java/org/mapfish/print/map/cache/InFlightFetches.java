@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.cache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Makes sure a given tile is fetched only once at a time: when several prints
+ * ask for the same tile while it's being downloaded, they all wait for the
+ * first download and share its result.
+ * <p/>
+ * Nothing is kept once the download is finished (that's the job of the
+ * {@link TileCache}).
+ */
+public class InFlightFetches {
+    private final ConcurrentMap<String, Future<TileResponse>> inFlight =
+            new ConcurrentHashMap<String, Future<TileResponse>>();
+
+    private final AtomicLong nbCoalesced = new AtomicLong(0);
+
+    /**
+     * Fetch a tile or wait for the fetch already in progress for the same key.
+     *
+     * @param key    identifies the request (see {@link TileCache#createKey})
+     * @param stale  passed to the loader
+     * @return The response and true if it came from another thread's fetch.
+     */
+    public Result fetch(String key, final TileCache.Loader loader, final TileResponse stale) throws IOException {
+        //a conditional GET doesn't return the same thing as a normal GET
+        final String fullKey = stale != null ? key + "\n#revalidate" : key;
+
+        final FutureTask<TileResponse> task = new FutureTask<TileResponse>(new Callable<TileResponse>() {
+            public TileResponse call() throws Exception {
+                return loader.load(stale);
+            }
+        });
+        Future<TileResponse> current = inFlight.putIfAbsent(fullKey, task);
+        final boolean coalesced = current != null;
+        if (!coalesced) {
+            current = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(fullKey, task);
+            }
+        } else {
+            nbCoalesced.incrementAndGet();
+        }
+
+        try {
+            return new Result(current.get(), coalesced);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + key);
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Register a download done without blocking a thread. The other threads asking
+     * for the same tile meanwhile wait for it, as with {@link #fetch}.
+     *
+     * @return The object to call when the download is finished or null if the tile
+     * is already being downloaded.
+     */
+    public AsyncFetch startAsync(final String key) {
+        final SettableFuture<TileResponse> future = SettableFuture.create();
+        if (inFlight.putIfAbsent(key, future) != null) {
+            return null;
+        }
+        return new AsyncFetch() {
+            public void completed(TileResponse response) {
+                inFlight.remove(key, future);
+                future.set(response);
+            }
+
+            public void failed(Exception e) {
+                inFlight.remove(key, future);
+                future.setException(e);
+            }
+        };
+    }
+
+    /**
+     * @return The number of fetches avoided since the creation of this object.
+     */
+    public long getNbCoalesced() {
+        return nbCoalesced.get();
+    }
+
+    /**
+     * @return The number of fetches currently running.
+     */
+    public int getNbInFlight() {
+        return inFlight.size();
+    }
+
+    /**
+     * See {@link #startAsync(String)}.
+     */
+    public interface AsyncFetch {
+        void completed(TileResponse response);
+
+        void failed(Exception e);
+    }
+
+    public static class Result {
+        public final TileResponse response;
+        public final boolean coalesced;
+
+        public Result(TileResponse response, boolean coalesced) {
+            this.response = response;
+            this.coalesced = coalesced;
+        }
+    }
+}
@@ -0,0 +1,466 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.cache;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.apache.log4j.Logger;
+import org.mapfish.print.config.TileCacheConfig;
+import org.pvalsecc.misc.URIUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the raw tile bytes shared by all the print requests.
+ * <p/>
+ * There is a memory tier and an optional disk tier, both bounded in size and
+ * evicting the least recently used tiles first. The freshness of a tile is taken
+ * from the Cache-Control/Expires headers sent by the server (or from the configured
+ * timeToLive). Once stale, a tile having an ETag or a Last-Modified header is
+ * revalidated with a conditional GET.
+ * <p/>
+ * The key of a tile is its normalized URI plus the headers forwarded to the server
+ * (see {@link #createKey(java.net.URI, java.util.Map)}), so that users getting
+ * different content from the same URL (cookies, ...) don't share tiles.
+ */
+public class TileCache {
+    public static final Logger LOGGER = Logger.getLogger(TileCache.class);
+
+    private static final String FILE_SUFFIX = ".tile";
+    private static final long MB = 1024L * 1024L;
+
+    private final TileCacheConfig config;
+    private final MemoryTier memory;
+    private final DiskTier disk;
+
+    public TileCache(TileCacheConfig config) {
+        this.config = config;
+        this.memory = new MemoryTier(config.getMaxMemorySize() * MB);
+        if (config.getDirectory() != null && config.getMaxDiskSize() > 0) {
+            this.disk = new DiskTier(new File(config.getDirectory()), config.getMaxDiskSize() * MB);
+        } else {
+            this.disk = null;
+        }
+    }
+
+    public TileCacheConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Get the tile from the cache or, if missing or stale, use the loader to get it.
+     */
+    public TileResponse get(URI uri, Map<String, String> headers, Loader loader) throws IOException {
+        final String key = createKey(uri, headers);
+        final long now = System.currentTimeMillis();
+
+        TileResponse cached = memory.get(key);
+        if (cached == null && disk != null) {
+            cached = disk.get(key);
+            if (cached != null) {
+                memory.put(key, cached);
+            }
+        }
+
+        if (cached != null && cached.getExpires() > now) {
+            if (LOGGER.isDebugEnabled()) LOGGER.debug("Tile cache hit: " + uri);
+            return cached;
+        }
+
+        if (cached != null && !(config.isRevalidate() && cached.hasValidators())) {
+            remove(key);
+            cached = null;
+        }
+
+        final TileResponse response = loader.load(cached);
+        if (cached != null && response.getStatusCode() == TileResponse.NOT_MODIFIED) {
+            if (LOGGER.isDebugEnabled()) LOGGER.debug("Tile cache revalidated: " + uri);
+            final TileResponse refreshed = cached.refresh(response);
+            store(key, refreshed, now);
+            return refreshed;
+        }
+
+        if (cached != null) {
+            remove(key);
+        }
+        if (response.isSuccess()) {
+            store(key, response, now);
+        }
+        return response;
+    }
+
+    /**
+     * @return True if there is something in the cache for this tile, even if stale.
+     */
+    public boolean contains(URI uri, Map<String, String> headers) {
+        final String key = createKey(uri, headers);
+        return memory.get(key) != null || (disk != null && disk.contains(key));
+    }
+
+    /**
+     * Store a tile downloaded without going through {@link #get}.
+     */
+    public void put(URI uri, Map<String, String> headers, TileResponse response) {
+        if (response.isSuccess()) {
+            store(createKey(uri, headers), response, System.currentTimeMillis());
+        }
+    }
+
+    private void store(String key, TileResponse response, long now) {
+        final long expires = computeExpires(response, now);
+        if (expires < 0) {
+            return;
+        }
+        response.setExpires(expires);
+        memory.put(key, response);
+        if (disk != null) {
+            disk.put(key, response);
+        }
+    }
+
+    private void remove(String key) {
+        memory.remove(key);
+        if (disk != null) {
+            disk.remove(key);
+        }
+    }
+
+    /**
+     * @return The expiration time of the response or -1 if it must not be stored.
+     */
+    long computeExpires(TileResponse response, long now) {
+        final String cacheControl = response.getCacheControl();
+        if (cacheControl != null) {
+            long maxAge = -1;
+            boolean noCache = false;
+            for (String directive : cacheControl.toLowerCase().split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-store")) {
+                    return -1;
+                } else if (directive.equals("no-cache")) {
+                    noCache = true;
+                } else if (directive.startsWith("max-age=") || directive.startsWith("s-maxage=")) {
+                    try {
+                        maxAge = Long.parseLong(directive.substring(directive.indexOf('=') + 1).trim());
+                    } catch (NumberFormatException e) {
+                        LOGGER.debug("Invalid Cache-Control directive: " + directive);
+                    }
+                }
+            }
+            if (noCache && maxAge < 0) {
+                return response.hasValidators() ? now : -1;
+            }
+            if (maxAge >= 0) {
+                return now + TimeUnit.SECONDS.toMillis(maxAge);
+            }
+        }
+        if (response.getExpiresHeader() != null) {
+            try {
+                return DateUtil.parseDate(response.getExpiresHeader()).getTime();
+            } catch (DateParseException e) {
+                // an invalid date means "already expired"
+                return response.hasValidators() ? now : -1;
+            }
+        }
+        return now + TimeUnit.SECONDS.toMillis(config.getTimeToLive());
+    }
+
+    /**
+     * Remove all the tiles from the memory tier. The disk tier is kept.
+     */
+    public void clearMemory() {
+        memory.clear();
+    }
+
+    /**
+     * Build the key of a tile: the URI with a lower case scheme and host, no default port
+     * and the query parameters sorted, followed by the forwarded headers sorted by name.
+     */
+    public static String createKey(URI uri, Map<String, String> headers) {
+        final StringBuilder result = new StringBuilder();
+        if (uri.isOpaque() || uri.getHost() == null) {
+            result.append(uri.toString());
+        } else {
+            final String scheme = uri.getScheme().toLowerCase();
+            result.append(scheme).append("://").append(uri.getHost().toLowerCase());
+            final int port = uri.getPort();
+            if (port != -1 && !(port == 80 && scheme.equals("http")) && !(port == 443 && scheme.equals("https"))) {
+                result.append(':').append(port);
+            }
+            final String path = uri.getRawPath();
+            result.append(path == null || path.isEmpty() ? "/" : path);
+            appendSortedQuery(result, uri);
+        }
+
+        if (headers != null && !headers.isEmpty()) {
+            final Map<String, String> sortedHeaders = new TreeMap<String, String>(String.CASE_INSENSITIVE_ORDER);
+            sortedHeaders.putAll(headers);
+            for (Map.Entry<String, String> header : sortedHeaders.entrySet()) {
+                result.append('\n').append(header.getKey().toLowerCase()).append(": ").append(header.getValue());
+            }
+        }
+        return result.toString();
+    }
+
+    private static void appendSortedQuery(StringBuilder result, URI uri) {
+        final String rawQuery = uri.getRawQuery();
+        if (rawQuery == null) {
+            return;
+        }
+        final Map<String, List<String>> params;
+        try {
+            params = new TreeMap<String, List<String>>(URIUtils.getParameters(rawQuery));
+        } catch (Exception e) {
+            // not a key=value query, take it as is
+            result.append('?').append(rawQuery);
+            return;
+        }
+        char separator = '?';
+        for (Map.Entry<String, List<String>> param : params.entrySet()) {
+            for (String value : param.getValue()) {
+                result.append(separator).append(param.getKey()).append('=').append(value);
+                separator = '&';
+            }
+        }
+    }
+
+    /**
+     * Used by the cache to fetch a tile that is missing or stale.
+     */
+    public interface Loader {
+        /**
+         * @param stale the stale response present in the cache (null if none). If not null,
+         *              the loader should send a conditional request and may return a
+         *              response with a 304 status code.
+         */
+        TileResponse load(TileResponse stale) throws IOException;
+    }
+
+    /**
+     * LRU in memory cache bounded by the number of bytes of the tiles.
+     */
+    private static class MemoryTier {
+        private final long maxSize;
+        private final LinkedHashMap<String, TileResponse> entries = new LinkedHashMap<String, TileResponse>(256, 0.75f, true);
+        private long size = 0;
+
+        public MemoryTier(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        public synchronized TileResponse get(String key) {
+            return entries.get(key);
+        }
+
+        public synchronized void put(String key, TileResponse response) {
+            if (response.getSize() > maxSize) {
+                return;
+            }
+            final TileResponse previous = entries.put(key, response);
+            if (previous != null) {
+                size -= previous.getSize();
+            }
+            size += response.getSize();
+            final Iterator<TileResponse> it = entries.values().iterator();
+            while (size > maxSize && it.hasNext()) {
+                size -= it.next().getSize();
+                it.remove();
+            }
+        }
+
+        public synchronized void remove(String key) {
+            final TileResponse previous = entries.remove(key);
+            if (previous != null) {
+                size -= previous.getSize();
+            }
+        }
+
+        public synchronized void clear() {
+            entries.clear();
+            size = 0;
+        }
+    }
+
+    /**
+     * LRU cache on disk bounded by the size of the files. One file per tile, named
+     * after the SHA-1 of the key. The index is rebuilt from the files found in the
+     * directory at startup, oldest first.
+     */
+    private static class DiskTier {
+        private final File directory;
+        private final long maxSize;
+        private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(256, 0.75f, true);
+        private long size = 0;
+
+        public DiskTier(File directory, long maxSize) {
+            this.directory = directory;
+            this.maxSize = maxSize;
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new RuntimeException("unable to create dir:" + directory);
+            }
+            loadIndex();
+        }
+
+        private void loadIndex() {
+            final File[] files = directory.listFiles(new FilenameFilter() {
+                public boolean accept(File dir, String name) {
+                    return name.endsWith(FILE_SUFFIX);
+                }
+            });
+            if (files == null) {
+                return;
+            }
+            Arrays.sort(files, new Comparator<File>() {
+                public int compare(File o1, File o2) {
+                    final long diff = o1.lastModified() - o2.lastModified();
+                    return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+                }
+            });
+            synchronized (this) {
+                for (File file : files) {
+                    final String name = file.getName();
+                    index.put(name.substring(0, name.length() - FILE_SUFFIX.length()), file.length());
+                    size += file.length();
+                }
+                evict();
+            }
+        }
+
+        public synchronized boolean contains(String key) {
+            return index.get(hash(key)) != null;
+        }
+
+        public TileResponse get(String key) {
+            final String hash = hash(key);
+            synchronized (this) {
+                if (index.get(hash) == null) {
+                    return null;
+                }
+            }
+            ObjectInputStream in = null;
+            try {
+                in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(getFile(hash))));
+                final String storedKey = (String) in.readObject();
+                if (!storedKey.equals(key)) {
+                    return null;
+                }
+                return (TileResponse) in.readObject();
+            } catch (Exception e) {
+                LOGGER.warn("Cannot read tile from the disk cache: " + getFile(hash) + ": " + e);
+                remove(key);
+                return null;
+            } finally {
+                closeQuietly(in);
+            }
+        }
+
+        public void put(String key, TileResponse response) {
+            final String hash = hash(key);
+            final File file = getFile(hash);
+            final File tempFile = new File(directory, hash + "." + Thread.currentThread().getId() + ".tmp");
+            ObjectOutputStream out = null;
+            try {
+                out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+                out.writeObject(key);
+                out.writeObject(response);
+                out.close();
+                out = null;
+                synchronized (this) {
+                    final Long previous = index.remove(hash);
+                    if (previous != null) {
+                        size -= previous;
+                    }
+                    if ((file.exists() && !file.delete()) || !tempFile.renameTo(file)) {
+                        throw new IOException("cannot rename " + tempFile + " to " + file);
+                    }
+                    index.put(hash, file.length());
+                    size += file.length();
+                    evict();
+                }
+            } catch (IOException e) {
+                LOGGER.warn("Cannot write tile to the disk cache: " + file + ": " + e);
+                tempFile.delete();
+            } finally {
+                closeQuietly(out);
+            }
+        }
+
+        public synchronized void remove(String key) {
+            final String hash = hash(key);
+            final Long previous = index.remove(hash);
+            if (previous != null) {
+                size -= previous;
+                getFile(hash).delete();
+            }
+        }
+
+        private void evict() {
+            final List<String> toDelete = new ArrayList<String>();
+            final Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+            while (size > maxSize && it.hasNext()) {
+                final Map.Entry<String, Long> entry = it.next();
+                size -= entry.getValue();
+                toDelete.add(entry.getKey());
+                it.remove();
+            }
+            for (String hash : toDelete) {
+                getFile(hash).delete();
+            }
+        }
+
+        private File getFile(String hash) {
+            return new File(directory, hash + FILE_SUFFIX);
+        }
+
+        private static String hash(String key) {
+            return Hashing.sha1().hashString(key, Charsets.UTF_8).toString();
+        }
+
+        private static void closeQuietly(java.io.Closeable closeable) {
+            if (closeable != null) {
+                try {
+                    closeable.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.cache;
+
+import java.io.Serializable;
+
+/**
+ * The raw result of fetching a tile (or any image) over HTTP: the body plus the
+ * few response headers needed to decide if and how long it can be cached.
+ * <p/>
+ * Instances are shared between threads once they are in the {@link TileCache},
+ * so they must not be modified after having been stored.
+ */
+public class TileResponse implements Serializable {
+    private static final long serialVersionUID = -2793532164226318237L;
+
+    public static final int NOT_MODIFIED = 304;
+
+    private final int statusCode;
+    private final String statusText;
+    private final String contentType;
+    private final byte[] data;
+
+    private String etag;
+    private String lastModified;
+    private String cacheControl;
+    private String expiresHeader;
+
+    /**
+     * Time (in ms since the epoch) after which the response must be revalidated.
+     * Set by the {@link TileCache} when the response is stored.
+     */
+    private long expires = 0L;
+
+    public TileResponse(int statusCode, String statusText, String contentType, byte[] data) {
+        this.statusCode = statusCode;
+        this.statusText = statusText;
+        this.contentType = contentType == null ? "" : contentType;
+        this.data = data;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public String getStatusText() {
+        return statusText;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getSize() {
+        return data == null ? 0 : data.length;
+    }
+
+    public boolean isSuccess() {
+        return statusCode >= 200 && statusCode < 300;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(String lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public String getCacheControl() {
+        return cacheControl;
+    }
+
+    public void setCacheControl(String cacheControl) {
+        this.cacheControl = cacheControl;
+    }
+
+    public String getExpiresHeader() {
+        return expiresHeader;
+    }
+
+    public void setExpiresHeader(String expiresHeader) {
+        this.expiresHeader = expiresHeader;
+    }
+
+    /**
+     * @return true if the server gave us something to do a conditional GET with.
+     */
+    public boolean hasValidators() {
+        return etag != null || lastModified != null;
+    }
+
+    public long getExpires() {
+        return expires;
+    }
+
+    void setExpires(long expires) {
+        this.expires = expires;
+    }
+
+    /**
+     * Create a copy of this response with the caching headers sent back by the server
+     * in a 304 (not modified) answer.
+     */
+    TileResponse refresh(TileResponse notModified) {
+        TileResponse result = new TileResponse(statusCode, statusText, contentType, data);
+        result.etag = notModified.etag != null ? notModified.etag : etag;
+        result.lastModified = notModified.lastModified != null ? notModified.lastModified : lastModified;
+        result.cacheControl = notModified.cacheControl;
+        result.expiresHeader = notModified.expiresHeader;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "TileResponse{status=" + statusCode + ", contentType=" + contentType + ", size=" + getSize() + "}";
+    }
+}
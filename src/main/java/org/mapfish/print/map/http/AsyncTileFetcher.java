@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.http;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.conn.SystemDefaultRoutePlanner;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.map.cache.TileResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Fetcher using a non-blocking HTTP client: the connections are multiplexed on
+ * a few I/O threads. With {@link #fetchAsync}, used by the tile executor (see
+ * {@link org.mapfish.print.map.MapTileTask#startAsync}), no thread is held during the
+ * downloads, so the number of concurrent downloads is limited by maxConnections and
+ * not by the number of threads. {@link #fetch} still blocks the caller.
+ * <p/>
+ * The URIs needing the localHostForward feature or a security strategy (those
+ * are configured on commons-httpclient objects) are still handled by a
+ * {@link BlockingTileFetcher}.
+ */
+public class AsyncTileFetcher implements TileFetcher {
+    public static final Logger LOGGER = Logger.getLogger(AsyncTileFetcher.class);
+
+    private final CloseableHttpAsyncClient client;
+    private final BlockingTileFetcher fallback = new BlockingTileFetcher();
+
+    public AsyncTileFetcher(int maxConnections, int maxConnectionsPerHost, int ioThreads,
+                            int connectionTimeout, int socketTimeout) {
+        final RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectionTimeout)
+                .setSocketTimeout(socketTimeout)
+                .build();
+        final IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(ioThreads)
+                .setConnectTimeout(connectionTimeout)
+                .setSoTimeout(socketTimeout)
+                .build();
+        client = HttpAsyncClients.custom()
+                .setMaxConnTotal(maxConnections)
+                .setMaxConnPerRoute(maxConnectionsPerHost)
+                .setDefaultRequestConfig(requestConfig)
+                .setDefaultIOReactorConfig(ioReactorConfig)
+                .setRoutePlanner(new SystemDefaultRoutePlanner(ProxySelector.getDefault()))
+                .build();
+        client.start();
+    }
+
+    public TileResponse fetch(RenderingContext context, URI uri, TileResponse stale) throws IOException {
+        if (!supportsAsync(context, uri)) {
+            return fallback.fetch(context, uri, stale);
+        }
+
+        final Timer.Context timer = startTimer(context, uri);
+        try {
+            if (LOGGER.isDebugEnabled()) LOGGER.debug("loading image: " + uri);
+            final Future<HttpResponse> future = client.execute(createRequest(context, uri, stale), null);
+            final HttpResponse httpResponse;
+            try {
+                httpResponse = future.get();
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while loading " + uri);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Cannot load " + uri, e.getCause());
+            }
+            return createResponse(httpResponse);
+        } finally {
+            timer.close();
+        }
+    }
+
+    public void fetchAsync(RenderingContext context, final URI uri, final Callback callback) {
+        final Timer.Context timer = startTimer(context, uri);
+        if (LOGGER.isDebugEnabled()) LOGGER.debug("loading image asynchronously: " + uri);
+        client.execute(createRequest(context, uri, null), new FutureCallback<HttpResponse>() {
+            public void completed(HttpResponse httpResponse) {
+                timer.close();
+                final TileResponse response;
+                try {
+                    response = createResponse(httpResponse);
+                } catch (IOException e) {
+                    callback.failed(e);
+                    return;
+                }
+                callback.completed(response);
+            }
+
+            public void failed(Exception e) {
+                timer.close();
+                callback.failed(e);
+            }
+
+            public void cancelled() {
+                timer.close();
+                callback.failed(new InterruptedIOException("Cancelled while loading " + uri));
+            }
+        });
+    }
+
+    /**
+     * The URIs needing the localHostForward feature or a security strategy are not
+     * supported.
+     */
+    public boolean supportsAsync(RenderingContext context, URI uri) {
+        return (uri.getScheme().equals("http") || uri.getScheme().equals("https")) &&
+                !context.getConfig().localHostForwardIsFrom(uri.getHost()) &&
+                !context.getConfig().isSecured(uri);
+    }
+
+    private static Timer.Context startTimer(RenderingContext context, URI uri) {
+        MetricRegistry registry = context.getConfig().getMetricRegistry();
+        return registry.timer("http_" + uri.getAuthority()).time();
+    }
+
+    private static HttpGet createRequest(RenderingContext context, URI uri, TileResponse stale) {
+        final HttpGet get = new HttpGet(uri);
+        for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
+            get.setHeader(entry.getKey(), entry.getValue());
+        }
+        if (stale != null) {
+            if (stale.getEtag() != null) get.setHeader("If-None-Match", stale.getEtag());
+            if (stale.getLastModified() != null) get.setHeader("If-Modified-Since", stale.getLastModified());
+        }
+        return get;
+    }
+
+    /**
+     * The entity is already in memory (the default consumer buffers it), so this
+     * doesn't block.
+     */
+    private static TileResponse createResponse(HttpResponse httpResponse) throws IOException {
+        final HttpEntity entity = httpResponse.getEntity();
+        final Header contentType = httpResponse.getFirstHeader("Content-Type");
+        final TileResponse response = new TileResponse(httpResponse.getStatusLine().getStatusCode(),
+                httpResponse.getStatusLine().getReasonPhrase(),
+                contentType == null ? "" : contentType.getValue(),
+                entity == null ? null : EntityUtils.toByteArray(entity));
+        response.setEtag(getHeaderValue(httpResponse, "ETag"));
+        response.setLastModified(getHeaderValue(httpResponse, "Last-Modified"));
+        response.setCacheControl(getHeaderValue(httpResponse, "Cache-Control"));
+        response.setExpiresHeader(getHeaderValue(httpResponse, "Expires"));
+        return response;
+    }
+
+    private static String getHeaderValue(HttpResponse response, String name) {
+        final Header header = response.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.http;
+
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.log4j.Logger;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.map.cache.TileResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.util.Map;
+
+/**
+ * Fetcher using the commons-httpclient connection manager of the configuration
+ * (or a plain {@link HttpURLConnection} for the localHostForward feature). The
+ * calling thread is blocked during the whole download.
+ */
+public class BlockingTileFetcher implements TileFetcher {
+    public static final Logger LOGGER = Logger.getLogger(BlockingTileFetcher.class);
+
+    public TileResponse fetch(RenderingContext context, URI uri, TileResponse stale) throws IOException {
+        if ((uri.getScheme().equals("http") || uri.getScheme().equals("https"))
+                && context.getConfig().localHostForwardIsFrom(uri.getHost())) {
+            return fetchLocalHost(context, uri, stale);
+        } else {
+            return fetchHttpClient(context, uri, stale);
+        }
+    }
+
+    public boolean supportsAsync(RenderingContext context, URI uri) {
+        return false;
+    }
+
+    public void fetchAsync(RenderingContext context, URI uri, Callback callback) {
+        throw new UnsupportedOperationException("The downloads are blocking");
+    }
+
+    private TileResponse fetchLocalHost(RenderingContext context, URI uri, TileResponse stale) throws IOException {
+        String scheme = uri.getScheme();
+        final String host = uri.getHost();
+        if (uri.getScheme().equals("https")
+                && context.getConfig().localHostForwardIsHttps2http()) {
+            scheme = "http";
+        }
+        URL url = new URL(scheme, "localhost", uri.getPort(),
+                uri.getPath() + "?" + uri.getQuery());
+
+        HttpURLConnection connexion = (HttpURLConnection) url.openConnection();
+        connexion.setRequestProperty("Host", host);
+        for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
+            connexion.setRequestProperty(entry.getKey(), entry.getValue());
+        }
+        if (stale != null) {
+            if (stale.getEtag() != null) connexion.setRequestProperty("If-None-Match", stale.getEtag());
+            if (stale.getLastModified() != null) connexion.setRequestProperty("If-Modified-Since", stale.getLastModified());
+        }
+        byte[] data = null;
+        InputStream is = null;
+        try {
+            try {
+                is = connexion.getInputStream();
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                byte[] buffer = new byte[1024];
+                int length;
+                while ((length = is.read(buffer)) != -1) {
+                    baos.write(buffer, 0, length);
+                }
+                baos.flush();
+                data = baos.toByteArray();
+            } catch (IOException e) {
+                LOGGER.warn(e);
+            }
+            final TileResponse response = new TileResponse(connexion.getResponseCode(), connexion.getResponseMessage(),
+                    connexion.getContentType(), data);
+            response.setEtag(connexion.getHeaderField("ETag"));
+            response.setLastModified(connexion.getHeaderField("Last-Modified"));
+            response.setCacheControl(connexion.getHeaderField("Cache-Control"));
+            response.setExpiresHeader(connexion.getHeaderField("Expires"));
+            return response;
+        } finally {
+            if (is != null) {
+                is.close();
+            }
+        }
+    }
+
+    private TileResponse fetchHttpClient(RenderingContext context, URI uri, TileResponse stale) throws IOException {
+        GetMethod getMethod = null;
+        MetricRegistry registry = context.getConfig().getMetricRegistry();
+        final Timer.Context timer = registry.timer("http_" + uri.getAuthority()).time();
+        try {
+            getMethod = new GetMethod(uri.toString());
+            for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
+                getMethod.setRequestHeader(entry.getKey(), entry.getValue());
+            }
+            if (stale != null) {
+                if (stale.getEtag() != null) getMethod.setRequestHeader("If-None-Match", stale.getEtag());
+                if (stale.getLastModified() != null) getMethod.setRequestHeader("If-Modified-Since", stale.getLastModified());
+            }
+            if (LOGGER.isDebugEnabled()) LOGGER.debug("loading image: " + uri);
+            context.getConfig().getHttpClient(uri).executeMethod(getMethod);
+
+            Header contentTypeHeader = getMethod.getResponseHeader("Content-Type");
+            final TileResponse response = new TileResponse(getMethod.getStatusCode(), getMethod.getStatusText(),
+                    contentTypeHeader == null ? "" : contentTypeHeader.getValue(), getMethod.getResponseBody());
+            response.setEtag(getHeaderValue(getMethod, "ETag"));
+            response.setLastModified(getHeaderValue(getMethod, "Last-Modified"));
+            response.setCacheControl(getHeaderValue(getMethod, "Cache-Control"));
+            response.setExpiresHeader(getHeaderValue(getMethod, "Expires"));
+            return response;
+        } finally {
+            timer.close();
+            if (getMethod != null) {
+                getMethod.releaseConnection();
+            }
+        }
+    }
+
+    private static String getHeaderValue(GetMethod method, String name) {
+        final Header header = method.getResponseHeader(name);
+        return header == null ? null : header.getValue();
+    }
+}
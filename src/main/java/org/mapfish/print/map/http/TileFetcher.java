@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.http;
+
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.map.cache.TileResponse;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Downloads the content of a remote tile, image or legend.
+ * <p/>
+ * The implementation used is chosen in the {@link org.mapfish.print.ThreadResources}
+ * since it's shared by all the configurations.
+ */
+public interface TileFetcher {
+    /**
+     * Read the whole content of the given URI in memory.
+     *
+     * @param stale if not null, a conditional GET is done using its ETag/Last-Modified.
+     */
+    TileResponse fetch(RenderingContext context, URI uri, TileResponse stale) throws IOException;
+
+    /**
+     * @return True if {@link #fetchAsync} can be used for this URI.
+     */
+    boolean supportsAsync(RenderingContext context, URI uri);
+
+    /**
+     * Start the download of the given URI without blocking the calling thread. Only
+     * if {@link #supportsAsync} returned true.
+     */
+    void fetchAsync(RenderingContext context, URI uri, Callback callback);
+
+    /**
+     * Receives the result of {@link #fetchAsync}. Called from an I/O thread, must not block.
+     */
+    interface Callback {
+        void completed(TileResponse response);
+
+        void failed(Exception e);
+    }
+}
@@ -99,7 +99,7 @@ public class ImageMapReader extends MapReader {
     public void render(final Transformer transformer, ParallelMapTileLoader parallelMapTileLoader, String srs, boolean first) {
         LOGGER.debug(baseUrl);
 
-        parallelMapTileLoader.addTileToLoad(new MapTileTask() {
+        parallelMapTileLoader.addTileToLoad(new MapTileTask(baseUrl) {
             public Image image;
 
             public void readTile() throws DocumentException {
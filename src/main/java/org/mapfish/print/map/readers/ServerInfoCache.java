@@ -1,14 +1,22 @@
 package org.mapfish.print.map.readers;
 
 import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.logging.Log;
 import org.mapfish.print.RenderingContext;
+import org.mapfish.print.config.Config;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 import org.xml.sax.SAXException;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -20,19 +28,47 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.xml.parsers.ParserConfigurationException;
 
 /**
  * Contains shared code for loading information from a server and caching it for later use.
+ * <p/>
+ * The capabilities of the different servers are loaded independently: a slow server
+ * blocks only the prints that need its capabilities. Once expired, an entry is still
+ * returned while it's reloaded in the background. The errors expire sooner than the
+ * real capabilities, so that a server that was down is tried again.
+ * <p/>
+ * The background refreshes are done without the HTTP headers of the print that
+ * noticed the expiration, and don't keep a reference to it.
+ * <p/>
+ * If a directory is configured (see {@link #configure(long, long, java.io.File)}), the
+ * capabilities documents are saved there and re-parsed after a restart, instead of
+ * querying all the servers again. The documents fetched with the HTTP headers of a
+ * print (credentials, cookies, ...) are not saved.
  *
  * Created by Jesse on 1/17/14.
  */
 public class ServerInfoCache<T extends ServiceInfo> {
-    private final Map<URI, T> cache = Collections.synchronizedMap(new HashMap<URI, T>());
+    private static volatile long timeToLive = 60 * 60 * 1000L;
+    private static volatile long errorTimeToLive = 60 * 1000L;
+    private static volatile File persistenceDir = null;
+
+    /**
+     * The threads refreshing the expired entries, shared by all the caches.
+     */
+    private static final ExecutorService REFRESHER = Executors.newFixedThreadPool(2,
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("capabilitiesRefresh-%d").build());
+
+    private final ConcurrentMap<URI, Entry> cache = new ConcurrentHashMap<URI, Entry>();
 
     private final ServiceInfoLoader<T> loader;
 
@@ -40,80 +76,231 @@ public class ServerInfoCache<T extends ServiceInfo> {
         this.loader = loader;
     }
 
-    public synchronized void clearCache() {
+    /**
+     * Change the settings of all the caches.
+     *
+     * @param timeToLive time in milliseconds after which the capabilities are reloaded
+     * @param errorTimeToLive time in milliseconds after which a server that failed is tried again
+     * @param persistenceDir where to save the capabilities documents or null to keep them in memory only
+     */
+    public static void configure(long timeToLive, long errorTimeToLive, File persistenceDir) {
+        ServerInfoCache.timeToLive = timeToLive;
+        ServerInfoCache.errorTimeToLive = errorTimeToLive;
+        ServerInfoCache.persistenceDir = persistenceDir;
+    }
+
+    /**
+     * Forget what is in memory. What was saved on disk stays.
+     */
+    public void clearCache() {
         cache.clear();
     }
 
-    public synchronized final T getInfo(URI uri, RenderingContext context) {
-        T result = cache.get(uri);
-        if (result == null) {
+    public final T getInfo(URI uri, RenderingContext context) {
+        Entry entry = cache.get(uri);
+        if (entry == null) {
+            final Entry created = new Entry();
+            entry = cache.putIfAbsent(uri, created);
+            if (entry == null) {
+                entry = created;
+            }
+        }
+        final T result = entry.get(uri, context);
+        if (entry.isExpired()) {
+            entry.refresh(uri, context.getConfig());
+        }
+        return result;
+    }
+
+    /**
+     * The info of one server. Only the first load is done synchronously, the threads
+     * asking for other servers are not blocked by it.
+     */
+    private final class Entry {
+        private volatile T value = null;
+        private volatile long expires;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        public T get(URI uri, RenderingContext context) {
+            T current = value;
+            if (current != null) {
+                return current;
+            }
+            synchronized (this) {
+                if (value == null) {
+                    if (!loadFromDisk(uri)) {
+                        load(uri, context, context.getConfig(), context.getHeaders());
+                    }
+                }
+                return value;
+            }
+        }
+
+        public boolean isExpired() {
+            return System.currentTimeMillis() > expires;
+        }
+
+        public void refresh(final URI uri, final Config config) {
+            if (!refreshing.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                REFRESHER.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            load(uri, null, config, Collections.<String, String>emptyMap());
+                        } finally {
+                            refreshing.set(false);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                refreshing.set(false);
+            }
+        }
+
+        private boolean loadFromDisk(URI uri) {
+            final File file = getPersistenceFile(uri);
+            if (file == null || !file.isFile()) {
+                return false;
+            }
             try {
-                result = requestInfo(uri, context);
+                final T result = loader.parseInfo(new ByteArrayInputStream(Files.toByteArray(file)));
+                if (loader.logger().isDebugEnabled()) {
+                    loader.logger().debug("GetCapabilities " + uri + " read from " + file + ": " + result);
+                }
+                set(result, file.lastModified() + timeToLive);
+                return true;
             } catch (Exception e) {
+                loader.logger().info("Cannot read the saved capabilities of " + uri + " from " + file + ": " + e);
+                if (!file.delete()) {
+                    loader.logger().info("Cannot delete " + file);
+                }
+                return false;
+            }
+        }
+
+        /**
+         * @param context null for the background refreshes
+         */
+        private void load(URI uri, RenderingContext context, Config config, Map<String, String> headers) {
+            final T result;
+            final byte[] document;
+            try {
+                document = requestCapabilities(uri, context, config, headers);
+                result = loader.parseInfo(new ByteArrayInputStream(document));
+            } catch (Exception e) {
+                if (value != null) {
+                    loader.logger().info("Error while refreshing the capabilities of " + uri + ". Keeping the previous ones: " + e);
+                    set(value, System.currentTimeMillis() + errorTimeToLive);
+                    return;
+                }
                 loader.logger().info("Error while getting capabilities for "+uri+". The print module will assume it's a standard WMS.");
                 String stackTrace = "";
                 for (StackTraceElement el : e.getStackTrace()) {
                     stackTrace += el.toString() +"\n";
                 }
                 loader.logger().info(stackTrace);
-                result = loader.createNewErrorResult();
+                set(loader.createNewErrorResult(), System.currentTimeMillis() + errorTimeToLive);
+                return;
             }
             if (loader.logger().isDebugEnabled()) {
                 loader.logger().debug("GetCapabilities " + uri + ": " + result);
             }
-            cache.put(uri, result);
+            set(result, System.currentTimeMillis() + timeToLive);
+            if (headers.isEmpty()) {
+                //what is fetched with the credentials of a user doesn't go to the shared directory
+                save(uri, document);
+            }
         }
-        return result;
 
+        private void set(T result, long expires) {
+            this.expires = expires;
+            this.value = result;
+        }
     }
 
+    private void save(URI uri, byte[] document) {
+        final File file = getPersistenceFile(uri);
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.createParentDirs(file);
+            //written in a temporary file first, to never leave a partial document
+            final File tmp = File.createTempFile("capabilities", ".tmp", file.getParentFile());
+            Files.write(document, tmp);
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("Cannot rename " + tmp + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            loader.logger().info("Cannot save the capabilities of " + uri + " in " + file + ": " + e);
+        }
+    }
 
-    private T requestInfo(URI baseUrl, RenderingContext context) throws IOException, URISyntaxException, ParserConfigurationException, SAXException {
+    /**
+     * @return The file where the capabilities of the given server are saved or null if
+     * the persistence is disabled.
+     */
+    private File getPersistenceFile(URI uri) {
+        final File dir = persistenceDir;
+        if (dir == null) {
+            return null;
+        }
+        //the same server can be queried for different kinds of capabilities
+        final String key = loader.getClass().getName() + " " + uri;
+        return new File(dir, Hashing.sha1().hashString(key, Charsets.UTF_8).toString() + ".xml");
+    }
+
+    private byte[] requestCapabilities(URI baseUrl, RenderingContext context, Config config, Map<String, String> headers)
+            throws IOException, URISyntaxException {
         URL url = loader.createURL(baseUrl, context);
 
         GetMethod method = null;
 
-        MetricRegistry registry = context.getConfig().getMetricRegistry();
+        MetricRegistry registry = config.getMetricRegistry();
         final com.codahale.metrics.Timer.Context timer = registry.timer("http_" + url.getAuthority()).time();
         try {
             final InputStream stream;
 
             if ((url.getProtocol().equals("http") || url.getProtocol().equals("https")) &&
-                context.getConfig().localHostForwardIsFrom(url.getHost())) {
+                config.localHostForwardIsFrom(url.getHost())) {
                 String scheme = url.getProtocol();
                 final String host = url.getHost();
                 if (url.getProtocol().equals("https") &&
-                    context.getConfig().localHostForwardIsHttps2http()) {
+                    config.localHostForwardIsHttps2http()) {
                     scheme = "http";
                 }
                 URL localUrl = new URL(scheme, "localhost", url.getPort(),
                         url.getFile());
                 HttpURLConnection connexion = (HttpURLConnection)localUrl.openConnection();
                 connexion.setRequestProperty("Host", host);
-                for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
+                for (Map.Entry<String, String> entry : headers.entrySet()) {
                     connexion.setRequestProperty(entry.getKey(), entry.getValue());
                 }
                 stream = connexion.getInputStream();
             }
             else {
                 method = new GetMethod(url.toString());
-                for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
+                for (Map.Entry<String, String> entry : headers.entrySet()) {
                     method.setRequestHeader(entry.getKey(), entry.getValue());
                 }
-                context.getConfig().getHttpClient(baseUrl).executeMethod(method);
+                config.getHttpClient(baseUrl).executeMethod(method);
                 int code = method.getStatusCode();
                 if (code < 200 || code >= 300) {
                     throw new IOException("Error " + code + " while reading the Capabilities from " + url + ": " + method.getStatusText());
                 }
                 stream = method.getResponseBodyAsStream();
             }
-            final T result;
             try {
-                result = loader.parseInfo(stream);
+                return ByteStreams.toByteArray(stream);
             } finally {
                 stream.close();
             }
-            return result;
         } finally {
             timer.stop();
             if (method != null) {
@@ -127,6 +314,9 @@ public class ServerInfoCache<T extends ServiceInfo> {
 
         public abstract T createNewErrorResult();
 
+        /**
+         * @param context null when the capabilities are refreshed in the background
+         */
         public abstract URL createURL(URI baseUrl, RenderingContext context) throws UnsupportedEncodingException, URISyntaxException, MalformedURLException;
 
         public abstract T parseInfo(InputStream stream) throws ParserConfigurationException, IOException, SAXException;
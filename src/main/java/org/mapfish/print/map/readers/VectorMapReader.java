@@ -20,9 +20,13 @@
 package org.mapfish.print.map.readers;
 
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 
+import org.apache.log4j.Logger;
 import org.json.JSONException;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.impl.PackedCoordinateSequenceFactory;
 import org.mapfish.geo.MfGeo;
 import org.mapfish.geo.MfGeoJSONReader;
 import org.mapfish.print.InvalidJsonValueException;
@@ -30,10 +34,12 @@ import org.mapfish.print.RenderingContext;
 import org.mapfish.print.Transformer;
 import org.mapfish.print.map.MapTileTask;
 import org.mapfish.print.map.ParallelMapTileLoader;
-import org.mapfish.print.map.renderers.vector.FeaturesRenderer;
+import org.mapfish.print.map.renderers.vector.FeaturesBuffer;
+import org.mapfish.print.map.renderers.vector.GeometryOptimizer;
 import org.mapfish.print.map.renderers.vector.StyledMfGeoFactory;
 import org.mapfish.print.utils.PJsonObject;
 
+import com.itextpdf.awt.geom.AffineTransform;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.pdf.PdfContentByte;
 
@@ -50,6 +56,8 @@ import com.itextpdf.text.pdf.PdfContentByte;
  * </ul>
  */
 public class VectorMapReader extends MapReader {
+    public static final Logger LOGGER = Logger.getLogger(VectorMapReader.class);
+
     public static class Factory implements MapReaderFactory {
         @Override
         public List<? extends MapReader> create(String type, RenderingContext context,
@@ -58,33 +66,103 @@ public class VectorMapReader extends MapReader {
         }
     }
 
-    private final MfGeo geo;
+    /**
+     * Max number of features rendered by one task. The tasks of a layer are rendered in parallel.
+     */
+    public static final int FEATURES_PER_TASK = 500;
+
+    private final PJsonObject geoJson;
+    private final int nbFeatures;
+    private final MfGeoJSONReader reader;
     private final RenderingContext context;
     private final String name;
 
+    /**
+     * If true, the features outside of the map are skipped and the geometries are simplified.
+     */
+    private final boolean optimize;
+
     public VectorMapReader(RenderingContext context, PJsonObject params) {
         super(params);
         this.context = context;
 
-        final PJsonObject geoJson = params.getJSONObject("geoJson");
+        geoJson = params.getJSONObject("geoJson");
         final String styleProperty = params.optString("styleProperty", "_style");
         final PJsonObject styles = params.optJSONObject("styles");
+        //the features are decoded only when rendered, one at a time, with packed coordinates
+        reader = new MfGeoJSONReader(new StyledMfGeoFactory(styles, styleProperty),
+                new GeometryFactory(PackedCoordinateSequenceFactory.DOUBLE_FACTORY));
         try {
-            final MfGeoJSONReader reader = new MfGeoJSONReader(new StyledMfGeoFactory(styles, styleProperty));
-            //noinspection deprecation
-            geo = reader.decode(geoJson.getInternalObj());
+            //fails early if it's not GeoJSON
+            nbFeatures = reader.countFeatures(geoJson.getInternalObj());
         } catch (JSONException e) {
             throw new InvalidJsonValueException(params, "geoJson", geoJson.toString(), e);
         }
         name = params.optString("name", "vector");
+        optimize = params.optBool("optimize", true);
     }
 
     public void render(final Transformer transformer, ParallelMapTileLoader parallelMapTileLoader, String srs, boolean first) {
-        parallelMapTileLoader.addTileToLoad(new MapTileTask.RenderOnly() {
-            public void renderOnPdf(PdfContentByte dc) throws DocumentException {
-                FeaturesRenderer.render(context, dc, geo, transformer.getGeoTransform(false));
+        final AffineTransform affineTransform = transformer.getGeoTransform(false);
+        for (int start = 0; start < nbFeatures; start += FEATURES_PER_TASK) {
+            parallelMapTileLoader.addTileToLoad(new RenderFeaturesTask(transformer, affineTransform,
+                    start, Math.min(start + FEATURES_PER_TASK, nbFeatures)));
+        }
+    }
+
+    /**
+     * Render a range of features in a {@link FeaturesBuffer}, on one of the map rendering
+     * threads, without holding the PDF lock. The buffer is spliced in the PDF when all the
+     * previous tasks have been rendered.
+     * <p/>
+     * An invalid feature is reported as an {@link InvalidJsonValueException}, which fails
+     * the print (see {@link MapTileTask#getSpecError()}).
+     */
+    private class RenderFeaturesTask extends MapTileTask {
+        private final Transformer transformer;
+        private final AffineTransform affineTransform;
+        private final int start;
+        private final int end;
+        private FeaturesBuffer buffer;
+        private GeometryOptimizer optimizer = null;
+
+        public RenderFeaturesTask(Transformer transformer, AffineTransform affineTransform, int start, int end) {
+            this.transformer = transformer;
+            this.affineTransform = affineTransform;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void readTile() {
+            try {
+                //noinspection deprecation
+                Iterator<MfGeo> features = reader.decodeFeatures(geoJson.getInternalObj(), start, end);
+                if (optimize) {
+                    optimizer = GeometryOptimizer.create(transformer);
+                    features = optimizer.optimize(features);
+                }
+                buffer = new FeaturesBuffer(context, affineTransform);
+                buffer.render(features);
+            } catch (JSONException e) {
+                throw new InvalidJsonValueException(geoJson, "type", geoJson.toString(), e);
+            } catch (IllegalArgumentException e) {
+                if (e.getCause() instanceof JSONException) {
+                    throw new InvalidJsonValueException(geoJson, "features", e.getMessage(), e.getCause());
+                }
+                throw e;
+            }
+        }
+
+        protected void renderOnPdf(PdfContentByte dc) throws DocumentException {
+            buffer.splice(dc);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(name + " [" + start + ", " + end + "[: " + buffer.getNbBuffered() +
+                        " features rendered in parallel, " + buffer.getNbDeferred() + " with a label or a graphic" +
+                        (optimizer == null ? "" : ", " + optimizer.getNbCulled() + " outside of the map, " +
+                        optimizer.getNbPointsRemoved() + " points simplified"));
             }
-        });
+            buffer = null;
+        }
     }
 
     public boolean testMerge(MapReader other) {
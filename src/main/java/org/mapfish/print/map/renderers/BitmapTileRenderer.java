@@ -19,6 +19,9 @@
 
 package org.mapfish.print.map.renderers;
 
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.net.URI;
 import java.util.List;
@@ -44,8 +47,9 @@ import com.itextpdf.text.pdf.PdfGState;
 public class BitmapTileRenderer extends TileRenderer {
     private static final Log LOGGER = LogFactory.getLog(BitmapTileRenderer.class);
 
-    public void render(Transformer transformer, List<URI> uris, ParallelMapTileLoader parallelMapTileLoader, final RenderingContext context, final float opacity, int nbTilesHorizontal, double offsetX, double offsetY, final long bitmapTileW, final long bitmapTileH) throws IOException {
+    public void render(Transformer transformer, List<URI> uris, final ParallelMapTileLoader parallelMapTileLoader, final RenderingContext context, final float opacity, int nbTilesHorizontal, double offsetX, double offsetY, final long bitmapTileW, final long bitmapTileH) throws IOException {
         final AffineTransform bitmapTransformer = transformer.getBitmapTransform();
+        final boolean directRaster = parallelMapTileLoader.isDirectRaster();
         final double rotation = transformer.getRotation();
 
         for (int i = 0; i < uris.size(); i++) {
@@ -66,14 +70,43 @@ public class BitmapTileRenderer extends TileRenderer {
                 continue;
             }
 
-            parallelMapTileLoader.addTileToLoad(new MapTileTask() {
+            parallelMapTileLoader.addTileToLoad(new MapTileTask(uri) {
                 public Image map;
+                public BufferedImage awtMap;
+
+                protected boolean isPrefetchable() {
+                    return true;
+                }
 
                 protected void readTile() throws IOException, DocumentException {
+                    if (directRaster) {
+                        awtMap = PDFUtils.getBufferedImage(context, uri);
+                        return;
+                    }
                     map = PDFUtils.getImage(context, uri, bitmapTileW, bitmapTileH);
                     map.setAbsolutePosition((float) posX, (float) posY);
                 }
 
+                public boolean supportsGraphics() {
+                    return directRaster;
+                }
+
+                protected void renderOnGraphics(Graphics2D graphics) {
+                    if (awtMap == null) {
+                        return;
+                    }
+                    double[] matrix = new double[6];
+                    bitmapTransformer.getMatrix(matrix);
+                    graphics.transform(new java.awt.geom.AffineTransform(matrix));
+                    if (opacity < 1.0) {
+                        graphics.setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, opacity));
+                    }
+                    //the Y axis goes up, like in the PDF => the image must be flipped
+                    final java.awt.geom.AffineTransform imageTransform = java.awt.geom.AffineTransform.getTranslateInstance(posX, posY + bitmapTileH);
+                    imageTransform.scale((double) bitmapTileW / awtMap.getWidth(), -(double) bitmapTileH / awtMap.getHeight());
+                    graphics.drawImage(awtMap, imageTransform, null);
+                }
+
                 protected void renderOnPdf(PdfContentByte dc) throws DocumentException {
                     dc.transform(bitmapTransformer);
                     if (opacity < 1.0) {
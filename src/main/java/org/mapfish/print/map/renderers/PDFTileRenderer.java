@@ -19,10 +19,17 @@
 
 package org.mapfish.print.map.renderers;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.List;
+import java.util.Map;
 
+import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.log4j.Logger;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.RenderingContext;
@@ -30,11 +37,14 @@ import org.mapfish.print.Transformer;
 import org.mapfish.print.map.MapTileTask;
 import org.mapfish.print.map.ParallelMapTileLoader;
 
+import com.google.common.io.ByteStreams;
 import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.io.RandomAccessSourceFactory;
 import com.itextpdf.text.pdf.PdfContentByte;
 import com.itextpdf.text.pdf.PdfGState;
 import com.itextpdf.text.pdf.PdfImportedPage;
 import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.RandomAccessFileOrArray;
 
 public class PDFTileRenderer extends TileRenderer {
     public static final Logger LOGGER = Logger.getLogger(PDFTileRenderer.class);
@@ -46,29 +56,122 @@ public class PDFTileRenderer extends TileRenderer {
         }
         final URI uri = uris.get(0);
 
-        parallelMapTileLoader.addTileToLoad(new MapTileTask() {
+        parallelMapTileLoader.addTileToLoad(new MapTileTask(uri) {
             public PdfImportedPage pdfMap;
+            private PdfReader reader;
+            private File tempFile;
 
             protected void readTile() throws IOException, DocumentException {
                 LOGGER.debug(uri);
-                PdfReader reader = new PdfReader(uri.toURL());
-                synchronized (context.getPdfLock()) {
-                    pdfMap = context.getWriter().getImportedPage(reader, 1);
+                try {
+                    if ("http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme())) {
+                        tempFile = download(context, uri);
+                        reader = openPartial(tempFile);
+                    } else if ("file".equalsIgnoreCase(uri.getScheme())) {
+                        reader = openPartial(new File(uri));
+                    } else {
+                        reader = new PdfReader(uri.toURL());
+                    }
+                    synchronized (context.getPdfLock()) {
+                        pdfMap = context.getWriter().getImportedPage(reader, 1);
 
-                    if (opacity < 1.0) {
-                        PdfGState gs = new PdfGState();
-                        gs.setFillOpacity(opacity);
-                        gs.setStrokeOpacity(opacity);
-                        //gs.setBlendMode(PdfGState.BM_SOFTLIGHT);
-                        pdfMap.setGState(gs);
+                        if (opacity < 1.0) {
+                            PdfGState gs = new PdfGState();
+                            gs.setFillOpacity(opacity);
+                            gs.setStrokeOpacity(opacity);
+                            //gs.setBlendMode(PdfGState.BM_SOFTLIGHT);
+                            pdfMap.setGState(gs);
+                        }
                     }
+                } catch (IOException e) {
+                    release();
+                    throw e;
+                } catch (RuntimeException e) {
+                    release();
+                    throw e;
                 }
+                //in case the print finishes without rendering this tile (cancelled, failed, ...)
+                context.addCloseHook(new Closeable() {
+                    public void close() {
+                        release();
+                    }
+                });
             }
 
-            protected void renderOnPdf(PdfContentByte dc) throws DocumentException {
-                dc.transform(transformer.getPdfTransform());
-                dc.addTemplate(pdfMap, 0, 0);
+            protected synchronized void renderOnPdf(PdfContentByte dc) throws DocumentException {
+                if (pdfMap == null || reader == null) {
+                    release();
+                    return;
+                }
+                try {
+                    dc.transform(transformer.getPdfTransform());
+                    dc.addTemplate(pdfMap, 0, 0);
+                    //write the imported page right away, so that the reader and its file can be released
+                    context.getWriter().freeReader(reader);
+                } catch (IOException e) {
+                    throw new DocumentException(e);
+                } finally {
+                    release();
+                }
+            }
+
+            private synchronized void release() {
+                if (reader != null) {
+                    reader.close();
+                    reader = null;
+                }
+                if (tempFile != null) {
+                    if (!tempFile.delete()) {
+                        LOGGER.warn("Cannot delete " + tempFile);
+                    }
+                    tempFile = null;
+                }
             }
         });
     }
+
+    /**
+     * Open the PDF in partial mode: only the objects needed for the imported page are
+     * read, from the file instead of from a copy in memory.
+     */
+    private static PdfReader openPartial(File file) throws IOException {
+        final RandomAccessSourceFactory factory = new RandomAccessSourceFactory();
+        factory.setForceRead(false);
+        return new PdfReader(new RandomAccessFileOrArray(factory.createBestSource(file.getAbsolutePath())), null);
+    }
+
+    /**
+     * Download the PDF into a temporary file with the HTTP client of the configuration,
+     * without keeping it in memory.
+     */
+    private static File download(RenderingContext context, URI uri) throws IOException {
+        final File file = File.createTempFile("mapfishprint-layer", ".pdf");
+        boolean ok = false;
+        final GetMethod method = new GetMethod(uri.toString());
+        try {
+            for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
+                method.setRequestHeader(entry.getKey(), entry.getValue());
+            }
+            context.getConfig().getHttpClient(uri).executeMethod(method);
+            final int code = method.getStatusCode();
+            if (code < 200 || code >= 300) {
+                throw new IOException("Error " + code + " while reading the PDF from " + uri + ": " + method.getStatusText());
+            }
+            final InputStream input = method.getResponseBodyAsStream();
+            final OutputStream output = new FileOutputStream(file);
+            try {
+                ByteStreams.copy(input, output);
+            } finally {
+                output.close();
+                input.close();
+            }
+            ok = true;
+            return file;
+        } finally {
+            method.releaseConnection();
+            if (!ok && !file.delete()) {
+                LOGGER.warn("Cannot delete " + file);
+            }
+        }
+    }
 }
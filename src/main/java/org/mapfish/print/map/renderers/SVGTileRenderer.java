@@ -23,35 +23,36 @@ import com.itextpdf.awt.PdfGraphics2D;
 import java.awt.Graphics2D;
 import java.awt.print.PageFormat;
 import java.awt.print.Paper;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.List;
-import java.util.Map;
 
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamSource;
 
+import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
+import org.apache.batik.dom.svg.SVGDOMImplementation;
 import org.apache.batik.ext.awt.RenderingHintsKeyExt;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.print.PrintTranscoder;
+import org.apache.batik.util.XMLResourceDescriptor;
 import org.apache.log4j.Logger;
-import org.apache.xerces.parsers.DOMParser;
 import org.apache.xml.serialize.OutputFormat;
 import org.apache.xml.serialize.XMLSerializer;
 import org.mapfish.print.InvalidValueException;
+import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.Transformer;
 import org.mapfish.print.map.MapTileTask;
 import org.mapfish.print.map.ParallelMapTileLoader;
 import org.w3c.dom.Document;
-import org.xml.sax.InputSource;
 
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.pdf.PdfContentByte;
@@ -60,36 +61,23 @@ import com.itextpdf.text.pdf.PdfGState;
 public class SVGTileRenderer extends TileRenderer {
     public static final Logger LOGGER = Logger.getLogger(SVGTileRenderer.class);
 
-    private static Document svgZoomOut;
+    /**
+     * The stylesheet adjusting the line widths, compiled only once. Unlike the
+     * transformers created from it, it is thread safe.
+     */
+    private static final Templates svgZoomOut = compileSvgZoomOut();
 
-    static {
-        makeSvgZoomOut();
-    }
-    private static void makeSvgZoomOut() {
-        DOMParser parser = new DOMParser();
+    private static Templates compileSvgZoomOut() {
         String svgZoomFileName = "svgZoomOut.xsl";
-        final InputStream stream = SVGTileRenderer.class.getResourceAsStream(svgZoomFileName);
-        if (stream == null) {
+        final URL url = SVGTileRenderer.class.getResource(svgZoomFileName);
+        if (url == null) {
             String file = SVGTileRenderer.class.getResource(".").getPath() + svgZoomFileName;
             throw new RuntimeException("Cannot find the SVG transformation XSLT: expected it to be in: "+file);
         }
         try {
-            final InputSource inputSource = new InputSource(stream);
-            inputSource.setSystemId(".");
-            parser.parse(inputSource);
-
-            svgZoomOut = parser.getDocument();
-
-        } catch (Exception e) {
+            return TransformerFactory.newInstance().newTemplates(new StreamSource(url.toString()));
+        } catch (TransformerConfigurationException e) {
             throw new RuntimeException("Cannot parse the SVG transformation XSLT", e);
-        } finally {
-            if(stream != null) {
-                try {
-                    stream.close();
-                } catch (IOException e2) {
-                    e2.printStackTrace();
-                }
-            }
         }
     }
 
@@ -101,13 +89,18 @@ public class SVGTileRenderer extends TileRenderer {
 
         final URI uri = uris.get(0);
 
-        parallelMapTileLoader.addTileToLoad(new MapTileTask() {
+        parallelMapTileLoader.addTileToLoad(new MapTileTask(uri) {
             public PrintTranscoder pt;
 
+            @Override
+            protected boolean isPrefetchable() {
+                return true;
+            }
+
             @Override
             protected void readTile() throws IOException, DocumentException {
                 LOGGER.debug(uri);
-                final TranscoderInput ti = getTranscoderInput(uri.toURL(), transformer, context);
+                final TranscoderInput ti = getTranscoderInput(uri, transformer, context);
                 if (ti != null) {
                     pt = new PrintTranscoder();
                     pt.transcode(ti, null);
@@ -116,6 +109,10 @@ public class SVGTileRenderer extends TileRenderer {
 
             @Override
             protected void renderOnPdf(PdfContentByte dc) throws DocumentException {
+                if (pt == null) {
+                    //the error is already in the context
+                    return;
+                }
                 dc.transform(transformer.getSvgTransform());
 
                 if (opacity < 1.0) {
@@ -143,56 +140,42 @@ public class SVGTileRenderer extends TileRenderer {
         });
     }
 
-    private TranscoderInput getTranscoderInput(URL url, Transformer transformer, RenderingContext context) {
+    /**
+     * Download and parse the SVG, in the thread of the tile task. The transcoder only has
+     * to build the graphics when the tile is printed, while holding the PDF lock.
+     * <p/>
+     * The documents are built with the Batik DOM implementation, so the transcoder
+     * doesn't have to copy them.
+     */
+    private TranscoderInput getTranscoderInput(URI uri, Transformer transformer, RenderingContext context) throws IOException {
+        final byte[] svg = PDFUtils.loadDocument(context, uri);
         final float zoomFactor = transformer.getSvgFactor() * context.getStyleFactor();
         //final float zoomFactor = context.getStyleFactor();
-        if (svgZoomOut != null && zoomFactor != 1.0f) {
-            javax.xml.transform.Transformer xslt = null;
+        final Document doc;
+        if (zoomFactor != 1.0f) {
             try {
-                DOMResult transformedSvg = new DOMResult();
-                final TransformerFactory factory = TransformerFactory.newInstance();
-                if (svgZoomOut.getTextContent() == null) {
-                    makeSvgZoomOut(); // a bit of a hack
-                }
-                xslt = factory.newTransformer(new DOMSource(svgZoomOut));
+                final javax.xml.transform.Transformer xslt = svgZoomOut.newTransformer();
 
                 //TODO: may want a different zoom factor in function of the layer and the type (symbol, line or font)
                 xslt.setParameter("zoomFactor", zoomFactor);
 
-                final URLConnection urlConnection = url.openConnection();
-                for (Map.Entry<String, String> entry : context.getHeaders().entrySet()) {
-                    urlConnection.setRequestProperty(entry.getKey(), entry.getValue());
-                }
-                final InputStream inputStream = urlConnection.getInputStream();
-
-                Document doc;
-                try {
-                    xslt.transform(new StreamSource(inputStream), transformedSvg);
-                    doc = (Document) transformedSvg.getNode();
-
-                    if (LOGGER.isDebugEnabled()) {
-                        printDom(doc);
-                    }
-                } finally {
-                    inputStream.close();
-                }
-                return new TranscoderInput(doc);
+                doc = SVGDOMImplementation.getDOMImplementation().createDocument(SVGDOMImplementation.SVG_NAMESPACE_URI, null, null);
+                xslt.transform(new StreamSource(new ByteArrayInputStream(svg), uri.toString()), new DOMResult(doc));
 
-            } catch (Exception e) {
-                if (xslt == null) {
-                    // some more information about the error
-                    LOGGER.error("xslt = NULL, zoomFactor = "+
-                            zoomFactor +", svgZoomOut = "+ svgZoomOut
-                            +"\nsvgZoomOut.getTextContent() = "+ svgZoomOut.getTextContent()
-                            +"\nsvgZoomOut.getChildNodes().getLength() = "+ svgZoomOut.getChildNodes().getLength());
+                if (LOGGER.isDebugEnabled()) {
+                    printDom(doc);
                 }
-
+            } catch (Exception e) {
                 context.addError(e);
                 return null;
             }
         } else {
-            return new TranscoderInput(url.toString());
+            final SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+            doc = factory.createDocument(uri.toString(), new ByteArrayInputStream(svg));
         }
+        final TranscoderInput result = new TranscoderInput(doc);
+        result.setURI(uri.toString());
+        return result;
     }
 
     /**
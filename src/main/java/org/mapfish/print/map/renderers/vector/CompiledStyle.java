@@ -0,0 +1,404 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.renderers.vector;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
+import org.mapfish.print.InvalidValueException;
+import org.mapfish.print.PDFUtils;
+import org.mapfish.print.config.ColorWrapper;
+import org.mapfish.print.utils.PJsonObject;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.FontFactory;
+import com.itextpdf.text.pdf.BaseFont;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfGState;
+
+/**
+ * An OpenLayers style parsed once for all the features using it. The colors, dash
+ * arrays and fonts are resolved (and validated) only once and the features sharing
+ * a style share the same {@link PdfGState} instances, so iText writes only one
+ * ExtGState resource per style instead of one per feature.
+ * <p/>
+ * The sizes are kept as given in the spec: they are multiplied by the style
+ * factor of the rendering context when drawing.
+ */
+public final class CompiledStyle {
+    public static final Logger LOGGER = Logger.getLogger(CompiledStyle.class);
+
+    /**
+     * Used for the geometries without style.
+     */
+    public static final CompiledStyle DEFAULT = new CompiledStyle(null);
+
+    private final boolean hasStyle;
+    private final boolean displayed;
+    private final boolean stroke;
+    private final boolean fill;
+
+    private final BaseColor strokeColor;
+    private final float strokeWidth;
+    private final int lineCap;
+    private final int lineJoin;
+    /**
+     * The dash array is dashAbsolute[i] + dashWidthFactor[i] * strokeWidth. Null for a solid line.
+     */
+    private final float[] dashAbsolute;
+    private final float[] dashWidthFactor;
+    private final BaseColor fillColor;
+
+    private final PdfGState lineState;
+    private final PdfGState polygonState;
+    private final PdfGState graphicState;
+
+    private final float pointRadius;
+    private final String graphicName;
+    private final float graphicWidth;
+    private final float graphicHeight;
+    private final float graphicXOffset;
+    private final float graphicYOffset;
+    private final float rotation;
+    private final URI externalGraphic;
+
+    private final String label;
+    private final String labelAlign;
+    private final float labelXOffset;
+    private final float labelYOffset;
+    private final float labelRotation;
+    private final BaseColor fontColor;
+    private final BaseFont baseFont;
+    private final float fontSize;
+    private final BaseColor labelOutlineColor;
+    private final float labelOutlineWidth;
+
+    public CompiledStyle(PJsonObject style) {
+        hasStyle = style != null;
+        if (style == null) {
+            style = new PJsonObject(new JSONObject(), "style");
+        }
+        displayed = !style.optString("display", "yes").equalsIgnoreCase("none");
+        stroke = style.optBool("stroke", true);
+        fill = style.optBool("fill", true);
+
+        strokeColor = ColorWrapper.convertColor(style.optString("strokeColor"));
+        strokeWidth = style.optFloat("strokeWidth", 1);
+        lineCap = parseLineCap(style.optString("strokeLinecap"));
+        lineJoin = parseLineJoin(style.optString("strokeLinejoin"));
+        final float[][] dash = parseDash(style.optString("strokeDashstyle"));
+        dashAbsolute = dash == null ? null : dash[0];
+        dashWidthFactor = dash == null ? null : dash[1];
+        fillColor = ColorWrapper.convertColor(style.optString("fillColor"));
+
+        lineState = new PdfGState();
+        polygonState = new PdfGState();
+        if (style.optString("strokeOpacity") != null) {
+            lineState.setStrokeOpacity(style.getFloat("strokeOpacity"));
+            polygonState.setStrokeOpacity(style.getFloat("strokeOpacity"));
+        }
+        if (style.optString("fillOpacity") != null) {
+            polygonState.setFillOpacity(style.getFloat("fillOpacity"));
+        }
+        graphicState = new PdfGState();
+        final float graphicOpacity = style.optFloat("graphicOpacity", style.optFloat("fillOpacity", 1.0f));
+        graphicState.setFillOpacity(graphicOpacity);
+        graphicState.setStrokeOpacity(graphicOpacity);
+
+        pointRadius = style.optFloat("pointRadius", 4.0f);
+        graphicName = style.optString("graphicName");
+        graphicWidth = style.optFloat("graphicWidth", pointRadius * 2.0f);
+        graphicHeight = style.optFloat("graphicHeight", pointRadius * 2.0f);
+        graphicXOffset = style.optFloat("graphicXOffset", -graphicWidth / 2.0f);
+        graphicYOffset = style.optFloat("graphicYOffset", -graphicHeight / 2.0f);
+        rotation = style.optFloat("rotation", 0.0f);
+        final String externalGraphicTxt = style.optString("externalGraphic");
+        URI externalGraphicUri = null;
+        if (externalGraphicTxt != null && externalGraphicTxt.length() > 0) {
+            try {
+                externalGraphicUri = new URI(externalGraphicTxt);
+            } catch (URISyntaxException e) {
+                throw new InvalidValueException("externalGraphic", externalGraphicTxt, e);
+            }
+        }
+        externalGraphic = externalGraphicUri;
+
+        /*
+         * See Feature/Vector.js for more information about labels
+         */
+        final String labelTxt = style.optString("label");
+        if (labelTxt != null && labelTxt.length() > 0) {
+            label = labelTxt;
+            labelAlign = style.optString("labelAlign", "cm");
+            labelXOffset = style.optFloat("labelXOffset", (float) 0.0);
+            labelYOffset = style.optFloat("labelYOffset", (float) 0.0);
+            float labelRotationValue = style.optFloat("rotation", (float) 0.0);
+            if (labelRotationValue == 0.0f) {
+                labelRotationValue = style.optFloat("labelRotation", (float) 0.0);
+            }
+            labelRotation = labelRotationValue;
+            fontColor = ColorWrapper.convertColor(style.optString("fontColor", "#000000"));
+            /* Supported itext fonts: COURIER, HELVETICA, TIMES_ROMAN */
+            String fontFamily = style.optString("fontFamily", "HELVETICA");
+            final String font = style.optString("font");
+            final String fontEncoding = style.optString("fontEncoding");
+            if (font != null && !FontFactory.isRegistered(font)) {
+                LOGGER.info("Font: '" + font +
+                        "' not registered, one of the supported fonts from 'fontFamily' will be used");
+            } else if (!"COURIER".equalsIgnoreCase(fontFamily)
+                    && !"HELVETICA".equalsIgnoreCase(fontFamily)
+                    && !"TIMES_ROMAN".equalsIgnoreCase(fontFamily)) {
+                LOGGER.info("Font family: '" + fontFamily +
+                        "' not supported, supported ones are 'HELVETICA', " +
+                        "'COURIER', 'TIMES_ROMAN', defaults to 'HELVETICA'");
+                fontFamily = "HELVETICA";
+            }
+            final String fontSizeTxt = style.optString("fontSize", "12");
+            final String fontWeight = style.optString("fontWeight", "normal");
+            baseFont = PDFUtils.getBaseFont(font, fontEncoding, fontFamily, fontSizeTxt, fontWeight);
+            fontSize = (float) Double.parseDouble(fontSizeTxt.toLowerCase().replaceAll("px", ""));
+            labelOutlineColor = ColorWrapper.convertColor(style.optString("labelOutlineColor", null));
+            labelOutlineWidth = style.optFloat("labelOutlineWidth", 1);
+        } else {
+            label = null;
+            labelAlign = null;
+            labelXOffset = 0;
+            labelYOffset = 0;
+            labelRotation = 0;
+            fontColor = null;
+            baseFont = null;
+            fontSize = 0;
+            labelOutlineColor = null;
+            labelOutlineWidth = 0;
+        }
+    }
+
+    private static int parseLineCap(String linecap) {
+        if (linecap == null) {
+            return -1;
+        } else if (linecap.equalsIgnoreCase("butt")) {
+            return PdfContentByte.LINE_CAP_BUTT;
+        } else if (linecap.equalsIgnoreCase("round")) {
+            return PdfContentByte.LINE_CAP_ROUND;
+        } else if (linecap.equalsIgnoreCase("square")) {
+            return PdfContentByte.LINE_CAP_PROJECTING_SQUARE;
+        } else {
+            throw new InvalidValueException("strokeLinecap", linecap);
+        }
+    }
+
+    private static int parseLineJoin(String linejoin) {
+        if (linejoin == null) {
+            return -1;
+        } else if (linejoin.equalsIgnoreCase("bevel")) {
+            return PdfContentByte.LINE_JOIN_BEVEL;
+        } else if (linejoin.equalsIgnoreCase("miter")) {
+            return PdfContentByte.LINE_JOIN_MITER;
+        } else if (linejoin.equalsIgnoreCase("round")) {
+            return PdfContentByte.LINE_JOIN_ROUND;
+        } else {
+            throw new InvalidValueException("strokeLinejoin", linejoin);
+        }
+    }
+
+    /**
+     * @return {absolute parts, stroke width factors} or null for a solid line.
+     */
+    private static float[][] parseDash(String dashStyle) {
+        if (dashStyle == null || dashStyle.equalsIgnoreCase("solid")) {
+            return null;
+        } else if (dashStyle.equalsIgnoreCase("dot")) {
+            return new float[][]{{0.1f, 0}, {0, 2}};
+        } else if (dashStyle.equalsIgnoreCase("dash")) {
+            return new float[][]{{0, 0}, {2, 2}};
+        } else if (dashStyle.equalsIgnoreCase("dashdot")) {
+            return new float[][]{{0, 0, 0.1f, 0}, {3, 2, 0, 2}};
+        } else if (dashStyle.equalsIgnoreCase("longdash")) {
+            return new float[][]{{0, 0}, {4, 2}};
+        } else if (dashStyle.equalsIgnoreCase("longdashdot")) {
+            return new float[][]{{0, 0, 0.1f, 0}, {5, 2, 0, 2}};
+        } else if (dashStyle.contains(" ")) {
+            try {
+                String[] x = dashStyle.split(" ");
+                if (x.length > 1) {
+                    final float[] def = new float[x.length];
+                    for (int i = 0; i < x.length; i++) {
+                        def[i] = Float.parseFloat(x[i]);
+                    }
+                    return new float[][]{def, new float[def.length]};
+                }
+            } catch (NumberFormatException e) {
+                //assume solid!
+            }
+            return null;
+        } else {
+            throw new InvalidValueException("strokeDashstyle", dashStyle);
+        }
+    }
+
+    /**
+     * Set the stroke color, width, cap, join and dash array.
+     */
+    public void applyLineStyle(PdfContentByte dc, float styleFactor) {
+        if (!hasStyle) return;
+        if (strokeColor != null) {
+            dc.setColorStroke(strokeColor);
+        }
+        final float width = strokeWidth * styleFactor;
+        dc.setLineWidth(width);
+        if (lineCap >= 0) {
+            dc.setLineCap(lineCap);
+        }
+        if (lineJoin >= 0) {
+            dc.setLineJoin(lineJoin);
+        }
+        if (dashAbsolute != null) {
+            final float[] def = new float[dashAbsolute.length];
+            for (int i = 0; i < def.length; ++i) {
+                def[i] = dashAbsolute[i] + dashWidthFactor[i] * width;
+            }
+            dc.setLineDash(def, 0);
+        }
+    }
+
+    /**
+     * Set the line style and the fill color.
+     */
+    public void applyPolygonStyle(PdfContentByte dc, float styleFactor) {
+        if (!hasStyle) return;
+        applyLineStyle(dc, styleFactor);
+        if (fillColor != null) {
+            dc.setColorFill(fillColor);
+        }
+    }
+
+    public boolean isDisplayed() {
+        return displayed;
+    }
+
+    public boolean isStroke() {
+        return stroke;
+    }
+
+    public boolean isFill() {
+        return fill;
+    }
+
+    /**
+     * @return The graphic state of the lines (stroke opacity).
+     */
+    public PdfGState getLineState() {
+        return lineState;
+    }
+
+    /**
+     * @return The graphic state of the polygons, circles and symbols (stroke and fill opacities).
+     */
+    public PdfGState getPolygonState() {
+        return polygonState;
+    }
+
+    /**
+     * @return The graphic state of the external graphics (graphicOpacity).
+     */
+    public PdfGState getGraphicState() {
+        return graphicState;
+    }
+
+    public float getPointRadius() {
+        return pointRadius;
+    }
+
+    public String getGraphicName() {
+        return graphicName;
+    }
+
+    public float getGraphicWidth() {
+        return graphicWidth;
+    }
+
+    public float getGraphicHeight() {
+        return graphicHeight;
+    }
+
+    public float getGraphicXOffset() {
+        return graphicXOffset;
+    }
+
+    public float getGraphicYOffset() {
+        return graphicYOffset;
+    }
+
+    public float getRotation() {
+        return rotation;
+    }
+
+    /**
+     * @return The URI of the external graphic or null if there is none.
+     */
+    public URI getExternalGraphic() {
+        return externalGraphic;
+    }
+
+    /**
+     * @return The label or null if there is none.
+     */
+    public String getLabel() {
+        return label;
+    }
+
+    public String getLabelAlign() {
+        return labelAlign;
+    }
+
+    public float getLabelXOffset() {
+        return labelXOffset;
+    }
+
+    public float getLabelYOffset() {
+        return labelYOffset;
+    }
+
+    public float getLabelRotation() {
+        return labelRotation;
+    }
+
+    public BaseColor getFontColor() {
+        return fontColor;
+    }
+
+    public BaseFont getBaseFont() {
+        return baseFont;
+    }
+
+    public float getFontSize() {
+        return fontSize;
+    }
+
+    public BaseColor getLabelOutlineColor() {
+        return labelOutlineColor;
+    }
+
+    public float getLabelOutlineWidth() {
+        return labelOutlineWidth;
+    }
+}
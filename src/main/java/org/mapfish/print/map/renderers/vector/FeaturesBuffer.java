@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.renderers.vector;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.mapfish.geo.MfGeo;
+import org.mapfish.geo.MfGeometry;
+import org.mapfish.print.RenderingContext;
+
+import com.itextpdf.awt.geom.AffineTransform;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfGState;
+
+/**
+ * Content stream, not linked to any PDF writer, in which features can be rendered
+ * without holding the PDF lock. The result is then spliced in the real direct
+ * content with {@link #splice(PdfContentByte)}, in the same order.
+ * <p/>
+ * The operations needing the writer cannot be done here. The graphic states are
+ * recorded and set on the real content when spliced, and the features with a
+ * label or an external graphic (fonts and images are resources of the writer)
+ * are kept as is and rendered when spliced. The saveState/restoreState are
+ * replayed too, so that the real content keeps track of its state stack.
+ * <p/>
+ * Not thread safe: one instance per thread.
+ */
+public class FeaturesBuffer extends PdfContentByte {
+    private enum StateOperation {
+        SAVE, RESTORE
+    }
+
+    private final RenderingContext context;
+    private final AffineTransform affineTransform;
+
+    /**
+     * The byte[], PdfGState, StateOperation and MfGeo to replay, in order.
+     */
+    private final List<Object> segments = new ArrayList<Object>();
+
+    private int nbBuffered = 0;
+    private int nbDeferred = 0;
+
+    public FeaturesBuffer(RenderingContext context, AffineTransform affineTransform) {
+        super(null);
+        this.context = context;
+        this.affineTransform = affineTransform;
+    }
+
+    /**
+     * Render the features in the buffer.
+     */
+    public void render(Iterator<? extends MfGeo> features) {
+        while (features.hasNext()) {
+            render(features.next());
+        }
+        flush();
+    }
+
+    private void render(MfGeo feature) {
+        if (isSelfContained(feature)) {
+            FeaturesRenderer.render(context, this, feature, affineTransform);
+            nbBuffered++;
+        } else {
+            flush();
+            segments.add(feature);
+            nbDeferred++;
+        }
+    }
+
+    private static boolean isSelfContained(MfGeo feature) {
+        if (feature instanceof MfGeometry) {
+            return true;
+        } else if (feature instanceof StyledMfFeature) {
+            final CompiledStyle style = ((StyledMfFeature) feature).getCompiledStyle();
+            return style.getLabel() == null && style.getExternalGraphic() == null;
+        } else {
+            return false;
+        }
+    }
+
+    @Override
+    public void setGState(PdfGState gstate) {
+        flush();
+        segments.add(gstate);
+    }
+
+    @Override
+    public void saveState() {
+        flush();
+        super.saveState();
+        //the operator is written by the real content when spliced
+        content.reset();
+        segments.add(StateOperation.SAVE);
+    }
+
+    @Override
+    public void restoreState() {
+        flush();
+        super.restoreState();
+        //the operator is written by the real content when spliced
+        content.reset();
+        segments.add(StateOperation.RESTORE);
+    }
+
+    private void flush() {
+        if (content.size() > 0) {
+            segments.add(content.toByteArray());
+            content.reset();
+        }
+    }
+
+    /**
+     * Append what was rendered to the real content. The caller must hold the PDF lock.
+     */
+    public void splice(PdfContentByte dc) {
+        for (Object segment : segments) {
+            if (segment instanceof byte[]) {
+                dc.getInternalBuffer().append((byte[]) segment);
+            } else if (segment instanceof PdfGState) {
+                dc.setGState((PdfGState) segment);
+            } else if (segment == StateOperation.SAVE) {
+                dc.saveState();
+            } else if (segment == StateOperation.RESTORE) {
+                dc.restoreState();
+            } else {
+                FeaturesRenderer.render(context, dc, (MfGeo) segment, affineTransform);
+            }
+        }
+        segments.clear();
+    }
+
+    /**
+     * @return The number of features rendered in the buffer.
+     */
+    public int getNbBuffered() {
+        return nbBuffered;
+    }
+
+    /**
+     * @return The number of features left to be rendered when spliced.
+     */
+    public int getNbDeferred() {
+        return nbDeferred;
+    }
+}
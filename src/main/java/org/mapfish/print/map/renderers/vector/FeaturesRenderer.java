@@ -20,6 +20,7 @@
 package org.mapfish.print.map.renderers.vector;
 
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import org.mapfish.geo.MfFeature;
@@ -53,13 +54,23 @@ public abstract class FeaturesRenderer<T extends MfGeo> {
         renderer.renderImpl(context, dc, geo, affineTransform);
     }
 
+    /**
+     * Render the features as they come from the iterator (see {@link org.mapfish.geo.MfGeoJSONReader#decodeFeatures}),
+     * without needing the whole collection in memory.
+     */
+    public static void render(RenderingContext context, PdfContentByte dc, Iterator<? extends MfGeo> geos, AffineTransform affineTransform) {
+        while (geos.hasNext()) {
+            render(context, dc, geos.next(), affineTransform);
+        }
+    }
+
     protected abstract void renderImpl(RenderingContext context, PdfContentByte dc, T geo, AffineTransform affineTransform);
 
     private static class FeatureRenderer extends FeaturesRenderer<StyledMfFeature> {
         protected void renderImpl(RenderingContext context, PdfContentByte dc, StyledMfFeature geo, AffineTransform affineTransform) {
             final MfGeometry theGeom = geo.getMfGeometry();
             if (theGeom != null && geo.isDisplayed()) {
-                GeometriesRenderer.render(context, dc, geo.getStyle(), theGeom.getInternalGeometry(), affineTransform);
+                GeometriesRenderer.render(context, dc, geo.getCompiledStyle(), theGeom.getInternalGeometry(), affineTransform);
             }
         }
     }
@@ -74,7 +85,7 @@ public abstract class FeaturesRenderer<T extends MfGeo> {
 
     private static class GeometryRenderer extends FeaturesRenderer<MfGeometry> {
         protected void renderImpl(RenderingContext context, PdfContentByte dc, MfGeometry geo, AffineTransform affineTransform) {
-            GeometriesRenderer.render(context, dc, null, geo.getInternalGeometry(), affineTransform);
+            GeometriesRenderer.render(context, dc, CompiledStyle.DEFAULT, geo.getInternalGeometry(), affineTransform);
         }
     }
 }
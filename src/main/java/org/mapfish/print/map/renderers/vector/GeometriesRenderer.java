@@ -23,6 +23,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.GeometryCollection;
 import org.locationtech.jts.geom.LineString;
@@ -33,10 +34,8 @@ import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.Point;
 import org.locationtech.jts.geom.Polygon;
 import org.mapfish.print.RenderingContext;
-import org.mapfish.print.utils.PJsonObject;
 
 import com.itextpdf.awt.geom.AffineTransform;
-import com.itextpdf.awt.geom.Point2D;
 import com.itextpdf.text.pdf.PdfContentByte;
 
 /**
@@ -57,8 +56,18 @@ public abstract class GeometriesRenderer<T extends Geometry> {
         RENDERERS.put(Point.class, new PointRenderer());
     }
 
+    /**
+     * Buffer for the bulk transformation of the coordinates (x1, y1, x2, y2, ...).
+     */
+    private static final ThreadLocal<double[]> BUFFER = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[2 * 1024];
+        }
+    };
+
     @SuppressWarnings({"unchecked"})
-    protected static void render(RenderingContext context, PdfContentByte dc, PJsonObject style, Geometry geometry, AffineTransform affineTransform) {
+    protected static void render(RenderingContext context, PdfContentByte dc, CompiledStyle style, Geometry geometry, AffineTransform affineTransform) {
         @SuppressWarnings("rawtypes")
         GeometriesRenderer renderer = RENDERERS.get(geometry.getClass());
         if (renderer == null) {
@@ -78,10 +87,10 @@ public abstract class GeometriesRenderer<T extends Geometry> {
         }
     }
 
-    protected abstract void renderImpl(RenderingContext context, PdfContentByte dc, PJsonObject style, T geometry, AffineTransform affineTransform);
+    protected abstract void renderImpl(RenderingContext context, PdfContentByte dc, CompiledStyle style, T geometry, AffineTransform affineTransform);
 
     private static class GeometryCollectionRenderer extends GeometriesRenderer<GeometryCollection> {
-        protected void renderImpl(RenderingContext context, PdfContentByte dc, PJsonObject style, GeometryCollection geometry, AffineTransform affineTransform) {
+        protected void renderImpl(RenderingContext context, PdfContentByte dc, CompiledStyle style, GeometryCollection geometry, AffineTransform affineTransform) {
             for (int i = 0; i < geometry.getNumGeometries(); ++i) {
                 render(context, dc, style, geometry.getGeometryN(i), affineTransform);
             }
@@ -89,9 +98,35 @@ public abstract class GeometriesRenderer<T extends Geometry> {
     }
 
     protected static Coordinate transformCoordinate(Coordinate coordinate, AffineTransform affineTransform) {
-        Point2D point2D = new Point2D.Double(coordinate.x, coordinate.y);
-        affineTransform.transform(point2D, point2D);
-        coordinate.setCoordinate(new Coordinate(point2D.getX(), point2D.getY()));
+        final double[] point = {coordinate.x, coordinate.y};
+        affineTransform.transform(point, 0, point, 0, 1);
+        coordinate.x = point[0];
+        coordinate.y = point[1];
         return coordinate;
     }
+
+    /**
+     * Add the first nbPoints of the sequence to the current path, transformed
+     * by chunks in a per-thread buffer (no object allocated per point).
+     */
+    public static void addPath(PdfContentByte dc, CoordinateSequence sequence, int nbPoints, AffineTransform affineTransform) {
+        final double[] buffer = BUFFER.get();
+        final int chunkSize = buffer.length / 2;
+        for (int start = 0; start < nbPoints; start += chunkSize) {
+            final int count = Math.min(chunkSize, nbPoints - start);
+            for (int i = 0; i < count; ++i) {
+                buffer[2 * i] = sequence.getX(start + i);
+                buffer[2 * i + 1] = sequence.getY(start + i);
+            }
+            affineTransform.transform(buffer, 0, buffer, 0, count);
+            int i = 0;
+            if (start == 0) {
+                dc.moveTo((float) buffer[0], (float) buffer[1]);
+                i = 1;
+            }
+            for (; i < count; ++i) {
+                dc.lineTo((float) buffer[2 * i], (float) buffer[2 * i + 1]);
+            }
+        }
+    }
 }
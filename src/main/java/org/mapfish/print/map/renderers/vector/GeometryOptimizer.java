@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.renderers.vector;
+
+import org.apache.log4j.Logger;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Geometry;
+import org.locationtech.jts.geom.MultiPoint;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.simplify.DouglasPeuckerSimplifier;
+import org.mapfish.geo.MfGeo;
+import org.mapfish.geo.MfGeometry;
+import org.mapfish.print.Transformer;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Pre-render stage of the vector layers: drops the features that are outside of
+ * the map and simplifies the geometries having details smaller than what can be
+ * printed.
+ */
+public class GeometryOptimizer {
+    public static final Logger LOGGER = Logger.getLogger(GeometryOptimizer.class);
+
+    /**
+     * Margin around the map, in inches on the paper, to keep the features having
+     * their symbol, stroke or label visible while their geometry is outside.
+     */
+    private static final double MARGIN_INCHES = 1.0;
+
+    /**
+     * Fraction of a pixel (at the print's DPI) under which details are removed.
+     */
+    private static final double TOLERANCE_PIXELS = 0.5;
+
+    /**
+     * Geometries with less points are not simplified.
+     */
+    private static final int MIN_POINTS_TO_SIMPLIFY = 10;
+
+    private final Envelope extent;
+    private final double tolerance;
+
+    private int nbCulled = 0;
+    private int nbPointsRemoved = 0;
+
+    public GeometryOptimizer(Envelope extent, double tolerance) {
+        this.extent = extent;
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Create an optimizer for the map of the given transformer.
+     */
+    public static GeometryOptimizer create(Transformer transformer) {
+        final double margin = transformer.getGeoW() / transformer.getPaperW() * 72.0 * MARGIN_INCHES;
+        final Envelope extent = new Envelope(
+                transformer.getRotatedMinGeoX() - margin, transformer.getRotatedMaxGeoX() + margin,
+                transformer.getRotatedMinGeoY() - margin, transformer.getRotatedMaxGeoY() + margin);
+        return new GeometryOptimizer(extent, transformer.getResolution() * TOLERANCE_PIXELS);
+    }
+
+    /**
+     * @return The optimized feature or null if it's not visible.
+     */
+    public MfGeo optimize(MfGeo geo) {
+        if (geo instanceof StyledMfFeature) {
+            final StyledMfFeature feature = (StyledMfFeature) geo;
+            final MfGeometry geometry = feature.getMfGeometry();
+            if (geometry == null || geometry.getInternalGeometry() == null) {
+                return feature;
+            }
+            final Geometry optimized = optimize(geometry.getInternalGeometry());
+            if (optimized == null) {
+                return null;
+            } else if (optimized == geometry.getInternalGeometry()) {
+                return feature;
+            }
+            return new StyledMfFeature(feature.getFeatureId(), new MfGeometry(optimized), feature.getStyle());
+        } else if (geo instanceof MfGeometry && ((MfGeometry) geo).getInternalGeometry() != null) {
+            final Geometry geometry = ((MfGeometry) geo).getInternalGeometry();
+            final Geometry optimized = optimize(geometry);
+            if (optimized == null) {
+                return null;
+            }
+            return optimized == geometry ? geo : new MfGeometry(optimized);
+        }
+        return geo;
+    }
+
+    /**
+     * @return The simplified geometry, the same one if nothing can be removed or
+     *         null if it's not visible.
+     */
+    protected Geometry optimize(Geometry geometry) {
+        if (!extent.intersects(geometry.getEnvelopeInternal())) {
+            nbCulled++;
+            return null;
+        }
+        if (tolerance <= 0.0 || geometry instanceof Point || geometry instanceof MultiPoint ||
+                geometry.getNumPoints() < MIN_POINTS_TO_SIMPLIFY) {
+            return geometry;
+        }
+        final DouglasPeuckerSimplifier simplifier = new DouglasPeuckerSimplifier(geometry);
+        simplifier.setDistanceTolerance(tolerance);
+        //we only draw it, no need to spend time fixing its topology
+        simplifier.setEnsureValid(false);
+        final Geometry result = simplifier.getResultGeometry();
+        if (result.isEmpty()) {
+            //smaller than a pixel, but the user wants to see something
+            return geometry;
+        }
+        nbPointsRemoved += geometry.getNumPoints() - result.getNumPoints();
+        return result;
+    }
+
+    /**
+     * Filter the features returned by the given iterator.
+     */
+    public Iterator<MfGeo> optimize(final Iterator<? extends MfGeo> features) {
+        return new Iterator<MfGeo>() {
+            private MfGeo next = null;
+
+            public boolean hasNext() {
+                while (next == null && features.hasNext()) {
+                    next = optimize(features.next());
+                }
+                return next != null;
+            }
+
+            public MfGeo next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                final MfGeo result = next;
+                next = null;
+                return result;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    public int getNbCulled() {
+        return nbCulled;
+    }
+
+    public int getNbPointsRemoved() {
+        return nbPointsRemoved;
+    }
+}
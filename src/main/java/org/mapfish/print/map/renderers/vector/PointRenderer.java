@@ -19,8 +19,6 @@
 
 package org.mapfish.print.map.renderers.vector;
 
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,14 +27,12 @@ import org.locationtech.jts.geom.Point;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
-import org.mapfish.print.utils.PJsonObject;
 
 import com.itextpdf.awt.geom.AffineTransform;
 import com.itextpdf.text.BadElementException;
 import com.itextpdf.text.DocumentException;
 import com.itextpdf.text.Image;
 import com.itextpdf.text.pdf.PdfContentByte;
-import com.itextpdf.text.pdf.PdfGState;
 
 /**
  * Render point geometries. Support for the 3 OL stylings:
@@ -107,26 +103,21 @@ public class PointRenderer extends GeometriesRenderer<Point> {
         }
         return symbol;
     }
-    protected void renderImpl(RenderingContext context, PdfContentByte dc, PJsonObject style, Point geometry, AffineTransform affineTransform) {
-        PdfGState state = new PdfGState();
+    protected void renderImpl(RenderingContext context, PdfContentByte dc, CompiledStyle style, Point geometry, AffineTransform affineTransform) {
         final Coordinate coordinate = transformCoordinate((Coordinate) geometry.getCoordinate().clone(), affineTransform);
-        float pointRadius = style.optFloat("pointRadius", 4.0f);
         final float f = context.getStyleFactor();
 
-        String graphicName = style.optString("graphicName");
-        float width = style.optFloat("graphicWidth", pointRadius * 2.0f);
-        float height = style.optFloat("graphicHeight", pointRadius * 2.0f);
-        float offsetX = style.optFloat("graphicXOffset", -width / 2.0f);
-        float offsetY = style.optFloat("graphicYOffset", -height / 2.0f);
-        float rotation =  style.optFloat("rotation", 0.0f);
+        String graphicName = style.getGraphicName();
+        float width = style.getGraphicWidth();
+        float height = style.getGraphicHeight();
+        float offsetX = style.getGraphicXOffset();
+        float offsetY = style.getGraphicYOffset();
+        float rotation = style.getRotation();
 
-        if ((style.optString("externalGraphic") != null ) && (style.optString("externalGraphic").length() > 0)) {
-            float opacity = style.optFloat("graphicOpacity", style.optFloat("fillOpacity", 1.0f));
-            state.setFillOpacity(opacity);
-            state.setStrokeOpacity(opacity);
-            dc.setGState(state);
+        if (style.getExternalGraphic() != null) {
+            dc.setGState(style.getGraphicState());
             try {
-                Image image = PDFUtils.createImage(context, width * f, height * f, new URI(style.getString("externalGraphic")), 0.0f);
+                Image image = PDFUtils.createImage(context, width * f, height * f, style.getExternalGraphic(), 0.0f);
                 image.setRotationDegrees(-rotation);
                 // fix for height: because the coordinate system is mirrored, we need to move the image by height, and then subtract the offset
                 float rotationOffsetX = (image.getScaledWidth() - image.getPlainWidth())/2.0f;
@@ -135,22 +126,21 @@ public class PointRenderer extends GeometriesRenderer<Point> {
                 dc.addImage(image);
             } catch (BadElementException e) {
                 context.addError(e);
-            } catch (URISyntaxException e) {
-                context.addError(e);
             } catch (DocumentException e) {
                 context.addError(e);
             }
 
         } else if (graphicName != null && !graphicName.equalsIgnoreCase("circle")) {
-            PolygonRenderer.applyStyle(context, dc, style, state);
-            float[] symbol = SYMBOLS.get(graphicName).clone();
+            style.applyPolygonStyle(dc, f);
+            float[] symbol = SYMBOLS.get(graphicName);
             if (symbol == null) {
                 throw new InvalidValueException("graphicName", graphicName);
             }
+            symbol = symbol.clone();
             if (rotation != 0){
                 symbol = rotateSymbol(symbol, -rotation);
             }
-            dc.setGState(state);
+            dc.setGState(style.getPolygonState());
             dc.moveTo((float) coordinate.x + symbol[0] * width * f + offsetX * f, (float) coordinate.y + symbol[1] * height * f + offsetY * f);
             for (int i = 2; i < symbol.length - 2; i += 2) {
                 dc.lineTo((float) coordinate.x + symbol[i] * width * f + offsetX * f, (float) coordinate.y + symbol[i + 1] * height * f + offsetY * f);
@@ -158,11 +148,11 @@ public class PointRenderer extends GeometriesRenderer<Point> {
             dc.closePath();
             dc.fillStroke();
         } else {
-            PolygonRenderer.applyStyle(context, dc, style, state);
-            dc.setGState(state);
+            style.applyPolygonStyle(dc, f);
+            dc.setGState(style.getPolygonState());
 
-            dc.circle((float) coordinate.x, (float) coordinate.y, pointRadius * f);
-            renderStrokeAndFill(dc, style.optBool("stroke", true), style.optBool("fill", true));
+            dc.circle((float) coordinate.x, (float) coordinate.y, style.getPointRadius() * f);
+            renderStrokeAndFill(dc, style.isStroke(), style.isFill());
         }
     }
 
@@ -19,54 +19,32 @@
 
 package org.mapfish.print.map.renderers.vector;
 
-import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.CoordinateSequence;
 import org.locationtech.jts.geom.LineString;
 import org.locationtech.jts.geom.Polygon;
 import org.mapfish.print.RenderingContext;
-import org.mapfish.print.config.ColorWrapper;
-import org.mapfish.print.utils.PJsonObject;
 
 import com.itextpdf.awt.geom.AffineTransform;
 import com.itextpdf.text.pdf.PdfContentByte;
-import com.itextpdf.text.pdf.PdfGState;
 
 class PolygonRenderer extends GeometriesRenderer<Polygon> {
-    protected static void applyStyle(RenderingContext context, PdfContentByte dc, PJsonObject style, PdfGState state) {
-        if (style == null) return;
-        LineStringRenderer.applyStyle(context, dc, style, state);
-
-        if (style.optString("fillColor") != null) {
-            dc.setColorFill(ColorWrapper.convertColor(style.getString("fillColor")));
-        }
-        if (style.optString("fillOpacity") != null) {
-            state.setFillOpacity(style.getFloat("fillOpacity"));
-        }
-    }
-
-    protected void renderImpl(RenderingContext context, PdfContentByte dc, PJsonObject style, Polygon geometry, AffineTransform affineTransform) {
-        PdfGState state = new PdfGState();
-        applyStyle(context, dc, style, state);
-        dc.setGState(state);
+    protected void renderImpl(RenderingContext context, PdfContentByte dc, CompiledStyle style, Polygon geometry, AffineTransform affineTransform) {
+        style.applyPolygonStyle(dc, context.getStyleFactor());
+        dc.setGState(style.getPolygonState());
 
         final LineString ring = geometry.getExteriorRing();
         renderRing(dc, ring, affineTransform);
         for (int i = 0; i < geometry.getNumInteriorRing(); ++i) {
             renderRing(dc, geometry.getInteriorRingN(i), affineTransform);
         }
-        renderStrokeAndFill(dc, style.optBool("stroke", true), style.optBool("fill", true));
+        renderStrokeAndFill(dc, style.isStroke(), style.isFill());
     }
 
     private void renderRing(PdfContentByte dc, LineString ring, AffineTransform affineTransform) {
-        Coordinate[] coords = ring.getCoordinates();
-        if (coords.length < 3) return;
-        Coordinate coord = (Coordinate) coords[0].clone();
-        transformCoordinate(coord, affineTransform);
-        dc.moveTo((float) coord.x, (float) coord.y);
-        for (int i = 1; i < coords.length - 1; i++) {
-            coord = (Coordinate) coords[i].clone();
-            transformCoordinate(coord, affineTransform);
-            dc.lineTo((float) coord.x, (float) coord.y);
-        }
+        final CoordinateSequence coords = ring.getCoordinateSequence();
+        if (coords.size() < 3) return;
+        //the last point is the same as the first one
+        addPath(dc, coords, coords.size() - 1, affineTransform);
         dc.closePath();
     }
 
@@ -32,11 +32,17 @@ public class StyledMfFeature extends MfFeature {
     private final String id;
     private final MfGeometry geometry;
     private PJsonObject style;
+    private final CompiledStyle compiledStyle;
 
     public StyledMfFeature(String id, MfGeometry geometry, PJsonObject style) {
+        this(id, geometry, style, style == null ? CompiledStyle.DEFAULT : new CompiledStyle(style));
+    }
+
+    public StyledMfFeature(String id, MfGeometry geometry, PJsonObject style, CompiledStyle compiledStyle) {
         this.id = id;
         this.geometry = geometry;
         this.style = style;
+        this.compiledStyle = compiledStyle;
     }
 
     public String getFeatureId() {
@@ -55,7 +61,14 @@ public class StyledMfFeature extends MfFeature {
         return style;
     }
 
+    /**
+     * @return The style, parsed once for all the features using it.
+     */
+    public CompiledStyle getCompiledStyle() {
+        return compiledStyle;
+    }
+
     public boolean isDisplayed() {
-        return style==null || !style.optString("display", "yes").equalsIgnoreCase("none");
+        return compiledStyle.isDisplayed();
     }
 }
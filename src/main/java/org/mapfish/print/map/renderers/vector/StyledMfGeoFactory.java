@@ -19,6 +19,9 @@
 
 package org.mapfish.print.map.renderers.vector;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 import org.json.JSONObject;
 import org.mapfish.geo.MfFeature;
 import org.mapfish.geo.MfGeoFactory;
@@ -35,6 +38,12 @@ public class StyledMfGeoFactory extends MfGeoFactory {
     private PJsonObject styles;
     private String styleProperty;
 
+    /**
+     * The named styles already parsed. Most features refer to one of a few styles,
+     * so they are compiled only once per layer.
+     */
+    private final ConcurrentMap<String, CompiledStyle> compiledStyles = new ConcurrentHashMap<String, CompiledStyle>();
+
     public StyledMfGeoFactory(PJsonObject styles, String styleProperty) {
         this.styles = styles;
         this.styleProperty = styleProperty;
@@ -42,17 +51,27 @@ public class StyledMfGeoFactory extends MfGeoFactory {
 
     public MfFeature createFeature(String id, MfGeometry geometry, JSONObject properties) {
         PJsonObject style = null;
+        CompiledStyle compiledStyle = CompiledStyle.DEFAULT;
         if (styles != null) {
             JSONObject direct = properties.optJSONObject(styleProperty);
             if (direct != null) {
                 style = new PJsonObject(direct, "feature.properties." + styleProperty);
+                compiledStyle = new CompiledStyle(style);
             } else {
                 final String styleName = properties.optString(styleProperty);
                 if (styleName != null) {
                     style = styles.getJSONObject(styleName);
+                    compiledStyle = compiledStyles.get(styleName);
+                    if (compiledStyle == null) {
+                        compiledStyle = new CompiledStyle(style);
+                        final CompiledStyle previous = compiledStyles.putIfAbsent(styleName, compiledStyle);
+                        if (previous != null) {
+                            compiledStyle = previous;
+                        }
+                    }
                 }
             }
         }
-        return new StyledMfFeature(id, geometry, style);
+        return new StyledMfFeature(id, geometry, style, compiledStyle);
     }
 }
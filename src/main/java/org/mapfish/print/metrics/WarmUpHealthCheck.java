@@ -0,0 +1,46 @@
+/*
+ * Copyright (C) 2014  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.metrics;
+
+import com.codahale.metrics.health.HealthCheck;
+import org.mapfish.print.WarmUp;
+
+/**
+ * Unhealthy while the print module is warming up, so that the load balancers can wait
+ * before sending prints to a node that was just started.
+ */
+public final class WarmUpHealthCheck extends HealthCheck {
+    public static final String NAME = "warmUp";
+
+    private final WarmUp warmUp;
+
+    public WarmUpHealthCheck(final WarmUp warmUp) {
+        this.warmUp = warmUp;
+    }
+
+    @Override
+    protected Result check() throws Exception {
+        if (this.warmUp.isReady()) {
+            return Result.healthy();
+        } else {
+            return Result.unhealthy("Warming up, " + this.warmUp.getPending() + " task(s) left");
+        }
+    }
+}
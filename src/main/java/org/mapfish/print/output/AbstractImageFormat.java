@@ -20,6 +20,7 @@
 package org.mapfish.print.output;
 
 
+import com.itextpdf.text.DocumentException;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.utils.PJsonArray;
 import org.mapfish.print.utils.PJsonObject;
@@ -38,6 +39,18 @@ abstract class AbstractImageFormat extends AbstractOutputFormat implements Outpu
         this.format = format;
     }
 
+    /**
+     * Render the map directly with Java2D if the spec asks for it (see {@link DirectMapImageRenderer}).
+     *
+     * @return null if the normal rendering must be used.
+     */
+    protected RenderingContext printMapDirectly(PrintParams params) throws DocumentException {
+        if (!DirectMapImageRenderer.isApplicable(params)) {
+            return null;
+        }
+        return new DirectMapImageRenderer(format).render(params);
+    }
+
     public String getContentType() {
 
         return "image/" + format;
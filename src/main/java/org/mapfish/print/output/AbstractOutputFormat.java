@@ -26,13 +26,17 @@ public abstract class AbstractOutputFormat implements OutputFormat {
             writer.setPdfVersion(PdfWriter.PDF_VERSION_1_5);
             writer.setCompressionLevel(PdfStream.BEST_COMPRESSION);
         }
-        RenderingContext context = new RenderingContext(doc, writer, params.config, params.jsonSpec, params.configDir.getPath(), layout, params.headers);
+        RenderingContext context = new RenderingContext(doc, writer, params.config, params.jsonSpec, params.configDir.getPath(), layout, params.headers, params.progress);
 
-        layout.render(params.jsonSpec, context);
+        try {
+            layout.render(params.jsonSpec, context);
 
-        doc.close();
-        writer.close();
-        context.getCustomBlocks().closeReaders();
+            doc.close();
+            writer.close();
+            context.getCustomBlocks().closeReaders();
+        } finally {
+            context.close();
+        }
 
         return context;
     }
@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import com.google.common.io.ByteStreams;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.DocumentException;
+import com.itextpdf.text.pdf.PdfContentByte;
+import com.itextpdf.text.pdf.PdfWriter;
+import org.mapfish.print.Constants;
+import org.mapfish.print.InvalidJsonValueException;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.Transformer;
+import org.mapfish.print.config.layout.Layout;
+import org.mapfish.print.config.layout.MapBlock;
+import org.mapfish.print.map.MapChunkDrawer;
+import org.mapfish.print.map.MapTileTask;
+import org.mapfish.print.map.ParallelMapTileLoader;
+import org.mapfish.print.map.readers.MapReader;
+import org.mapfish.print.utils.PJsonArray;
+import org.mapfish.print.utils.PJsonObject;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Renders the map of a single page spec directly with Java2D, without going
+ * through a PDF file that would have to be parsed and rasterized again.
+ * <p/>
+ * Used for the image outputs when the spec has "mapOnly: true". Only the map
+ * block is rendered (no title, legend, ...) and only the tiles that support it
+ * (see {@link MapTileTask#supportsGraphics()}) can be rendered. The other specs
+ * are rejected.
+ */
+class DirectMapImageRenderer {
+    private final String format;
+
+    public DirectMapImageRenderer(String format) {
+        this.format = format;
+    }
+
+    /**
+     * @return True if the spec asks for a map only image.
+     * @throws InvalidJsonValueException if it does but the spec has more than one map.
+     */
+    public static boolean isApplicable(PrintParams params) {
+        final PJsonObject spec = params.jsonSpec;
+        if (!spec.optBool("mapOnly", false)) {
+            return false;
+        }
+        final PJsonArray pages = spec.optJSONArray("pages");
+        if (spec.optJSONObject("maps") != null || pages == null || pages.size() != 1) {
+            throw new InvalidJsonValueException(spec, "mapOnly", "true (only possible with a single page and map)");
+        }
+        return true;
+    }
+
+    /**
+     * @return The context used for rendering.
+     * @throws InvalidJsonValueException if the map cannot be rendered directly (nothing
+     * has been written to the output).
+     */
+    public RenderingContext render(PrintParams params) throws DocumentException {
+        final String layoutName = params.jsonSpec.getString(Constants.JSON_LAYOUT_KEY);
+        final Layout layout = params.config.getLayout(layoutName);
+        if (layout == null) {
+            throw new RuntimeException("Unknown layout '" + layoutName + "'");
+        }
+        final MapBlock mapBlock = layout.getMainPage() != null ? layout.getMainPage().getMap(null) : null;
+        if (mapBlock == null) {
+            throw new InvalidJsonValueException(params.jsonSpec, "mapOnly", "true (the layout has no map)");
+        }
+
+        //the readers need a context, but nothing will be written in this PDF
+        final Document doc = new Document();
+        final PdfWriter writer = PdfWriter.getInstance(doc, ByteStreams.nullOutputStream());
+        final RenderingContext context = new RenderingContext(doc, writer, params.config, params.jsonSpec,
+                params.configDir.getPath(), layout, params.headers, params.progress);
+        final PJsonObject pageParams = params.jsonSpec.getJSONArray("pages").getJSONObject(0);
+        context.setCurrentPageParams(pageParams);
+
+        final Transformer transformer = mapBlock.createTransformer(context, pageParams);
+        transformer.setMapPos(0, 0);
+        final float pixelsPerPoint = transformer.getDpi() / 72f;
+        final int width = Math.round(transformer.getPaperW() * pixelsPerPoint);
+        final int height = Math.round(transformer.getPaperH() * pixelsPerPoint);
+        if (width <= 0 || height <= 0) {
+            throw new InvalidJsonValueException(params.jsonSpec, "mapOnly", "true (the map is empty)");
+        }
+
+        final List<MapTileTask> tasks = createTasks(params, context, transformer);
+
+        final boolean opaque = !supportsAlpha();
+        final BufferedImage image = new BufferedImage(width, height,
+                opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            if (opaque) {
+                graphics.setColor(Color.WHITE);
+                graphics.fillRect(0, 0, width, height);
+            }
+
+            //same coordinates as in the PDF: points with the Y axis going up
+            graphics.translate(0, height);
+            graphics.scale(pixelsPerPoint, -pixelsPerPoint);
+            graphics.clip(new Rectangle2D.Float(0, 0, transformer.getPaperW(), transformer.getPaperH()));
+
+            final ParallelMapTileLoader loader = new ParallelMapTileLoader(context, graphics);
+            for (MapTileTask task : tasks) {
+                loader.addTileToLoad(task);
+            }
+            loader.waitForCompletion();
+        } finally {
+            graphics.dispose();
+        }
+
+        try {
+            if (!ImageIO.write(image, format, params.outputStream)) {
+                throw new IOException("No image writer for " + format);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return context;
+    }
+
+    /**
+     * Ask the readers for their tiles, without loading them, and check they can all
+     * be rendered with Java2D.
+     */
+    private static List<MapTileTask> createTasks(PrintParams params, RenderingContext context, Transformer transformer) {
+        final PJsonArray layers = params.jsonSpec.getJSONArray("layers");
+        final String srs = params.jsonSpec.getString("srs");
+        final List<MapReader> readers = MapChunkDrawer.createReaders(context, transformer, layers, false);
+        final TaskCollector collector = new TaskCollector(context);
+        for (int i = 0; i < readers.size(); i++) {
+            final MapReader reader = readers.get(i);
+            final int nbTasks = collector.tasks.size();
+            reader.render(transformer, collector, srs, i == 0);
+            for (MapTileTask task : collector.tasks.subList(nbTasks, collector.tasks.size())) {
+                if (!task.supportsGraphics()) {
+                    throw new InvalidJsonValueException(params.jsonSpec, "mapOnly",
+                            "true (" + reader + " can only be rendered in a PDF)");
+                }
+            }
+        }
+        return collector.tasks;
+    }
+
+    /**
+     * Loader that only collects the tiles the readers ask for.
+     */
+    private static class TaskCollector extends ParallelMapTileLoader {
+        private final List<MapTileTask> tasks = new ArrayList<MapTileTask>();
+
+        public TaskCollector(RenderingContext context) {
+            super(context, (PdfContentByte) null, null);
+        }
+
+        @Override
+        public void addTileToLoad(MapTileTask task) {
+            tasks.add(task);
+        }
+
+        @Override
+        public boolean isDirectRaster() {
+            return true;
+        }
+
+        @Override
+        public void waitForCompletion() {
+            //nothing is loaded
+        }
+    }
+
+    private boolean supportsAlpha() {
+        final String lower = format.toLowerCase();
+        return !(lower.equals("jpg") || lower.equals("jpeg") || lower.equals("bmp") || lower.equals("wbmp"));
+    }
+}
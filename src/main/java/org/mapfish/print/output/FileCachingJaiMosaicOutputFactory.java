@@ -74,6 +74,11 @@ public class FileCachingJaiMosaicOutputFactory extends InMemoryJaiMosaicOutputFa
         }
 
         public RenderingContext print(PrintParams params) throws DocumentException {
+            final RenderingContext directContext = printMapDirectly(params);
+            if (directContext != null) {
+                return directContext;
+            }
+
             File tmpFile = null;
             try {
                 tmpFile = File.createTempFile("mapfishprint", ".pdf");
@@ -22,21 +22,11 @@ package org.mapfish.print.output;
 import com.itextpdf.text.DocumentException;
 import org.apache.log4j.Logger;
 import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.pdmodel.PDPage;
-import org.apache.pdfbox.rendering.ImageType;
-import org.apache.pdfbox.rendering.PDFRenderer;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.utils.PJsonObject;
 
 import javax.imageio.ImageIO;
-import javax.media.jai.JAI;
-import javax.media.jai.RenderedOp;
-import javax.media.jai.TileCache;
 import javax.media.jai.operator.MosaicDescriptor;
-import java.awt.*;
-import java.awt.image.BufferedImage;
-import java.awt.image.RenderedImage;
-import java.awt.image.renderable.ParameterBlock;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
@@ -46,10 +36,11 @@ import java.util.Arrays;
 import java.util.List;
 
 /**
- * An output factory that uses pdf box to parse the pdf and create a collection of BufferedImages.
+ * An output factory that uses pdf box to parse the pdf and render its pages in a virtual image
+ * ({@link PdfBandedImage}) that is written to a file using ImageIO.
  *
- * Then using JAI Mosaic operation the buffered images are combined into one RenderableImage (virtual image)
- * and that is written to a file using ImageIO
+ * The pages are rendered by horizontal bands, while the image is encoded, so the whole image
+ * is never in memory.
  *
  * User: jeichar
  * Date: Oct 18, 2010
@@ -94,6 +85,11 @@ public class InMemoryJaiMosaicOutputFactory implements OutputFormatFactory {
         }
 
         public RenderingContext print(PrintParams params) throws DocumentException {
+            final RenderingContext directContext = printMapDirectly(params);
+            if (directContext != null) {
+                return directContext;
+            }
+
             File tmpFile = null;
             try {
                 tmpFile = File.createTempFile("mapfishprint", ".pdf");
@@ -105,8 +101,7 @@ public class InMemoryJaiMosaicOutputFactory implements OutputFormatFactory {
                     tmpOut.close();
                 }
 
-                List<BufferedImage> images = createImages(params.jsonSpec, tmpFile, context);
-                drawImage(params.outputStream, images);
+                drawImage(params.outputStream, tmpFile, params.jsonSpec, context);
 
                 return context;
             } catch (IOException e) {
@@ -121,50 +116,19 @@ public class InMemoryJaiMosaicOutputFactory implements OutputFormatFactory {
             }
         }
 
-        private void drawImage(OutputStream out, List<? extends RenderedImage> images) throws IOException {
-
-            ParameterBlock pbMosaic = new ParameterBlock();
-            float height = 0;
-            float width = 0;
-
-            int i = 0;
-            for (RenderedImage source : images) {
-                i++;
-                LOGGER.debug("Adding page image " + i + " bounds: [" + 0 + "," + height + " " + source.getWidth() + "," + (height + source.getHeight()) + "]");
-                ParameterBlock pbTranslate = new ParameterBlock();
-                pbTranslate.addSource(source);
-                pbTranslate.add(0f);
-                pbTranslate.add(height);
-                RenderedOp translated = JAI.create("translate", pbTranslate);
-
-                pbMosaic.addSource(translated);
-
-                height += source.getHeight() + MARGIN;
-                if (width < source.getWidth()) width = source.getWidth();
-            }
-
-            TileCache cache = JAI.createTileCache((long) (height * width * 400));
-            RenderingHints hints = new RenderingHints(JAI.KEY_TILE_CACHE, cache);
-
-            RenderedOp mosaic = JAI.create("mosaic", pbMosaic, hints);
-            ImageIO.write(mosaic, format, out);
-        }
-
-        private List<BufferedImage> createImages(PJsonObject jsonSpec, File tmpFile, RenderingContext context) throws IOException {
-            List<BufferedImage> images = new ArrayList<BufferedImage>();
+        /**
+         * Render the pages one band at a time, while the image writer is encoding them.
+         */
+        private void drawImage(OutputStream out, File tmpFile, PJsonObject jsonSpec, RenderingContext context) throws IOException {
             PDDocument pdf = PDDocument.load(tmpFile);
             try {
-                @SuppressWarnings("unchecked")
-                PDFRenderer pdfRenderer = new PDFRenderer(pdf);
-                for (PDPage page : pdf.getPages())
-                {
-                    BufferedImage img = pdfRenderer.renderImageWithDPI(images.size(), calculateDPI(context, jsonSpec), ImageType.ARGB);
-                    images.add(img);
-                }
+                final PdfBandedImage image = PdfBandedImage.create(pdf, calculateDPI(context, jsonSpec), (int) MARGIN);
+                LOGGER.debug("Writing " + pdf.getNumberOfPages() + " pages as a " + image.getWidth() + "x" + image.getHeight() +
+                             " image by bands of " + image.getTileHeight() + " rows");
+                ImageIO.write(image, format, out);
             } finally {
                 pdf.close();
             }
-            return images;
         }
     }
 }
@@ -149,6 +149,11 @@ public class NativeProcessOutputFactory implements OutputFormatFactory {
 
         @Override
         public RenderingContext print(PrintParams params) throws DocumentException, InterruptedException {
+            final RenderingContext directContext = printMapDirectly(params);
+            if (directContext != null) {
+                return directContext;
+            }
+
             // Hack to correct the transparency
             {
                 PJsonArray layers = params.jsonSpec.getJSONArray("layers");
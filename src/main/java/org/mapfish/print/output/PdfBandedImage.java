@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.PDFRenderer;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.io.IOException;
+
+/**
+ * A virtual image made of all the pages of a PDF document, one below the other,
+ * rendered on demand by horizontal bands.
+ * <p/>
+ * The image writers (ImageIO) read the image band after band (or row after row), so
+ * only one band is kept in memory at a time. A page is rendered once and kept
+ * while its bands are read, unless it is bigger than {@link #MAX_PAGE_PIXELS}: it
+ * is then rendered again for each band, with a clip limited to the band's rows. The
+ * peak memory usage depends on those limits and not on the size of the document.
+ */
+class PdfBandedImage extends PlanarImage {
+    /**
+     * Max number of pixels in a band (4 bytes each).
+     */
+    private static final int MAX_BAND_PIXELS = 4 * 1024 * 1024;
+
+    /**
+     * Max number of pixels in a page for keeping it rendered (4 bytes each).
+     */
+    private static final int MAX_PAGE_PIXELS = 16 * 1024 * 1024;
+
+    private final PDFRenderer renderer;
+    private final float scale;
+
+    /**
+     * Position and size of each page in the image, in pixels.
+     */
+    private final int[] pageTops;
+    private final int[] pageHeights;
+
+    /**
+     * The last band rendered. Protected by this.
+     */
+    private int cachedBand = -1;
+    private Raster cachedRaster = null;
+
+    /**
+     * The page being read, when it is not too big. Protected by this.
+     */
+    private int cachedPage = -1;
+    private BufferedImage cachedPageImage = null;
+
+    private PdfBandedImage(ImageLayout layout, PDFRenderer renderer, float scale, int[] pageTops, int[] pageHeights) {
+        super(layout, null, null);
+        this.renderer = renderer;
+        this.scale = scale;
+        this.pageTops = pageTops;
+        this.pageHeights = pageHeights;
+    }
+
+    /**
+     * @param pdf    The document, must be kept open while the image is used.
+     * @param dpi    The resolution to render the pages with.
+     * @param margin The space in pixels between two pages.
+     */
+    public static PdfBandedImage create(PDDocument pdf, int dpi, int margin) {
+        final float scale = dpi / 72f;
+        final int nbPages = pdf.getNumberOfPages();
+        final int[] pageTops = new int[nbPages];
+        final int[] pageHeights = new int[nbPages];
+        int width = 1;
+        int height = 0;
+        for (int i = 0; i < nbPages; ++i) {
+            final PDPage page = pdf.getPage(i);
+            final PDRectangle cropBox = page.getCropBox();
+            final boolean rotated = page.getRotation() == 90 || page.getRotation() == 270;
+            final int pageWidth = Math.round((rotated ? cropBox.getHeight() : cropBox.getWidth()) * scale);
+            final int pageHeight = Math.round((rotated ? cropBox.getWidth() : cropBox.getHeight()) * scale);
+            if (i > 0) {
+                height += margin;
+            }
+            pageTops[i] = height;
+            pageHeights[i] = pageHeight;
+            height += pageHeight;
+            width = Math.max(width, pageWidth);
+        }
+        height = Math.max(height, 1);
+
+        final int bandHeight = Math.max(1, Math.min(height, MAX_BAND_PIXELS / width));
+        final ColorModel colorModel = ColorModel.getRGBdefault();
+        final ImageLayout layout = new ImageLayout(0, 0, width, height, 0, 0, width, bandHeight,
+                colorModel.createCompatibleSampleModel(width, bandHeight), colorModel);
+        return new PdfBandedImage(layout, new PDFRenderer(pdf), scale, pageTops, pageHeights);
+    }
+
+    @Override
+    public synchronized Raster getTile(int tileX, int tileY) {
+        if (tileX != 0 || tileY < 0 || tileY >= getNumYTiles()) {
+            return null;
+        }
+        if (tileY != cachedBand) {
+            cachedRaster = null;  //let the GC reclaim the previous band
+            cachedRaster = renderBand(tileY);
+            cachedBand = tileY;
+        }
+        return cachedRaster;
+    }
+
+    private Raster renderBand(int band) {
+        final int top = band * getTileHeight();
+        final int bottom = top + getTileHeight();
+        final BufferedImage image = new BufferedImage(getWidth(), getTileHeight(), BufferedImage.TYPE_INT_ARGB);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            for (int i = 0; i < pageTops.length; ++i) {
+                if (pageTops[i] < bottom && pageTops[i] + pageHeights[i] > top) {
+                    if ((long) getWidth() * pageHeights[i] <= MAX_PAGE_PIXELS) {
+                        graphics.drawImage(getPageImage(i), 0, pageTops[i] - top, null);
+                    } else {
+                        final Graphics2D pageGraphics = (Graphics2D) graphics.create();
+                        try {
+                            pageGraphics.translate(0, pageTops[i] - top);
+                            pageGraphics.clipRect(0, 0, getWidth(), pageHeights[i]);
+                            pageGraphics.clipRect(0, top - pageTops[i], getWidth(), getTileHeight());
+                            renderPage(i, pageGraphics);
+                        } finally {
+                            pageGraphics.dispose();
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Cannot render page band " + band, e);
+        } finally {
+            graphics.dispose();
+        }
+
+        if (cachedPage >= 0 && pageTops[cachedPage] + pageHeights[cachedPage] <= bottom) {
+            //the following bands don't need it
+            cachedPage = -1;
+            cachedPageImage = null;
+        }
+        return image.getRaster().createTranslatedChild(0, top);
+    }
+
+    private BufferedImage getPageImage(int page) throws IOException {
+        if (page != cachedPage) {
+            cachedPageImage = null;  //let the GC reclaim the previous page
+            final BufferedImage pageImage = new BufferedImage(getWidth(), pageHeights[page], BufferedImage.TYPE_INT_ARGB);
+            final Graphics2D graphics = pageImage.createGraphics();
+            try {
+                renderPage(page, graphics);
+            } finally {
+                graphics.dispose();
+            }
+            cachedPageImage = pageImage;
+            cachedPage = page;
+        }
+        return cachedPageImage;
+    }
+
+    private void renderPage(int page, Graphics2D graphics) throws IOException {
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        renderer.renderPageToGraphics(page, graphics, scale);
+    }
+}
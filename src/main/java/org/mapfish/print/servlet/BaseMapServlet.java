@@ -19,10 +19,13 @@
 
 package org.mapfish.print.servlet;
 
-import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.log4j.Logger;
 import org.mapfish.print.MapPrinter;
 import org.mapfish.print.ShellMapPrinter;
+import org.mapfish.print.ThreadResources;
+import org.mapfish.print.WarmUp;
+import org.mapfish.print.config.Config;
 import org.springframework.context.ApplicationContext;
 import org.springframework.context.support.ClassPathXmlApplicationContext;
 import org.springframework.context.support.FileSystemXmlApplicationContext;
@@ -31,20 +34,42 @@ import org.springframework.web.context.support.WebApplicationContextUtils;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 
 /**
  * Base class for MapPrinter servlets (deals with the configuration loading)
+ * <p/>
+ * The printers are looked up without locking. The configuration files are watched by
+ * a background thread that loads the modified ones and swaps the new printer in. The
+ * requests that got the old printer keep using it until they are done.
  */
 public abstract class BaseMapServlet extends HttpServlet {
     private static final long serialVersionUID = -6342262849725708850L;
 
     public static final Logger LOGGER = Logger.getLogger(BaseMapServlet.class);
 
-    private final Map<String, MapPrinter> printers = Maps.newHashMap();
-    private final Map<String,Long> lastModifieds = Maps.newHashMap();
+    /**
+     * How often the configuration files are checked for modifications, in seconds.
+     */
+    private static final long RELOAD_CHECK_PERIOD = 2;
+
+    /**
+     * The loaded printers, by canonical path of their configuration file.
+     */
+    private final ConcurrentMap<String, PrinterHolder> printers = new ConcurrentHashMap<String, PrinterHolder>();
+
+    /**
+     * The configuration files, by app name as received in the requests.
+     */
+    private final ConcurrentMap<String, File> configFiles = new ConcurrentHashMap<String, File>();
+
+    private transient volatile ScheduledExecutorService reloader;
 
     private volatile ApplicationContext context;
 
@@ -57,97 +82,196 @@ public abstract class BaseMapServlet extends HttpServlet {
      * </ul>
      * <p/>
      * If the location is a relative path, it's taken from the servlet's root directory.
+     * <p/>
+     * The returned printer is started, the caller must stop it when done.
      */
-    protected synchronized MapPrinter getMapPrinter(String app) throws ServletException {
+    protected MapPrinter getMapPrinter(String app) throws ServletException {
         String configPath = System.getProperty("mapfish-print-config", getInitParameter("config"));
         if (configPath == null) {
             throw new ServletException("Missing configuration in web.xml 'web-app/servlet/init-param[param-name=config]' or 'web-app/context-param[param-name=config]'");
         }
-        //String debugPath = "";
 
         if (app == null) {
-            LOGGER.info("app is null, setting it as default configPath: " + configPath);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("app is null, setting it as default configPath: " + configPath);
+            }
             app = configPath;
         }
 
-        if (!app.toLowerCase().endsWith(".yaml")) {
-            app = app + ".yaml";
+        final File configFile = getConfigFile(app);
+        final String key;
+        try {
+            key = configFile.getCanonicalPath();
+        } catch (IOException e) {
+            throw new ServletException(e);
+        }
+
+        while (true) {
+            PrinterHolder holder = printers.get(key);
+            final Config config = holder != null ? holder.printer.getConfig() : null;
+            if (config == null || config.getReloadConfig()) {
+                holder = load(key, configFile, configPath, holder);
+            }
+            final MapPrinter printer = holder.printer;
+            printer.start();
+            if (printer.isRunning()) {
+                return printer;
+            }
+            //replaced and stopped between the lookup and the start, take the new one
+            printer.stop();
+        }
+    }
+
+    /**
+     * When the warm-up is enabled, load the default configuration right away instead
+     * of on the first request, so that its layouts are warmed up too.
+     */
+    protected void warmUpDefaultPrinter() {
+        final WarmUp warmUp = getApplicationContext().getBean(ThreadResources.class).getWarmUp();
+        if (warmUp == null) {
+            return;
+        }
+        try {
+            getMapPrinter(null).stop();
+        } catch (ServletException e) {
+            LOGGER.warn("Cannot load the default configuration for the warm-up", e);
+        } finally {
+            warmUp.setScheduled();
+        }
+    }
+
+    /**
+     * Find where the configuration file of the given app is. The result is remembered.
+     */
+    private File getConfigFile(String app) {
+        File configFile = configFiles.get(app);
+        if (configFile != null) {
+            return configFile;
         }
 
-        File configFile = new File(app);
+        String fileName = app;
+        if (!fileName.toLowerCase().endsWith(".yaml")) {
+            fileName = fileName + ".yaml";
+        }
+
+        configFile = new File(fileName);
 
         if (!configFile.isAbsolute() || !configFile.exists()) {
 
-            LOGGER.info("Attempting to locate app config file: '" + app + " in the webapplication.");
-            String realPath = getServletContext().getRealPath(app);
+            LOGGER.info("Attempting to locate app config file: '" + fileName + " in the webapplication.");
+            String realPath = getServletContext().getRealPath(fileName);
 
             if (realPath != null) {
                 configFile = new File(realPath);
             } else {
                 LOGGER.info("Unable to find config file in web application using getRealPath.  Adding a / because that is often dropped");
-                realPath = getServletContext().getRealPath("/" + app);
+                realPath = getServletContext().getRealPath("/" + fileName);
                 configFile = new File(realPath);
             }
         }
+        if (configFile.exists()) {
+            //don't remember the files that are not there (yet)
+            configFiles.put(app, configFile);
+        }
+        return configFile;
+    }
 
-        LOGGER.info("Loading app from: " + configFile);
-        MapPrinter printer;
-        final String configFileCanonicalPath;
+    /**
+     * Load the printer on the request thread, when there is none yet or when the
+     * configuration asks to be reloaded for every request (reloadConfig).
+     */
+    private synchronized PrinterHolder load(String key, File configFile, String configPath, PrinterHolder previous) throws ServletException {
+        final PrinterHolder current = printers.get(key);
+        if (current != previous) {
+            //loaded by another thread in the mean time
+            return current;
+        }
+        LOGGER.info("Loading configuration file: " + configFile.getAbsolutePath());
+        final PrinterHolder holder;
         try {
-            configFileCanonicalPath = configFile.getCanonicalPath();
-            printer = printers.get(configFileCanonicalPath);
-        } catch (IOException e) {
-            throw new ServletException(e);
+            holder = createHolder(configFile);
+        } catch (FileNotFoundException e) {
+            throw new ServletException("Cannot read configuration file: " + configPath, e);
+        } catch (Throwable e) {
+            LOGGER.error("Error occurred while reading configuration file", e);
+            throw new ServletException("Error occurred while reading configuration file '" + configFile + "': " + e );
         }
+        swap(key, previous, holder);
+        startReloader();
+        return holder;
+    }
+
+    private PrinterHolder createHolder(File configFile) throws FileNotFoundException {
+        final long lastModified = configFile.lastModified();
+        final MapPrinter printer = getApplicationContext().getBean(MapPrinter.class).setYamlConfigFile(configFile);
+        //the usage of the registry, released when the printer is replaced
+        printer.start();
+        return new PrinterHolder(printer, configFile, lastModified);
+    }
 
-        final long lastModified;
-        if (lastModifieds.containsKey(app)) {
-            lastModified = lastModifieds.get(app);
-        } else {
-            lastModified = 0L;
+    /**
+     * Replace the printer atomically. The previous one is closed once the prints
+     * using it are done.
+     */
+    private boolean swap(String key, PrinterHolder previous, PrinterHolder holder) {
+        final boolean swapped = previous == null ? printers.putIfAbsent(key, holder) == null : printers.replace(key, previous, holder);
+        if (swapped) {
+            if (previous != null && previous.printer != holder.printer) {
+                previous.printer.stop();
+            }
+        } else if (holder.printer != (previous != null ? previous.printer : null)) {
+            holder.printer.stop();
         }
+        return swapped;
+    }
 
-        boolean forceReload = false;
-        if (printer != null && (!printer.isRunning() || printer.getConfig().getReloadConfig())) {
-            forceReload = true;
+    private synchronized void startReloader() {
+        if (reloader == null) {
+            reloader = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("configReloader-%d").build());
+            reloader.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    checkModifiedConfigs();
+                }
+            }, RELOAD_CHECK_PERIOD, RELOAD_CHECK_PERIOD, TimeUnit.SECONDS);
         }
+    }
 
-        if (forceReload || (printer != null && (configFile.lastModified() != lastModified || !printer.isRunning()))) {
-            //file modified, reload it
-            if (!forceReload) {
-                LOGGER.info("Configuration file modified. Reloading...");
+    /**
+     * Reload the configuration files that were modified, in the background. If the new
+     * configuration is invalid, the previous one is kept.
+     */
+    private void checkModifiedConfigs() {
+        for (String key : printers.keySet()) {
+            final PrinterHolder holder = printers.get(key);
+            if (holder == null || holder.configFile.lastModified() == holder.lastModified) {
+                continue;
             }
+            LOGGER.info("Configuration file modified. Reloading " + holder.configFile);
             try {
-                printer.stop();
-
-                //debugPath += "printer stopped, setting NULL\n";
-            } catch (NullPointerException npe) {
-                LOGGER.info("BaseMapServlet.java: printer was not stopped. This happens when a switch between applications happens.\n"+ npe);
+                swap(key, holder, createHolder(holder.configFile));
+                LOGGER.info("Printer for " + holder.configFile + " reloaded");
+            } catch (Throwable e) {
+                LOGGER.error("Error occurred while reloading configuration file '" + holder.configFile + "', keeping the previous one", e);
+                //don't try again until the file is modified again
+                swap(key, holder, new PrinterHolder(holder.printer, holder.configFile, holder.configFile.lastModified()));
             }
-
-            printer = null;
-            LOGGER.info("Printer for "+ app +" stopped");
-            printers.put(configFileCanonicalPath, null);
         }
+    }
 
-        if (printer == null) {
-            //debugPath += "printer == null, lastModified from configFile = "+lastModified+"\n";
-            try {
-                LOGGER.info("Loading configuration file: " + configFile.getAbsolutePath());
-                printer = getApplicationContext().getBean(MapPrinter.class).setYamlConfigFile(configFile);
-                printers.put(configFileCanonicalPath, printer);
-                lastModifieds.put(app,  configFile.lastModified());
-            } catch (FileNotFoundException e) {
-                throw new ServletException("Cannot read configuration file: " + configPath, e);
-            } catch (Throwable e) {
-                LOGGER.error("Error occurred while reading configuration file", e);
-                throw new ServletException("Error occurred while reading configuration file '" + configFile + "': " + e );
+    @Override
+    public void destroy() {
+        synchronized (this) {
+            if (reloader != null) {
+                reloader.shutdownNow();
+                reloader = null;
             }
         }
-        if (printer != null) {
-            printer.start();
+        for (PrinterHolder holder : printers.values()) {
+            holder.printer.stop();
         }
-        return printer;
+        printers.clear();
+        super.destroy();
     }
 
     private ApplicationContext getApplicationContext() {
@@ -169,4 +293,19 @@ public abstract class BaseMapServlet extends HttpServlet {
         return this.context;
     }
 
+    /**
+     * A loaded printer with the modification time of its configuration file at the
+     * time it was loaded. Immutable.
+     */
+    private static final class PrinterHolder {
+        private final MapPrinter printer;
+        private final File configFile;
+        private final long lastModified;
+
+        private PrinterHolder(MapPrinter printer, File configFile, long lastModified) {
+            this.printer = printer;
+            this.configFile = configFile;
+            this.lastModified = lastModified;
+        }
+    }
 }
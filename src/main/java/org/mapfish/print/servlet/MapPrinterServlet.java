@@ -22,15 +22,16 @@ package org.mapfish.print.servlet;
 import com.google.common.io.CharStreams;
 import com.google.common.io.Closer;
 import org.apache.log4j.Logger;
-import org.pvalsecc.misc.FileUtilities;
 import org.mapfish.print.utils.PJsonObject;
 import org.mapfish.print.output.OutputFormat;
 import org.mapfish.print.MapPrinter;
+import org.mapfish.print.PrintProgress;
 import org.mapfish.print.Constants;
 import org.json.JSONWriter;
 
 import org.json.JSONException;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
@@ -40,6 +41,9 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -48,6 +52,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -69,6 +75,10 @@ public class MapPrinterServlet extends BaseMapServlet {
     private static final String INFO_URL = "/info.json";
     private static final String PRINT_URL = "/print.pdf";
     private static final String CREATE_URL = "/create.json";
+    private static final String SUBMIT_URL = "/submit.json";
+    private static final String STATUS_URL = "/status/";
+    private static final String CANCEL_URL = "/cancel/";
+    private static final String JOB_URL_SUFFIX = ".json";
     protected static final String TEMP_FILE_PREFIX = "mapfish-print";
     private static final String TEMP_FILE_SUFFIX = ".printout";
 
@@ -76,8 +86,15 @@ public class MapPrinterServlet extends BaseMapServlet {
 
     private static final int TEMP_FILE_PURGE_SECONDS = 10 * 60;
 
+    /**
+     * Size of the buffer between the PDF writer and the servlet response when
+     * streaming the print.
+     */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
     private File tempDir = null;
     private String encoding = null;
+    private Boolean streamOutput = null;
     /**
      * Tells if a thread is alread purging the old temporary files or not.
      */
@@ -86,6 +103,10 @@ public class MapPrinterServlet extends BaseMapServlet {
      * Map of temporary files.
      */
     private final Map<String, TempFile> tempFiles = new HashMap<String, TempFile>();
+    /**
+     * The asynchronous print jobs (submit.json).
+     */
+    private final PrintJobManager printJobs = new PrintJobManager();
 
     protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws ServletException, IOException {
         //do the routing in function of the actual URL
@@ -98,6 +119,10 @@ public class MapPrinterServlet extends BaseMapServlet {
             createAndGetPDF(httpServletRequest, httpServletResponse);
         } else if (additionalPath.equals(INFO_URL)) {
             getInfo(httpServletRequest, httpServletResponse, getBaseUrl(httpServletRequest));
+        } else if (additionalPath.startsWith(STATUS_URL) && additionalPath.endsWith(JOB_URL_SUFFIX)) {
+            getJobStatus(httpServletResponse, getJobId(additionalPath, STATUS_URL), getBaseUrl(httpServletRequest));
+        } else if (additionalPath.startsWith(CANCEL_URL) && additionalPath.endsWith(JOB_URL_SUFFIX)) {
+            cancelJob(httpServletResponse, getJobId(additionalPath, CANCEL_URL), getBaseUrl(httpServletRequest));
         } else if (additionalPath.startsWith("/") && additionalPath.endsWith(TEMP_FILE_SUFFIX)) {
             getFile(httpServletRequest, httpServletResponse, additionalPath.substring(1, additionalPath.length() - TEMP_FILE_SUFFIX.length()));
         } else {
@@ -111,6 +136,10 @@ public class MapPrinterServlet extends BaseMapServlet {
             createAndGetPDF(httpServletRequest, httpServletResponse);
         } else if (additionalPath.equals(CREATE_URL)) {
             createPDF(httpServletRequest, httpServletResponse, getBaseUrl(httpServletRequest));
+        } else if (additionalPath.equals(SUBMIT_URL)) {
+            submitJob(httpServletRequest, httpServletResponse, getBaseUrl(httpServletRequest));
+        } else if (additionalPath.startsWith(CANCEL_URL) && additionalPath.endsWith(JOB_URL_SUFFIX)) {
+            cancelJob(httpServletResponse, getJobId(additionalPath, CANCEL_URL), getBaseUrl(httpServletRequest));
         } else {
             error(httpServletResponse, "Unknown method: " + additionalPath, 404);
         }
@@ -123,9 +152,11 @@ public class MapPrinterServlet extends BaseMapServlet {
         for (File file : files) {
             deleteFile(file);
         }
+        warmUpDefaultPrinter();
     }
 
     public void destroy() {
+        printJobs.shutdown();
         synchronized (tempFiles) {
             for (File file : tempFiles.values()) {
                 deleteFile(file);
@@ -163,9 +194,15 @@ public class MapPrinterServlet extends BaseMapServlet {
             return;
         }
 
+        final boolean inline = Boolean.parseBoolean(httpServletRequest.getParameter("inline"));
+        if (isStreamOutput()) {
+            doStreamPDF(spec, httpServletRequest, httpServletResponse, inline);
+            return;
+        }
+
         try {
             tempFile = doCreatePDFFile(spec, httpServletRequest);
-            sendPdfFile(httpServletResponse, tempFile, Boolean.parseBoolean(httpServletRequest.getParameter("inline")));
+            sendPdfFile(httpServletResponse, tempFile, inline);
         } catch (Throwable e) {
             error(httpServletResponse, e);
         } finally {
@@ -173,6 +210,74 @@ public class MapPrinterServlet extends BaseMapServlet {
         }
     }
 
+    /**
+     * Create the PDF and write it directly to the client, without temporary file.
+     * The size of the document is not known in advance, so the response uses a
+     * chunked transfer encoding.
+     * <p/>
+     * If an error happens once the first bytes are sent, it's too late to return
+     * an error status. The error is logged and the client gets a truncated file.
+     */
+    protected void doStreamPDF(String spec, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, boolean inline) {
+        MapPrinter mapPrinter = null;
+        OutputStream out = null;
+        try {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Streaming PDF for spec=" + spec);
+            }
+            if (SPEC_LOGGER.isInfoEnabled()) {
+                SPEC_LOGGER.info(spec);
+            }
+
+            PJsonObject specJson = MapPrinter.parseSpec(spec);
+            app = specJson.optString("app", null);
+            mapPrinter = getMapPrinter(app);
+            final Map<String, String> headers = getHeadersToForward(mapPrinter, httpServletRequest);
+
+            final OutputFormat outputFormat = mapPrinter.getOutputFormat(specJson);
+            httpServletResponse.setContentType(outputFormat.getContentType());
+            if (!inline) {
+                final String fileName = TempFile.getOutputFileName(mapPrinter, specJson, outputFormat.getFileSuffix(), TEMP_FILE_PREFIX);
+                httpServletResponse.setHeader("Content-disposition", "attachment; filename=" + fileName);
+            }
+
+            out = new BufferedOutputStream(httpServletResponse.getOutputStream(), STREAM_BUFFER_SIZE);
+            mapPrinter.print(specJson, out, headers);
+            out.close();
+            out = null;
+        } catch (Throwable e) {
+            if (!httpServletResponse.isCommitted()) {
+                httpServletResponse.reset();
+                out = null;
+                error(httpServletResponse, e);
+            } else {
+                LOGGER.error("Error while streaming PDF, the client got a truncated file", e);
+            }
+        } finally {
+            if (mapPrinter != null) {
+                mapPrinter.stop();
+            }
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot close the response stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells if the print.pdf command streams its result directly to the client
+     * instead of using a temporary file (init-param "streamOutput").
+     */
+    protected boolean isStreamOutput() {
+        if (streamOutput == null) {
+            streamOutput = Boolean.valueOf(getInitParameter("streamOutput"));
+        }
+        return streamOutput;
+    }
+
     /**
      * Create the PDF and returns to the client (in JSON) the URL to get the PDF.
      */
@@ -218,6 +323,134 @@ public class MapPrinterServlet extends BaseMapServlet {
         addTempFile(tempFile, id);
     }
 
+    /**
+     * Queue the print and returns to the client (in JSON) the URLs to get its status
+     * and its result. Answers with a 503 if too many jobs are already waiting.
+     */
+    protected void submitJob(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, String basePath) throws ServletException {
+        final PrintJob job;
+        try {
+            purgeOldTemporaryFiles();
+
+            final String spec = getSpecFromPostBody(httpServletRequest);
+            if (spec == null || spec.trim().isEmpty()) {
+                error(httpServletResponse, "Missing 'spec' parameter", 500);
+                return;
+            }
+            if (SPEC_LOGGER.isInfoEnabled()) {
+                SPEC_LOGGER.info(spec);
+            }
+            final PJsonObject specJson = MapPrinter.parseSpec(spec);
+            final String jobApp = specJson.optString("app", null);
+
+            MapPrinter mapPrinter = getMapPrinter(jobApp);
+            final Map<String, String> headers;
+            final int maxRunning;
+            final int maxQueued;
+            try {
+                headers = getHeadersToForward(mapPrinter, httpServletRequest);
+                maxRunning = mapPrinter.getConfig().getMaxRunningPrintJobs();
+                maxQueued = mapPrinter.getConfig().getMaxQueuedPrintJobs();
+            } finally {
+                mapPrinter.stop();
+            }
+
+            job = new PrintJob(UUID.randomUUID().toString()) {
+                @Override
+                protected void print(PrintProgress progress) throws Exception {
+                    MapPrinter jobPrinter = getMapPrinter(jobApp);
+                    try {
+                        final TempFile tempFile = printToTempFile(jobPrinter, specJson, headers, progress);
+                        addTempFile(tempFile, getId());
+                    } finally {
+                        jobPrinter.stop();
+                    }
+                }
+            };
+
+            try {
+                printJobs.submit(job, maxRunning, maxQueued);
+            } catch (RejectedExecutionException e) {
+                httpServletResponse.setHeader("Retry-After", "10");
+                error(httpServletResponse, "Too many print jobs, try again later", 503);
+                return;
+            }
+        } catch (Throwable e) {
+            error(httpServletResponse, e);
+            return;
+        }
+
+        writeJobStatus(httpServletResponse, job, basePath);
+    }
+
+    /**
+     * Returns to the client (in JSON) the status of a print job.
+     */
+    protected void getJobStatus(HttpServletResponse httpServletResponse, String id, String basePath) throws ServletException {
+        final PrintJob job = printJobs.get(id);
+        if (job == null) {
+            error(httpServletResponse, "Print job with id=" + id + " unknown", 404);
+            return;
+        }
+        writeJobStatus(httpServletResponse, job, basePath);
+    }
+
+    /**
+     * Cancel a print job and returns its status to the client.
+     */
+    protected void cancelJob(HttpServletResponse httpServletResponse, String id, String basePath) throws ServletException {
+        final PrintJob job = printJobs.get(id);
+        if (job == null) {
+            error(httpServletResponse, "Print job with id=" + id + " unknown", 404);
+            return;
+        }
+        job.cancel();
+        writeJobStatus(httpServletResponse, job, basePath);
+    }
+
+    private void writeJobStatus(HttpServletResponse httpServletResponse, PrintJob job, String basePath) throws ServletException {
+        final PrintJob.State state = job.getState();
+        final PrintProgress progress = job.getProgress();
+        httpServletResponse.setContentType("application/json; charset=utf-8");
+        PrintWriter writer = null;
+        try {
+            writer = httpServletResponse.getWriter();
+            JSONWriter json = new JSONWriter(writer);
+            json.object();
+            {
+                json.key("ref").value(job.getId());
+                json.key("status").value(state.name().toLowerCase());
+                json.key("progress").value(state == PrintJob.State.DONE ? 1.0 : progress.getProgress());
+                json.key("pages").value(progress.getNbPages());
+                json.key("pagesDone").value(progress.getPagesDone());
+                json.key("tiles").value(progress.getNbTiles());
+                json.key("tilesDone").value(progress.getTilesDone());
+                json.key("statusURL").value(basePath + STATUS_URL + job.getId() + JOB_URL_SUFFIX);
+                if (state == PrintJob.State.DONE) {
+                    json.key("getURL").value(basePath + "/" + job.getId() + TEMP_FILE_SUFFIX);
+                } else if (!state.isFinished()) {
+                    json.key("cancelURL").value(basePath + CANCEL_URL + job.getId() + JOB_URL_SUFFIX);
+                }
+                if (job.getError() != null) {
+                    json.key("error").value(job.getError());
+                }
+            }
+            json.endObject();
+        } catch (JSONException e) {
+            throw new ServletException(e);
+        } catch (IOException e) {
+            throw new ServletException(e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+    }
+
+    private String getJobId(String additionalPath, String prefix) {
+        return additionalPath.substring(prefix.length(), additionalPath.length() - JOB_URL_SUFFIX.length());
+    }
+
     protected void addTempFile(TempFile tempFile, String id) {
         synchronized (tempFiles) {
             tempFiles.put(id, tempFile);
@@ -346,64 +579,83 @@ public class MapPrinterServlet extends BaseMapServlet {
 
         MapPrinter mapPrinter = getMapPrinter(app);
         try {
-            Map<String, String> headers = new HashMap<String, String>();
-            TreeSet<String> configHeaders = mapPrinter.getConfig().getHeaders();
-            if (configHeaders == null) {
-                configHeaders = new TreeSet<String>();
-                configHeaders.add("Referer");
-                configHeaders.add("Cookie");
-            }
-            for (Iterator<String> header_iter = configHeaders.iterator(); header_iter.hasNext();) {
-                String header = header_iter.next();
-                if (httpServletRequest.getHeader(header) != null) {
-                    headers.put(header, httpServletRequest.getHeader(header));
-                }
+            final Map<String, String> headers = getHeadersToForward(mapPrinter, httpServletRequest);
+            return printToTempFile(mapPrinter, specJson, headers, new PrintProgress());
+        } finally {
+            if (mapPrinter != null) {
+                mapPrinter.stop();
             }
+        }
+    }
 
-            final OutputFormat outputFormat = mapPrinter.getOutputFormat(specJson);
-            // create a temporary file that will contain the PDF
-            final File tempJavaFile = File.createTempFile(TEMP_FILE_PREFIX,
-                    "." + outputFormat.getFileSuffix() + TEMP_FILE_SUFFIX, getTempDir());
-            TempFile tempFile = new TempFile(tempJavaFile, specJson, outputFormat);
+    /**
+     * Print the spec in a new temporary file.
+     */
+    protected TempFile printToTempFile(MapPrinter mapPrinter, PJsonObject specJson, Map<String, String> headers,
+                                       PrintProgress progress) throws IOException, DocumentException, InterruptedException {
+        final OutputFormat outputFormat = mapPrinter.getOutputFormat(specJson);
+        // create a temporary file that will contain the PDF
+        final File tempJavaFile = File.createTempFile(TEMP_FILE_PREFIX,
+                "." + outputFormat.getFileSuffix() + TEMP_FILE_SUFFIX, getTempDir());
+        TempFile tempFile = new TempFile(tempJavaFile, specJson, outputFormat);
+
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            mapPrinter.print(specJson, out, headers, progress);
 
-            FileOutputStream out = null;
-            try {
-                out = new FileOutputStream(tempFile);
-                if(mapPrinter.getConfig().isAddForwardedFor()) {
-                    String ipAddress = httpServletRequest.getHeader("X-FORWARDED-FOR");  
-                    if (ipAddress != null) {
-                        String[] ips = ipAddress.split(", ");
-                        ipAddress = ips[0];
-                    } else {
-                    ipAddress = httpServletRequest.getRemoteAddr();  
-                    }
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Forwarded for: " + ipAddress);
-                    }
-                    headers.put("X-Forwarded-For", ipAddress);
-                }
-                mapPrinter.print(specJson, out, headers);
+            return tempFile;
+        } catch (IOException e) {
+            deleteFile(tempFile);
+            throw e;
+        } catch (DocumentException e) {
+            deleteFile(tempFile);
+            throw e;
+        } catch (InterruptedException e) {
+            deleteFile(tempFile);
+            throw e;
+        } catch (RuntimeException e) {
+            deleteFile(tempFile);
+            throw e;
+        } finally {
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
 
-                return tempFile;
-            } catch (IOException e) {
-                deleteFile(tempFile);
-                throw e;
-            } catch (DocumentException e) {
-                deleteFile(tempFile);
-                throw e;
-            } catch (InterruptedException e) {
-                deleteFile(tempFile);
-                throw e;
-            } finally {
-                if (out != null) {
-                    out.close();
-                }
+    /**
+     * Get the headers of the client's request that must be forwarded to the map servers.
+     */
+    protected Map<String, String> getHeadersToForward(MapPrinter mapPrinter, HttpServletRequest httpServletRequest) {
+        Map<String, String> headers = new HashMap<String, String>();
+        TreeSet<String> configHeaders = mapPrinter.getConfig().getHeaders();
+        if (configHeaders == null) {
+            configHeaders = new TreeSet<String>();
+            configHeaders.add("Referer");
+            configHeaders.add("Cookie");
+        }
+        for (Iterator<String> header_iter = configHeaders.iterator(); header_iter.hasNext();) {
+            String header = header_iter.next();
+            if (httpServletRequest.getHeader(header) != null) {
+                headers.put(header, httpServletRequest.getHeader(header));
             }
-        } finally {
-            if (mapPrinter != null) {
-                mapPrinter.stop();
+        }
+
+        if(mapPrinter.getConfig().isAddForwardedFor()) {
+            String ipAddress = httpServletRequest.getHeader("X-FORWARDED-FOR");
+            if (ipAddress != null) {
+                String[] ips = ipAddress.split(", ");
+                ipAddress = ips[0];
+            } else {
+                ipAddress = httpServletRequest.getRemoteAddr();
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Forwarded for: " + ipAddress);
             }
+            headers.put("X-Forwarded-For", ipAddress);
         }
+        return headers;
     }
 
     /**
@@ -419,7 +671,21 @@ public class MapPrinterServlet extends BaseMapServlet {
                 final String fileName = tempFile.getOutputFileName(mapPrinter);
                 httpServletResponse.setHeader("Content-disposition", "attachment; filename=" + fileName);
             }
-            FileUtilities.copyStream(pdf, response);
+            final FileChannel channel = pdf.getChannel();
+            final long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                httpServletResponse.setContentLength((int) size);
+            }
+            //not a zero-copy: the servlet stream is wrapped in a channel copying through a heap buffer
+            final WritableByteChannel target = Channels.newChannel(response);
+            long position = 0;
+            while (position < size) {
+                final long transferred = channel.transferTo(position, size - position, target);
+                if (transferred <= 0) {
+                    throw new IOException("Unable to send " + tempFile + ": only " + position + " of " + size + " bytes could be read");
+                }
+                position += transferred;
+            }
         } finally {
             if (mapPrinter != null) {
                 mapPrinter.stop();
@@ -554,6 +820,7 @@ public class MapPrinterServlet extends BaseMapServlet {
                     }
                 }
             }
+            printJobs.purge(minTime);
             purging.set(false);
         }
     }
@@ -584,6 +851,17 @@ public class MapPrinterServlet extends BaseMapServlet {
             }
         }
 
+        /**
+         * Same as {@link #getOutputFileName(org.mapfish.print.MapPrinter)} for a print not having a temporary file.
+         */
+        public static String getOutputFileName(MapPrinter mapPrinter, PJsonObject jsonSpec, String suffix, String defaultName) {
+            String name = jsonSpec.optString(Constants.OUTPUT_FILENAME_KEY);
+            if (name == null) {
+                name = mapPrinter.getOutputFilename(jsonSpec.optString(Constants.JSON_LAYOUT_KEY, null), defaultName);
+            }
+            return formatFileName(suffix, name, new Date());
+        }
+
 
         public static String formatFileName(String suffix, String startingName, Date date) {
             Matcher matcher = Pattern.compile("\\$\\{(.+?)\\}").matcher(startingName);
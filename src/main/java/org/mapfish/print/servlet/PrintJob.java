@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.servlet;
+
+import org.apache.log4j.Logger;
+import org.mapfish.print.PrintProgress;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A print submitted with the submit.json command and executed asynchronously
+ * by the {@link PrintJobManager}.
+ */
+public abstract class PrintJob implements Runnable {
+    public static final Logger LOGGER = Logger.getLogger(PrintJob.class);
+
+    public enum State {
+        WAITING, RUNNING, DONE, ERROR, CANCELLED;
+
+        public boolean isFinished() {
+            return this == DONE || this == ERROR || this == CANCELLED;
+        }
+    }
+
+    private final String id;
+    private final PrintProgress progress = new PrintProgress();
+    private final AtomicReference<State> state = new AtomicReference<State>(State.WAITING);
+    private final long creationTime = System.currentTimeMillis();
+    private volatile long endTime = 0L;
+    private volatile String error = null;
+
+    /**
+     * Called when the job leaves the WAITING state (started or cancelled).
+     */
+    private volatile Runnable dequeuedCallback = null;
+
+    protected PrintJob(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Do the actual print. Must call {@link org.mapfish.print.PrintProgress#checkCancelled()} from
+     * time to time (the rendering code does it).
+     */
+    protected abstract void print(PrintProgress progress) throws Exception;
+
+    public void run() {
+        if (!state.compareAndSet(State.WAITING, State.RUNNING)) {
+            //cancelled while waiting
+            return;
+        }
+        dequeued();
+        State result = State.ERROR;
+        try {
+            progress.checkCancelled();
+            print(progress);
+            result = State.DONE;
+        } catch (CancellationException e) {
+            result = State.CANCELLED;
+            LOGGER.info("Print job " + id + " cancelled");
+        } catch (Throwable e) {
+            error = e.toString();
+            LOGGER.error("Error while executing the print job " + id, e);
+        } finally {
+            endTime = System.currentTimeMillis();
+            state.set(result);
+        }
+    }
+
+    /**
+     * Ask the job to stop. A waiting job is cancelled right away, a running job
+     * stops at the next check of its progress.
+     *
+     * @return false if the job was already finished.
+     */
+    public boolean cancel() {
+        progress.cancel();
+        if (state.compareAndSet(State.WAITING, State.CANCELLED)) {
+            endTime = System.currentTimeMillis();
+            dequeued();
+            return true;
+        }
+        return state.get() == State.RUNNING;
+    }
+
+    void setDequeuedCallback(Runnable dequeuedCallback) {
+        this.dequeuedCallback = dequeuedCallback;
+    }
+
+    private void dequeued() {
+        final Runnable callback = dequeuedCallback;
+        if (callback != null) {
+            callback.run();
+        }
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public PrintProgress getProgress() {
+        return progress;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    /**
+     * @return When the job finished or 0 if it's not finished.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.servlet;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executes the {@link PrintJob}s with a limited number of threads and keeps
+ * them until they are purged, so that their status can be queried.
+ * <p/>
+ * The limits come from the configuration (maxRunningPrintJobs and
+ * maxQueuedPrintJobs) and are updated at each submission, since the
+ * configuration can change while the servlet is running.
+ */
+public class PrintJobManager {
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentMap<String, PrintJob> jobs = new ConcurrentHashMap<String, PrintJob>();
+
+    /**
+     * Number of jobs submitted and not yet started or cancelled.
+     */
+    private final AtomicInteger nbWaiting = new AtomicInteger(0);
+
+    public PrintJobManager() {
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        final Thread thread = new Thread(r, "printJob" + threadNumber.getAndIncrement());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+    }
+
+    /**
+     * Queue a job.
+     *
+     * @param maxRunning the max number of jobs executed in //
+     * @param maxWaiting the max number of jobs waiting to be executed
+     * @throws RejectedExecutionException if there are already maxWaiting jobs waiting.
+     */
+    public void submit(PrintJob job, int maxRunning, int maxWaiting) {
+        setMaxRunning(maxRunning);
+        if (nbWaiting.incrementAndGet() > maxWaiting + Math.max(0, maxRunning - executor.getActiveCount())) {
+            nbWaiting.decrementAndGet();
+            throw new RejectedExecutionException("Too many print jobs waiting");
+        }
+        job.setDequeuedCallback(new Runnable() {
+            public void run() {
+                nbWaiting.decrementAndGet();
+            }
+        });
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            nbWaiting.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private synchronized void setMaxRunning(int maxRunning) {
+        if (maxRunning > executor.getMaximumPoolSize()) {
+            executor.setMaximumPoolSize(maxRunning);
+            executor.setCorePoolSize(maxRunning);
+        } else if (maxRunning < executor.getCorePoolSize()) {
+            executor.setCorePoolSize(maxRunning);
+            executor.setMaximumPoolSize(maxRunning);
+        }
+    }
+
+    public PrintJob get(String id) {
+        return jobs.get(id);
+    }
+
+    public int getNbWaiting() {
+        return nbWaiting.get();
+    }
+
+    /**
+     * Forget about the jobs finished before the given time.
+     */
+    public void purge(long minTime) {
+        final Iterator<PrintJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            final PrintJob job = it.next();
+            if (job.getState().isFinished() && job.getEndTime() < minTime) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancel all the jobs and stop the threads.
+     */
+    public void shutdown() {
+        for (PrintJob job : jobs.values()) {
+            job.cancel();
+        }
+        jobs.clear();
+        executor.shutdown();
+    }
+}
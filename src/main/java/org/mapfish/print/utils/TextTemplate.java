@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * A text with ${...} variables (see {@link org.mapfish.print.PDFUtils#evalString}),
+ * parsed once into literal parts and variables. The kind of each variable (page number,
+ * date, formatted value, ...) is determined at parsing time too, so rendering a text
+ * only has to look the values up.
+ * <p/>
+ * Immutable and shared: the parsed texts are cached by their content.
+ */
+public final class TextTemplate {
+    private static final Pattern VAR_REGEXP = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final Pattern FORMAT_PATTERN = Pattern.compile("^format\\s+(%[-+# 0,(]*\\d*(\\.\\d*)?(d))\\s+(.*)$");
+
+    private static final int MAX_CACHED_TEMPLATES = 10000;
+
+    private static final ConcurrentMap<String, TextTemplate> TEMPLATES = CacheBuilder.newBuilder().
+            maximumSize(MAX_CACHED_TEMPLATES).<String, TextTemplate>build().asMap();
+
+    private final String text;
+
+    /**
+     * The texts before, between and after the variables (one more than the variables).
+     */
+    private final String[] literals;
+
+    private final Variable[] variables;
+
+    private TextTemplate(String text, String[] literals, Variable[] variables) {
+        this.text = text;
+        this.literals = literals;
+        this.variables = variables;
+    }
+
+    /**
+     * @return The parsed text, from the cache if it was already parsed.
+     */
+    public static TextTemplate get(String text) {
+        TextTemplate result = TEMPLATES.get(text);
+        if (result == null) {
+            result = parse(text);
+            TEMPLATES.put(text, result);
+        }
+        return result;
+    }
+
+    private static TextTemplate parse(String text) {
+        final List<String> literals = new ArrayList<String>();
+        final List<Variable> variables = new ArrayList<Variable>();
+        final Matcher matcher = VAR_REGEXP.matcher(text);
+        int pos = 0;
+        while (matcher.find()) {
+            literals.add(text.substring(pos, matcher.start()));
+            variables.add(Variable.parse(matcher.group(1)));
+            pos = matcher.end();
+        }
+        literals.add(text.substring(pos));
+        return new TextTemplate(text, literals.toArray(new String[literals.size()]),
+                variables.toArray(new Variable[variables.size()]));
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return True if there is no variable in the text.
+     */
+    public boolean isConstant() {
+        return variables.length == 0;
+    }
+
+    public int getNbVariables() {
+        return variables.length;
+    }
+
+    /**
+     * @return The text before the variable of the given index, or after the last one if
+     * the index is the number of variables.
+     */
+    public String getLiteral(int index) {
+        return literals[index];
+    }
+
+    public Variable getVariable(int index) {
+        return variables[index];
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+    /**
+     * A ${...} variable.
+     */
+    public static final class Variable {
+        public enum Type {
+            /**
+             * ${pageNum}
+             */
+            PAGE_NUM,
+            /**
+             * ${pageTot}
+             */
+            PAGE_TOT,
+            /**
+             * ${now}
+             */
+            NOW,
+            /**
+             * ${now <SimpleDateFormat pattern>}, the pattern is the argument.
+             */
+            NOW_FORMAT,
+            /**
+             * ${format <printf pattern> <variable>}, the pattern is the argument.
+             */
+            FORMAT,
+            /**
+             * ${configDir}
+             */
+            CONFIG_DIR,
+            /**
+             * ${scale} or ${scale.<map name>}, the map name is the argument.
+             */
+            SCALE,
+            /**
+             * Anything else, taken from the spec.
+             */
+            VALUE
+        }
+
+        private final Type type;
+        private final String key;
+        private final String argument;
+        private final char conversion;
+        private final Variable formatted;
+
+        private Variable(Type type, String key, String argument, char conversion, Variable formatted) {
+            this.type = type;
+            this.key = key;
+            this.argument = argument;
+            this.conversion = conversion;
+            this.formatted = formatted;
+        }
+
+        private static Variable parse(String key) {
+            Matcher matcher;
+            if (key.equals("pageNum")) {
+                return new Variable(Type.PAGE_NUM, key, null, '\0', null);
+            } else if (key.equals("pageTot")) {
+                return new Variable(Type.PAGE_TOT, key, null, '\0', null);
+            } else if (key.equals("now")) {
+                return new Variable(Type.NOW, key, null, '\0', null);
+            } else if (key.startsWith("now ")) {
+                return new Variable(Type.NOW_FORMAT, key, key.substring(4), '\0', null);
+            } else if ((matcher = FORMAT_PATTERN.matcher(key)).matches()) {
+                return new Variable(Type.FORMAT, key, matcher.group(1), matcher.group(3).charAt(0), parse(matcher.group(4)));
+            } else if (key.equals("configDir")) {
+                return new Variable(Type.CONFIG_DIR, key, null, '\0', null);
+            } else if (key.equals("scale") || key.startsWith("scale.")) {
+                return new Variable(Type.SCALE, key, key.startsWith("scale.") ? key.substring(6) : null, '\0', null);
+            } else {
+                return new Variable(Type.VALUE, key, null, '\0', null);
+            }
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return The whole text between the ${ and the }.
+         */
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return The date or printf pattern or the map name, depending on the type.
+         */
+        public String getArgument() {
+            return argument;
+        }
+
+        /**
+         * @return The printf conversion character, for the {@link Type#FORMAT} variables.
+         */
+        public char getConversion() {
+            return conversion;
+        }
+
+        /**
+         * @return The variable to format, for the {@link Type#FORMAT} variables.
+         */
+        public Variable getFormatted() {
+            return formatted;
+        }
+    }
+}
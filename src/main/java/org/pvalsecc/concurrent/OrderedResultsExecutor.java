@@ -3,12 +3,15 @@ package org.pvalsecc.concurrent;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Iterator;
+import java.util.PriorityQueue;
 import java.util.Queue;
-import java.util.SortedSet;
-import java.util.TreeSet;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Take tasks and execute them in //. Each task generates a result and the
@@ -23,10 +26,33 @@ import java.util.concurrent.atomic.AtomicLong;
  * is called only one result at a time for a given instance of {@link org.pvalsecc.concurrent.OrderedResultsExecutor.ResultCollector}.
  * No // call of this method for a given object.
  * </ul>
+ *
+ * The tasks are queued per resultCollector (a job) and the executor threads take
+ * them from the jobs in a round-robin fashion. That way, a job with a lot of tasks
+ * doesn't delay the jobs queued after it. The results of a job are sent in order
+ * independently of the other jobs.
+ *
+ * An exception thrown by a task or by the resultCollector doesn't stop the executor
+ * threads, nor the sending of the following results.
+ *
+ * If a task implements {@link org.pvalsecc.concurrent.OrderedResultsExecutor.HostTask},
+ * no more than perHostLimit tasks for the same host are executed in //. The
+ * other tasks of the same job are executed in the meantime.
+ *
+ * If a task implements {@link org.pvalsecc.concurrent.OrderedResultsExecutor.AsyncTask},
+ * its non-blocking part is started first and the thread goes on with other tasks.
+ * The task is processed once its non-blocking part is done, still counting for
+ * its host in the meantime.
  */
 public class OrderedResultsExecutor<RESULT> {
     public static Log LOGGER = LogFactory.getLog(OrderedResultsExecutor.class);
 
+    /**
+     * How long an executor thread waits when all the queued tasks are for hosts
+     * having already perHostLimit tasks running.
+     */
+    private static final long HOST_WAIT_MILLIS = 5;
+
     /**
      * The base name for the executor threads.
      */
@@ -38,41 +64,62 @@ public class OrderedResultsExecutor<RESULT> {
     private final Thread[] threads;
 
     /**
-     * The sequence used to attribute the order of the tasks.
+     * Max number of {@link HostTask} executed in // for the same host.
      */
-    private AtomicLong nextSequenceNumber = new AtomicLong(0L);
+    private final int perHostLimit;
 
     /**
-     * Queue of tasks to do. Protected by itself.
+     * The jobs, by resultCollector.
      */
-    private final Queue<InternalTask<RESULT>> queue;
+    private final ConcurrentMap<ResultCollector<RESULT>, Job<RESULT>> jobs = new ConcurrentHashMap<ResultCollector<RESULT>, Job<RESULT>>();
 
     /**
-     * Ordered structure used to store the results the time they are in order.
+     * The jobs having tasks to be executed, in round-robin order. A job is at most
+     * once in this queue (see {@link Job#scheduled}).
      */
-    private final SortedSet<InternalTask<RESULT>> output = Collections.synchronizedSortedSet(new TreeSet<InternalTask<RESULT>>());
+    private final Queue<Job<RESULT>> readyJobs = new ConcurrentLinkedQueue<Job<RESULT>>();
 
     /**
-     * number of the next task to be sent out. Protected by {@link  #nextOutputLock}
+     * The {@link AsyncTask}s whose non-blocking part is done, waiting to be processed.
+     * They go before the tasks of the jobs.
      */
-    private long nextOutput = 1L;
+    private final Queue<InternalTask<RESULT>> resumedTasks = new ConcurrentLinkedQueue<InternalTask<RESULT>>();
 
     /**
-     * The lock to protect {@link #nextOutput}.
+     * One permit per task waiting to be executed.
      */
-    private final Object nextOutputLock = new Object();
+    private final Semaphore pendingTasks = new Semaphore(0);
+
+    /**
+     * Number of running tasks, by host.
+     */
+    private final ConcurrentMap<String, AtomicInteger> runningPerHost = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Used to wake up the threads waiting for a host to be available.
+     */
+    private final Object hostReleasedLock = new Object();
+
+    private final AtomicInteger nbWaitingForHost = new AtomicInteger(0);
+
+    private volatile boolean stopped = false;
 
 
     public OrderedResultsExecutor(int nbThreads, String name) {
+        this(nbThreads, Integer.MAX_VALUE, name);
+    }
+
+    public OrderedResultsExecutor(int nbThreads, int perHostLimit, String name) {
         this.name = name;
         this.threads = new Thread[nbThreads];
-        queue = new LinkedList<InternalTask<RESULT>>();
+        this.perHostLimit = perHostLimit;
     }
 
     /**
      * Start the executor threads.
      */
     public void start() {
+        stopped = false;
         for (int i = 0; i < threads.length; i++) {
             if(threads[i]==null) {
                 Thread thread = threads[i] = new Thread(new Runner(), name+i);
@@ -83,15 +130,13 @@ public class OrderedResultsExecutor<RESULT> {
     }
 
     /**
-     * Stop the executor threads.
+     * Stop the executor threads. The tasks not yet started are dropped.
      */
     public void stop() {
-        synchronized (queue) {
-            for (int i = 0; i < threads.length; ++i) {
-                  //null task means "die!"
-                queue.add(new InternalTask<RESULT>(null, null, 0));
-            }
-            queue.notifyAll();
+        stopped = true;
+        pendingTasks.release(threads.length);
+        synchronized (hostReleasedLock) {
+            hostReleasedLock.notifyAll();
         }
 
         for (int i = 0; i < threads.length; i++) {
@@ -112,44 +157,259 @@ public class OrderedResultsExecutor<RESULT> {
      * Adds a task whose result will be sent to the given resultCollector.
      */
     public void addTask(Task<RESULT> command, ResultCollector<RESULT> resultCollector) {
-        synchronized (queue) {
-            queue.add(new InternalTask<RESULT>(command, resultCollector, nextSequenceNumber.incrementAndGet()));
-            queue.notify();
+        while (true) {
+            Job<RESULT> job = jobs.get(resultCollector);
+            if (job == null) {
+                job = new Job<RESULT>(resultCollector);
+                final Job<RESULT> previous = jobs.putIfAbsent(resultCollector, job);
+                if (previous != null) {
+                    job = previous;
+                }
+            }
+
+            final InternalTask<RESULT> task;
+            synchronized (job) {
+                if (job.finished) {
+                    //was just removed because all its results were sent, try again with a new one
+                    continue;
+                }
+                task = new InternalTask<RESULT>(command, job, ++job.lastSequenceNumber);
+                job.nbOutstanding++;
+            }
+            job.queue.add(task);
+            job.nbQueued.incrementAndGet();
+            schedule(job);
+            pendingTasks.release();
+            return;
         }
     }
 
-    private void addOutput(InternalTask<RESULT> task) {
-        output.add(task);
+    /**
+     * @return The number of tasks of the given resultCollector waiting to be executed.
+     */
+    public int getQueueDepth(ResultCollector<RESULT> resultCollector) {
+        final Job<RESULT> job = jobs.get(resultCollector);
+        return job == null ? 0 : job.nbQueued.get();
+    }
+
+    /**
+     * @return The total number of tasks waiting to be executed.
+     */
+    public int getQueueDepth() {
+        return pendingTasks.availablePermits();
+    }
+
+    /**
+     * @return The number of resultCollectors having tasks queued, running or with results not yet sent.
+     */
+    public int getNbJobs() {
+        return jobs.size();
+    }
+
+    /**
+     * Put the job in the round-robin queue if it has tasks and is not already there.
+     */
+    private void schedule(Job<RESULT> job) {
+        if (!job.queue.isEmpty() && job.scheduled.compareAndSet(false, true)) {
+            readyJobs.add(job);
+        }
+    }
+
+    /**
+     * Take the next task to execute, going round-robin over the jobs.
+     *
+     * @return null if all the tasks are for hosts that are at their limit.
+     */
+    private InternalTask<RESULT> takeTask() {
+        final InternalTask<RESULT> resumed = resumedTasks.poll();
+        if (resumed != null) {
+            return resumed;
+        }
+
+        Job<RESULT> firstBlocked = null;
         while (true) {
-            InternalTask<RESULT> first;
-            synchronized (nextOutputLock) {
-                if(output.isEmpty()) {
-                    //next one not yet available
-                    return;
+            final Job<RESULT> job = readyJobs.poll();
+            if (job == null) {
+                if (firstBlocked != null || stopped) {
+                    return null;
                 }
-                first = output.first();
-                if (first.sequenceNumber != nextOutput) {
-                    //next one not yet available
-                    return;
+                //another thread is rescheduling the job having our task
+                Thread.yield();
+                continue;
+            }
+
+            final InternalTask<RESULT> task = takeRunnable(job);
+
+            //put it back at the end of the queue for the round-robin
+            job.scheduled.set(false);
+            schedule(job);
+
+            if (task != null) {
+                job.nbQueued.decrementAndGet();
+                return task;
+            }
+            if (job == firstBlocked) {
+                //did a whole round without finding anything
+                return null;
+            }
+            if (firstBlocked == null) {
+                firstBlocked = job;
+            }
+        }
+    }
+
+    /**
+     * Remove from the queue of the job the first task whose host is not at its limit.
+     * Must be called only by the thread that took the job out of the round-robin queue.
+     */
+    private InternalTask<RESULT> takeRunnable(Job<RESULT> job) {
+        final Iterator<InternalTask<RESULT>> it = job.queue.iterator();
+        while (it.hasNext()) {
+            final InternalTask<RESULT> task = it.next();
+            if (acquireHost(task.host)) {
+                if (job.queue.remove(task)) {
+                    return task;
                 }
+                releaseHost(task.host);
+            }
+        }
+        return null;
+    }
 
-                //it wouldn't be a good idea to take the resultCollector lock here.
-                //That would serialize the calls between resultCollectors
+    private boolean acquireHost(String host) {
+        if (host == null) {
+            return true;
+        }
+        AtomicInteger counter = runningPerHost.get(host);
+        if (counter == null) {
+            final AtomicInteger newCounter = new AtomicInteger(0);
+            counter = runningPerHost.putIfAbsent(host, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        while (true) {
+            final int cur = counter.get();
+            if (cur >= perHostLimit) {
+                return false;
+            }
+            if (counter.compareAndSet(cur, cur + 1)) {
+                return true;
             }
+        }
+    }
 
-            //"the dangerous point"
+    private void releaseHost(String host) {
+        if (host == null) {
+            return;
+        }
+        runningPerHost.get(host).decrementAndGet();
+        if (nbWaitingForHost.get() > 0) {
+            synchronized (hostReleasedLock) {
+                hostReleasedLock.notifyAll();
+            }
+        }
+    }
 
-            synchronized (first.resultCollector) {
-                synchronized (nextOutputLock) {
-                    if(first.sequenceNumber !=nextOutput) {
-                        //Another thread took over us during "the dangerous point" with the same nextOutputValue
-                        continue;
+    private void waitForHost() {
+        nbWaitingForHost.incrementAndGet();
+        try {
+            synchronized (hostReleasedLock) {
+                hostReleasedLock.wait(HOST_WAIT_MILLIS);
+            }
+        } catch (InterruptedException e) {
+            //ignored
+        } finally {
+            nbWaitingForHost.decrementAndGet();
+        }
+    }
+
+    /**
+     * Start the non-blocking part of an {@link AsyncTask}.
+     *
+     * @return false if nothing was started and the task must be processed right away.
+     */
+    private boolean startAsync(final InternalTask<RESULT> task) {
+        task.setState(ExecutionState.WAITING);
+        try {
+            return ((AsyncTask<RESULT>) task.task).startAsync(new Runnable() {
+                public void run() {
+                    resume(task);
+                }
+            });
+        } catch (Throwable t) {
+            LOGGER.error("Error while starting a task", t);
+            return false;
+        }
+    }
+
+    /**
+     * Called when the non-blocking part of an {@link AsyncTask} is done, from any thread.
+     */
+    private void resume(InternalTask<RESULT> task) {
+        if (!task.resumed.compareAndSet(false, true)) {
+            return;
+        }
+        resumedTasks.add(task);
+        pendingTasks.release();
+    }
+
+    private void addOutput(InternalTask<RESULT> task) {
+        final Job<RESULT> job = task.job;
+        synchronized (job.output) {
+            job.output.add(task);
+        }
+
+        while (true) {
+            if (!job.sending.compareAndSet(false, true)) {
+                //another thread is sending the results of this job, it will take ours
+                return;
+            }
+            try {
+                while (true) {
+                    final InternalTask<RESULT> next;
+                    synchronized (job.output) {
+                        next = job.output.peek();
+                        if (next == null || next.sequenceNumber != job.nextOutput) {
+                            //next one not yet available
+                            break;
+                        }
+                        job.output.poll();
+                        job.nextOutput++;
+                    }
+                    try {
+                        if (next.state == ExecutionState.ERROR) {
+                            job.resultCollector.handleError(next.error);
+                        } else {
+                            job.resultCollector.handle(next.result);
+                        }
+                    } catch (Throwable t) {
+                        //must not kill the thread, nor block the following results
+                        LOGGER.error("Error while handling a result", t);
+                    } finally {
+                        resultSent(job);
                     }
-                    //now we are sure we can output "first"
-                    ++nextOutput;
-                    output.remove(first);
                 }
-                first.resultCollector.handle(first.result);
+            } finally {
+                job.sending.set(false);
+            }
+
+            //a result may have been added between the "break" and the release of the flag
+            synchronized (job.output) {
+                final InternalTask<RESULT> next = job.output.peek();
+                if (next == null || next.sequenceNumber != job.nextOutput) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void resultSent(Job<RESULT> job) {
+        synchronized (job) {
+            job.nbOutstanding--;
+            if (job.nbOutstanding == 0) {
+                job.finished = true;
+                jobs.remove(job.resultCollector, job);
             }
         }
     }
@@ -163,41 +423,94 @@ public class OrderedResultsExecutor<RESULT> {
                 LOGGER.debug("Runner [" + name + "] started");
             while (true) {
                 //gets a task to be executed
-                InternalTask<RESULT> cur;
-                synchronized (queue) {
-                    while ((cur = queue.poll()) == null) {
-                        try {
-                            queue.wait();
-                        } catch (InterruptedException e) {
-                            //ignored
-                        }
-                    }
-                }
-
-                if (cur.task == null) {
+                pendingTasks.acquireUninterruptibly();
+                if (stopped) {
                     if (LOGGER.isDebugEnabled())
                         LOGGER.debug("Runner [" + name + "] stopped");
                     return;  //received the signal to stop
                 }
 
+                final InternalTask<RESULT> cur = takeTask();
+                if (cur == null) {
+                    //all the tasks are waiting for a host
+                    pendingTasks.release();
+                    waitForHost();
+                    continue;
+                }
+
+                if (cur.state == ExecutionState.PENDING && cur.task instanceof AsyncTask) {
+                    if (startAsync(cur)) {
+                        //will come back through resumedTasks, the host stays taken meanwhile
+                        continue;
+                    }
+                    cur.resumed.set(true);
+                }
+
                 //runs it and schedule its result
                 cur.setState(ExecutionState.RUNNING);
                 try {
                     final RESULT process = cur.task.process();
                     cur.setResult(process);
-                    addOutput(cur);
+                    cur.setState(ExecutionState.DONE);
                 } catch (Throwable t) {
-                    cur.setState(ExecutionState.ERROR);
+                    LOGGER.error("Error while executing a task", t);
                     cur.setError(t);
+                    cur.setState(ExecutionState.ERROR);
                 } finally {
-                    cur.setState(ExecutionState.DONE);
+                    releaseHost(cur.host);
                 }
+                addOutput(cur);
             }
         }
     }
 
     private enum ExecutionState {
-        PENDING, RUNNING, DONE, ERROR
+        PENDING, WAITING, RUNNING, DONE, ERROR
+    }
+
+    /**
+     * The tasks and results of one resultCollector.
+     */
+    private static class Job<RESULT> {
+        private final ResultCollector<RESULT> resultCollector;
+
+        /**
+         * Tasks waiting to be executed.
+         */
+        private final Queue<InternalTask<RESULT>> queue = new ConcurrentLinkedQueue<InternalTask<RESULT>>();
+
+        private final AtomicInteger nbQueued = new AtomicInteger(0);
+
+        /**
+         * True if the job is in {@link OrderedResultsExecutor#readyJobs}.
+         */
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        /**
+         * Results waiting for the previous ones to be sent. Protected by itself.
+         */
+        private final PriorityQueue<InternalTask<RESULT>> output = new PriorityQueue<InternalTask<RESULT>>();
+
+        /**
+         * True while a thread is sending results to the resultCollector.
+         */
+        private final AtomicBoolean sending = new AtomicBoolean(false);
+
+        /**
+         * Sequence number of the next result to send. Protected by {@link #output}.
+         */
+        private long nextOutput = 1L;
+
+        /**
+         * The fields below are protected by the job itself.
+         */
+        private long lastSequenceNumber = 0L;
+        private int nbOutstanding = 0;
+        private boolean finished = false;
+
+        public Job(ResultCollector<RESULT> resultCollector) {
+            this.resultCollector = resultCollector;
+        }
     }
 
     /**
@@ -206,16 +519,23 @@ public class OrderedResultsExecutor<RESULT> {
      */
     private static class InternalTask<RESULT> implements Comparable<InternalTask<RESULT>> {
         private final Task<RESULT> task;
-        private final ResultCollector<RESULT> resultCollector;
+        private final Job<RESULT> job;
         private final long sequenceNumber;
-        private ExecutionState state;
+        private final String host;
+        private volatile ExecutionState state;
         private RESULT result = null;
-        private Throwable error;
+        private volatile Throwable error;
 
-        public InternalTask(Task<RESULT> task, ResultCollector<RESULT> resultCollector, long sequenceNumber) {
+        /**
+         * True once the non-blocking part of an {@link AsyncTask} is done.
+         */
+        private final AtomicBoolean resumed = new AtomicBoolean(false);
+
+        public InternalTask(Task<RESULT> task, Job<RESULT> job, long sequenceNumber) {
             this.task = task;
-            this.resultCollector = resultCollector;
+            this.job = job;
             this.sequenceNumber = sequenceNumber;
+            this.host = task instanceof HostTask ? ((HostTask<RESULT>) task).getHost() : null;
             this.state = ExecutionState.PENDING;
         }
 
@@ -230,11 +550,11 @@ public class OrderedResultsExecutor<RESULT> {
             return (sequenceNumber < o.sequenceNumber ? -1 : (sequenceNumber == o.sequenceNumber ? 0 : 1));
         }
 
-        public synchronized void setState(ExecutionState state) {
+        public void setState(ExecutionState state) {
             this.state = state;
         }
 
-        public synchronized void setError(Throwable error) {
+        public void setError(Throwable error) {
             this.error = error;
         }
     }
@@ -251,6 +571,33 @@ public class OrderedResultsExecutor<RESULT> {
         RESULT process();
     }
 
+    /**
+     * Definition of a task connecting to a host. The number of those executed in
+     * // for the same host is limited.
+     */
+    public static interface HostTask<RESULT> extends Task<RESULT> {
+        /**
+         * @return The host (and port) the task will connect to or null if it doesn't
+         * connect to anything.
+         */
+        String getHost();
+    }
+
+    /**
+     * Definition of a task starting with a non-blocking operation (a download, ...).
+     * No executor thread is used while this operation is running.
+     */
+    public static interface AsyncTask<RESULT> extends Task<RESULT> {
+        /**
+         * Start the non-blocking operation. Must not block.
+         *
+         * @param done to call, from any thread, when the operation is finished
+         *             (successfully or not). {@link #process()} will be called after that.
+         * @return false if nothing was started, {@link #process()} is then called right away.
+         */
+        boolean startAsync(Runnable done);
+    }
+
     /**
      * Definition of a result collector.
      */
@@ -260,5 +607,11 @@ public class OrderedResultsExecutor<RESULT> {
          * with each task's result, in the order the task have been scheduled.
          */
         public void handle(RESULT result);
+
+        /**
+         * Called instead of {@link #handle(Object)}, at the same place in the
+         * sequence, when the task threw an exception.
+         */
+        public void handleError(Throwable error);
     }
 }
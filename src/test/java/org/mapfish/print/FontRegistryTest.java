@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import com.itextpdf.text.BaseColor;
+import com.itextpdf.text.Font;
+import com.itextpdf.text.pdf.BaseFont;
+
+public class FontRegistryTest extends PrintTestCase {
+
+    @Test
+    public void testGetFont() {
+        final Font font = FontRegistry.getFont("Helvetica", BaseFont.WINANSI, 10f, Font.UNDEFINED);
+        assertEquals(10f, font.getSize(), 0.0001f);
+        font.setColor(BaseColor.RED);
+
+        final Font other = FontRegistry.getFont("Helvetica", BaseFont.WINANSI, 10f, Font.UNDEFINED);
+        assertNotSame(font, other);
+        assertNull(other.getColor());
+    }
+
+    @Test
+    public void testGetBaseFont() {
+        final BaseFont bold = FontRegistry.getBaseFont(null, null, "helvetica", "bold");
+        assertEquals(BaseFont.HELVETICA_BOLD, bold.getPostscriptFontName());
+        assertSame(bold, FontRegistry.getBaseFont(null, null, "helvetica", "bold"));
+
+        final BaseFont unknown = FontRegistry.getBaseFont("notAFont", null, "unknown", "normal");
+        assertEquals(BaseFont.HELVETICA, unknown.getPostscriptFontName());
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mapfish.print.config.Config;
+import org.mapfish.print.config.layout.Layout;
+import org.mapfish.print.config.layout.Layouts;
+import org.mapfish.print.metrics.WarmUpHealthCheck;
+import org.mapfish.print.utils.PJsonObject;
+
+public class WarmUpTest extends PrintTestCase {
+
+    @Test
+    public void testCreateSpec() {
+        final Config config = new Config();
+        config.setDpis(new TreeSet<Integer>(Arrays.asList(254, 190)));
+        config.setScales(new TreeSet<Number>(Arrays.<Number>asList(10000, 50000)));
+
+        final PJsonObject spec = WarmUp.createSpec(config, "A4 portrait");
+        assertEquals("A4 portrait", spec.getString("layout"));
+        assertEquals(190, spec.getInt("dpi"));
+        assertEquals("m", spec.getString("units"));
+        assertEquals(0, spec.getJSONArray("layers").size());
+        final PJsonObject page = spec.getJSONArray("pages").getJSONObject(0);
+        assertEquals(50000, page.getInt("scale"));
+        assertEquals(2, page.getJSONArray("center").size());
+    }
+
+    @Test
+    public void testReady() {
+        final WarmUp warmUp = new WarmUp();
+        try {
+            warmUp.decodeSrs(Collections.<String>emptyList());
+            //the layouts are not scheduled yet
+            assertFalse(warmUp.isReady());
+            assertEquals(1, warmUp.getPending());
+
+            warmUp.setScheduled();
+            assertTrue(warmUp.isReady());
+            assertEquals(0, warmUp.getPending());
+
+            warmUp.setScheduled();
+            assertEquals(0, warmUp.getPending());
+        } finally {
+            warmUp.stop();
+        }
+    }
+
+    @Test
+    public void testLayoutsOnce() throws Exception {
+        final WarmUp warmUp = new WarmUp();
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            //keeps the layouts in the queue
+            warmUp.submit(new Runnable() {
+                public void run() {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            assertEquals(2, warmUp.getPending());
+
+            //no need for the servlet to release the initial task
+            warmUp.warmUp(createPrinter("A4 portrait", "A4 landscape"));
+            assertEquals(3, warmUp.getPending());
+
+            //another configuration or a reloaded one
+            warmUp.warmUp(createPrinter("A3 portrait"));
+            assertEquals(3, warmUp.getPending());
+
+            release.countDown();
+            for (int i = 0; i < 3000 && !warmUp.isReady(); ++i) {
+                Thread.sleep(10);
+            }
+            assertTrue(warmUp.isReady());
+        } finally {
+            release.countDown();
+            warmUp.stop();
+        }
+    }
+
+    /**
+     * @return A printer that is not running, so that the warm-up doesn't print anything.
+     */
+    private static MapPrinter createPrinter(String... layoutNames) {
+        final Config config = new Config();
+        final Layouts layouts = new Layouts();
+        for (String layoutName : layoutNames) {
+            layouts.put(layoutName, new Layout());
+        }
+        config.setLayouts(layouts);
+        return new MapPrinter() {
+            @Override
+            public Config getConfig() {
+                return config;
+            }
+        };
+    }
+
+    @Test
+    public void testRunningTask() throws Exception {
+        final WarmUp warmUp = new WarmUp();
+        final WarmUpHealthCheck healthCheck = new WarmUpHealthCheck(warmUp);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            assertFalse(healthCheck.execute().isHealthy());
+            warmUp.submit(new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            warmUp.setScheduled();
+            assertTrue(started.await(30, TimeUnit.SECONDS));
+            assertFalse(healthCheck.execute().isHealthy());
+            assertEquals(1, warmUp.getPending());
+
+            release.countDown();
+            for (int i = 0; i < 3000 && !warmUp.isReady(); ++i) {
+                Thread.sleep(10);
+            }
+            assertTrue(healthCheck.execute().isHealthy());
+        } finally {
+            release.countDown();
+            warmUp.stop();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.config;
+
+import static org.junit.Assert.*;
+
+import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.mapfish.print.PrintTestCase;
+
+public class HostAuthorizationCacheTest extends PrintTestCase {
+
+    @Test
+    public void testCached() throws Exception {
+        final CountingMatcher matcher = new CountingMatcher();
+        matcher.setPathRegex("^/wms$");
+        final List<HostMatcher> hosts = Collections.<HostMatcher>singletonList(matcher);
+        final HostAuthorizationCache cache = new HostAuthorizationCache();
+
+        assertTrue(cache.validate(hosts, new URI("http://127.0.0.1/wms?LAYERS=a")));
+        assertTrue(cache.validate(hosts, new URI("http://127.0.0.1:80/wms?LAYERS=b")));
+        assertEquals(1, matcher.count);
+
+        assertFalse(cache.validate(hosts, new URI("http://127.0.0.1/other")));
+        assertFalse(cache.validate(hosts, new URI("http://127.0.0.1/other")));
+        assertEquals(2, matcher.count);
+
+        cache.validateAll(hosts, Arrays.asList(new URI("http://127.0.0.1/wms"), new URI("http://127.0.0.2/wms"),
+                new URI("http://127.0.0.3/wms")));
+        assertEquals(4, matcher.count);
+
+        cache.clear();
+        assertTrue(cache.validate(hosts, new URI("http://127.0.0.1/wms")));
+        assertEquals(5, matcher.count);
+    }
+
+    private static class CountingMatcher extends HostMatcher {
+        private int count = 0;
+
+        @Override
+        public synchronized boolean validate(URI uri) throws UnknownHostException, SocketException, MalformedURLException {
+            count++;
+            return super.validate(uri);
+        }
+
+        @Override
+        public String toString() {
+            return "CountingMatcher";
+        }
+    }
+}
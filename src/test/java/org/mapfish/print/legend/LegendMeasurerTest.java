@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.legend;
+
+import com.itextpdf.text.Font;
+import com.itextpdf.text.Phrase;
+import com.itextpdf.text.pdf.PdfPCell;
+import com.itextpdf.text.pdf.PdfPTable;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LegendMeasurerTest {
+    private static final Font FONT = new Font(Font.FontFamily.HELVETICA, 10);
+
+    @Test
+    public void testWrappedText() throws Exception {
+        final float oneLine = LegendMeasurer.getHeight(createTable("short", 300f));
+        final float wrapped = LegendMeasurer.getHeight(createTable(
+                "a much longer text that has to be wrapped on several lines", 50f));
+        assertTrue(oneLine > 0f);
+        assertTrue(wrapped > oneLine);
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        final PdfPTable table = createTable("cached", 100f);
+        assertEquals(LegendMeasurer.getHeight(table), LegendMeasurer.getHeight(createTable("cached", 100f)), 0.0001f);
+        assertEquals(LegendMeasurer.createKey(table), LegendMeasurer.createKey(createTable("cached", 100f)));
+        assertFalse(LegendMeasurer.createKey(table).equals(LegendMeasurer.createKey(createTable("cached", 101f))));
+        assertFalse(LegendMeasurer.createKey(table).equals(LegendMeasurer.createKey(createTable("cache", 100f))));
+    }
+
+    @Test
+    public void testCalculateHeightsAfterCacheHit() throws Exception {
+        final float cached = LegendMeasurer.getHeight(createTable("written", 100f));
+        final PdfPTable table = createTable("written", 100f);
+        LegendMeasurer.getHeight(table);
+        assertEquals(cached, LegendMeasurer.calculateHeights(table), 0.0001f);
+        assertEquals(cached, table.getTotalHeight(), 0.0001f);
+        assertEquals(cached, table.getRowHeight(0), 0.0001f);
+    }
+
+    @Test
+    public void testNestedTable() throws Exception {
+        PdfPTable outer = new PdfPTable(1);
+        outer.addCell(new PdfPCell(createTable("nested", 100f)));
+        outer.setTotalWidth(100f);
+        assertNull(LegendMeasurer.createKey(outer));
+        assertTrue(LegendMeasurer.getHeight(outer) > 0f);
+    }
+
+    private static PdfPTable createTable(String text, float width) throws Exception {
+        PdfPTable table = new PdfPTable(1);
+        table.addCell(new PdfPCell(new Phrase(text, FONT)));
+        table.setTotalWidth(new float[]{width});
+        table.setLockedWidth(true);
+        return table;
+    }
+}
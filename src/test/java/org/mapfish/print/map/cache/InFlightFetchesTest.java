@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.cache;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class InFlightFetchesTest {
+    @Test
+    public void testCoalesce() throws Exception {
+        final InFlightFetches fetches = new InFlightFetches();
+        final CountDownLatch loading = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger nbLoads = new AtomicInteger(0);
+        final TileResponse response = new TileResponse(200, "OK", "image/png", new byte[]{1, 2});
+        final TileCache.Loader loader = new TileCache.Loader() {
+            public TileResponse load(TileResponse stale) throws IOException {
+                nbLoads.incrementAndGet();
+                loading.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                return response;
+            }
+        };
+
+        final InFlightFetches.Result[] results = new InFlightFetches.Result[2];
+        Thread first = new Thread() {
+            public void run() {
+                try {
+                    results[0] = fetches.fetch("key", loader, null);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        first.start();
+        assertTrue(loading.await(10, TimeUnit.SECONDS));
+
+        Thread second = new Thread() {
+            public void run() {
+                try {
+                    results[1] = fetches.fetch("key", loader, null);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        second.start();
+        while (fetches.getNbCoalesced() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        first.join();
+        second.join();
+
+        assertEquals(1, nbLoads.get());
+        assertSame(response, results[0].response);
+        assertSame(response, results[1].response);
+        assertTrue(!results[0].coalesced);
+        assertTrue(results[1].coalesced);
+        assertEquals(0, fetches.getNbInFlight());
+    }
+
+    @Test
+    public void testErrorNotKept() throws Exception {
+        final InFlightFetches fetches = new InFlightFetches();
+        try {
+            fetches.fetch("key", new TileCache.Loader() {
+                public TileResponse load(TileResponse stale) throws IOException {
+                    throw new IOException("failed");
+                }
+            }, null);
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        assertEquals(0, fetches.getNbInFlight());
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.cache;
+
+import org.junit.Test;
+import org.mapfish.print.config.TileCacheConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TileCacheTest {
+    private static final Map<String, String> NO_HEADERS = Collections.emptyMap();
+    private static final byte[] DATA = {1, 2, 3, 4};
+
+    @Test
+    public void testCreateKey() throws Exception {
+        assertEquals(TileCache.createKey(new URI("http://example.com/wms?a=1&b=2"), NO_HEADERS),
+                TileCache.createKey(new URI("HTTP://Example.COM:80/wms?b=2&a=1"), NO_HEADERS));
+        assertFalse(TileCache.createKey(new URI("http://example.com/wms?a=1"), NO_HEADERS).equals(
+                TileCache.createKey(new URI("http://example.com:8080/wms?a=1"), NO_HEADERS)));
+        assertFalse(TileCache.createKey(new URI("http://example.com/wms?a=1"), NO_HEADERS).equals(
+                TileCache.createKey(new URI("http://example.com/wms?a=1"), Collections.singletonMap("Cookie", "x=y"))));
+    }
+
+    @Test
+    public void testMemoryHit() throws Exception {
+        TileCache cache = new TileCache(new TileCacheConfig());
+        CountingLoader loader = new CountingLoader(new TileResponse(200, "OK", "image/png", DATA));
+        final URI uri = new URI("http://example.com/tile.png");
+
+        final TileResponse first = cache.get(uri, NO_HEADERS, loader);
+        final TileResponse second = cache.get(uri, NO_HEADERS, loader);
+        assertEquals(1, loader.count);
+        assertSame(first, second);
+    }
+
+    @Test
+    public void testNoStore() throws Exception {
+        TileCache cache = new TileCache(new TileCacheConfig());
+        final TileResponse response = new TileResponse(200, "OK", "image/png", DATA);
+        response.setCacheControl("private, no-store");
+        CountingLoader loader = new CountingLoader(response);
+        final URI uri = new URI("http://example.com/tile.png");
+
+        cache.get(uri, NO_HEADERS, loader);
+        cache.get(uri, NO_HEADERS, loader);
+        assertEquals(2, loader.count);
+    }
+
+    @Test
+    public void testErrorNotCached() throws Exception {
+        TileCache cache = new TileCache(new TileCacheConfig());
+        CountingLoader loader = new CountingLoader(new TileResponse(500, "Server error", "text/plain", DATA));
+        final URI uri = new URI("http://example.com/tile.png");
+
+        cache.get(uri, NO_HEADERS, loader);
+        cache.get(uri, NO_HEADERS, loader);
+        assertEquals(2, loader.count);
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        TileCache cache = new TileCache(new TileCacheConfig());
+        final TileResponse response = new TileResponse(200, "OK", "image/png", DATA);
+        response.setEtag("\"abc\"");
+        response.setCacheControl("max-age=0");
+        CountingLoader loader = new CountingLoader(response);
+        final URI uri = new URI("http://example.com/tile.png");
+
+        cache.get(uri, NO_HEADERS, loader);
+        assertNull(loader.lastStale);
+
+        Thread.sleep(2);
+        loader.response = new TileResponse(TileResponse.NOT_MODIFIED, "Not Modified", "", null);
+        final TileResponse revalidated = cache.get(uri, NO_HEADERS, loader);
+        assertEquals(2, loader.count);
+        assertNotNull(loader.lastStale);
+        assertEquals("\"abc\"", loader.lastStale.getEtag());
+        assertEquals(200, revalidated.getStatusCode());
+        assertArrayEquals(DATA, revalidated.getData());
+    }
+
+    @Test
+    public void testDiskTierSurvivesRestart() throws Exception {
+        final File dir = File.createTempFile("tileCache", "");
+        assertTrue(dir.delete());
+        try {
+            TileCacheConfig config = new TileCacheConfig();
+            config.setDirectory(dir.getAbsolutePath());
+            final URI uri = new URI("http://example.com/tile.png");
+            CountingLoader loader = new CountingLoader(new TileResponse(200, "OK", "image/png", DATA));
+
+            new TileCache(config).get(uri, NO_HEADERS, loader);
+            final TileResponse fromDisk = new TileCache(config).get(uri, NO_HEADERS, loader);
+            assertEquals(1, loader.count);
+            assertArrayEquals(DATA, fromDisk.getData());
+        } finally {
+            final File[] files = dir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    private static class CountingLoader implements TileCache.Loader {
+        private TileResponse response;
+        private TileResponse lastStale;
+        private int count = 0;
+
+        public CountingLoader(TileResponse response) {
+            this.response = response;
+        }
+
+        public TileResponse load(TileResponse stale) throws IOException {
+            count++;
+            lastStale = stale;
+            return response;
+        }
+    }
+}
@@ -1,16 +1,20 @@
 package org.mapfish.print.map.readers;
 
 import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 import org.locationtech.jts.geom.Envelope;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mapfish.print.FakeHttpd;
 import org.mapfish.print.MapTestBasic;
+import org.mapfish.print.RenderingContext;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -80,4 +84,47 @@ public class WMTSServiceInfoTest extends MapTestBasic {
         }
 
     }
+
+    @Test
+    public void testPersistedCapabilities() throws Exception {
+        final File dir = Files.createTempDir();
+        ServerInfoCache.configure(60 * 60 * 1000L, 60 * 1000L, dir);
+        try {
+            assertEquals(21, WMTSServiceInfo.getInfo(url, context).tileCacheLayers.size());
+            assertEquals(1, dir.listFiles().length);
+
+            // simulate a restart with the server down
+            server.shutdown();
+            server = null;
+            WMTSServiceInfo.clearCache();
+            assertEquals(21, WMTSServiceInfo.getInfo(url, context).tileCacheLayers.size());
+        } finally {
+            ServerInfoCache.configure(60 * 60 * 1000L, 60 * 1000L, null);
+            WMTSServiceInfo.clearCache();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testNotPersistedWithHeaders() throws Exception {
+        final File dir = Files.createTempDir();
+        ServerInfoCache.configure(60 * 60 * 1000L, 60 * 1000L, dir);
+        try {
+            final RenderingContext userContext = new RenderingContext(context.getDocument(), context.getWriter(),
+                    context.getConfig(), context.getGlobalParams(), null, context.getLayout(),
+                    Collections.singletonMap("Cookie", "session=secret"));
+            assertEquals(21, WMTSServiceInfo.getInfo(url, userContext).tileCacheLayers.size());
+            assertEquals(0, dir.listFiles().length);
+        } finally {
+            ServerInfoCache.configure(60 * 60 * 1000L, 60 * 1000L, null);
+            WMTSServiceInfo.clearCache();
+            for (File file : dir.listFiles()) {
+                file.delete();
+            }
+            dir.delete();
+        }
+    }
 }
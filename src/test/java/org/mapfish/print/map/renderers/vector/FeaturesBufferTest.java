@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.renderers.vector;
+
+import com.codahale.metrics.MetricRegistry;
+import com.itextpdf.awt.geom.AffineTransform;
+import com.itextpdf.text.Document;
+import com.itextpdf.text.PageSize;
+import com.itextpdf.text.pdf.PdfDictionary;
+import com.itextpdf.text.pdf.PdfName;
+import com.itextpdf.text.pdf.PdfReader;
+import com.itextpdf.text.pdf.PdfWriter;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.mapfish.geo.MfGeoJSONReader;
+import org.mapfish.print.PrintTestCase;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.ThreadResources;
+import org.mapfish.print.config.Config;
+import org.mapfish.print.config.layout.Layout;
+import org.mapfish.print.utils.PJsonObject;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class FeaturesBufferTest extends PrintTestCase {
+    private static final String STYLES = "{" +
+            "'polygon': {'fillColor': '#ff0000', 'fillOpacity': 0.5, 'strokeColor': '#0000ff', 'strokeOpacity': 0.7, 'strokeWidth': 2}," +
+            "'line': {'strokeColor': '#00ff00', 'strokeOpacity': 0.3}," +
+            "'point': {'fillColor': '#ffff00', 'fillOpacity': 0.2, 'pointRadius': 5}," +
+            "'first': {'label': 'first', 'fontSize': '10px'}," +
+            "'second': {'label': 'second', 'fontSize': '10px'}" +
+            "}";
+
+    private static final String FEATURES = "{'type': 'FeatureCollection', 'features': [" +
+            feature("polygon", "{'type': 'Polygon', 'coordinates': [[[10, 10], [100, 10], [100, 100], [10, 10]]]}") + "," +
+            feature("first", "{'type': 'Point', 'coordinates': [50, 50]}") + "," +
+            feature("line", "{'type': 'LineString', 'coordinates': [[0, 0], [200, 200], [300, 100]]}") + "," +
+            feature("second", "{'type': 'Point', 'coordinates': [150, 150]}") + "," +
+            feature("point", "{'type': 'Point', 'coordinates': [20, 20]}") +
+            "]}";
+
+    private static final Pattern GSTATE = Pattern.compile("/(\\S+) gs");
+
+    @Test
+    public void testSameAsDirect() throws Exception {
+        final ThreadResources threadResources = new ThreadResources();
+        threadResources.init();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final Document doc = new Document(PageSize.A4);
+        final PdfWriter writer = PdfWriter.getInstance(doc, out);
+        final Config config = new Config();
+        try {
+            config.setThreadResources(threadResources);
+            config.setMetricRegistry(new MetricRegistry());
+            final RenderingContext context = new RenderingContext(doc, writer, config,
+                    new PJsonObject(new JSONObject(), "globalParams"), null, new Layout(),
+                    Collections.<String, String>emptyMap());
+            final AffineTransform transform = AffineTransform.getTranslateInstance(50, 50);
+            final MfGeoJSONReader reader = new MfGeoJSONReader(new StyledMfGeoFactory(
+                    new PJsonObject(new JSONObject(STYLES), "styles"), "_style"));
+            doc.open();
+
+            //page 1: rendered in a buffer, then spliced
+            final FeaturesBuffer buffer = new FeaturesBuffer(context, transform);
+            buffer.render(reader.decodeFeatures(new JSONObject(FEATURES)));
+            assertEquals(3, buffer.getNbBuffered());
+            assertEquals(2, buffer.getNbDeferred());
+            buffer.splice(writer.getDirectContent());
+
+            //page 2: rendered directly
+            doc.newPage();
+            FeaturesRenderer.render(context, writer.getDirectContent(),
+                    reader.decodeFeatures(new JSONObject(FEATURES)), transform);
+            doc.close();
+        } finally {
+            config.close();
+            threadResources.destroy();
+        }
+
+        final PdfReader pdf = new PdfReader(out.toByteArray());
+        try {
+            assertEquals(2, pdf.getNumberOfPages());
+            final String spliced = new String(pdf.getPageContent(1), "ISO-8859-1");
+            final String direct = new String(pdf.getPageContent(2), "ISO-8859-1");
+            assertEquals(direct, spliced);
+
+            checkBalanced(spliced);
+            checkGStates(pdf.getPageN(1), spliced);
+            final int first = spliced.indexOf("(first)");
+            final int second = spliced.indexOf("(second)");
+            assertTrue(first >= 0);
+            assertTrue(second > first);
+        } finally {
+            pdf.close();
+        }
+    }
+
+    private static void checkBalanced(String content) {
+        int depth = 0;
+        for (String token : content.split("\\s+")) {
+            if (token.equals("q")) {
+                depth++;
+            } else if (token.equals("Q")) {
+                depth--;
+                assertTrue("Q without q", depth >= 0);
+            }
+        }
+        assertEquals(0, depth);
+    }
+
+    private static void checkGStates(PdfDictionary page, String content) {
+        final PdfDictionary resources = page.getAsDict(PdfName.RESOURCES);
+        assertNotNull(resources);
+        final PdfDictionary extGStates = resources.getAsDict(PdfName.EXTGSTATE);
+        assertNotNull(extGStates);
+        final Set<String> used = new HashSet<String>();
+        final Matcher matcher = GSTATE.matcher(content);
+        while (matcher.find()) {
+            used.add(matcher.group(1));
+            assertNotNull(matcher.group(1) + " is not registered", extGStates.get(new PdfName(matcher.group(1))));
+        }
+        //the polygon, line and point styles have different opacities
+        assertTrue(used.size() >= 3);
+    }
+
+    private static String feature(String style, String geometry) {
+        return "{'type': 'Feature', 'properties': {'_style': '" + style + "'}, 'geometry': " + geometry + "}";
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.servlet;
+
+import org.junit.Test;
+import org.mapfish.print.PrintProgress;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class PrintJobManagerTest {
+    @Test
+    public void testQueueLimitAndCancel() throws Exception {
+        PrintJobManager manager = new PrintJobManager();
+        try {
+            final CountDownLatch started = new CountDownLatch(1);
+            final CountDownLatch release = new CountDownLatch(1);
+            BlockingJob running = new BlockingJob("running", started, release);
+            manager.submit(running, 1, 1);
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(PrintJob.State.RUNNING, running.getState());
+
+            BlockingJob waiting = new BlockingJob("waiting", new CountDownLatch(1), release);
+            manager.submit(waiting, 1, 1);
+            assertEquals(PrintJob.State.WAITING, waiting.getState());
+
+            try {
+                manager.submit(new BlockingJob("rejected", new CountDownLatch(1), release), 1, 1);
+                fail("Should have been rejected");
+            } catch (RejectedExecutionException e) {
+                //expected
+            }
+
+            assertTrue(waiting.cancel());
+            assertEquals(PrintJob.State.CANCELLED, waiting.getState());
+            assertEquals(0, manager.getNbWaiting());
+
+            //there is room again
+            BlockingJob next = new BlockingJob("next", new CountDownLatch(1), release);
+            manager.submit(next, 1, 1);
+
+            running.cancel();
+            release.countDown();
+            waitFinished(running);
+            assertEquals(PrintJob.State.CANCELLED, running.getState());
+            waitFinished(next);
+            assertEquals(PrintJob.State.DONE, next.getState());
+
+            manager.purge(System.currentTimeMillis() + 1);
+            assertEquals(null, manager.get("running"));
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static void waitFinished(PrintJob job) throws InterruptedException {
+        for (int i = 0; i < 1000 && !job.getState().isFinished(); ++i) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static class BlockingJob extends PrintJob {
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        public BlockingJob(String id, CountDownLatch started, CountDownLatch release) {
+            super(id);
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        protected void print(PrintProgress progress) throws Exception {
+            started.countDown();
+            release.await();
+            progress.setNbPages(1);
+            progress.pageDone();
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.utils;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.mapfish.print.PrintTestCase;
+
+public class TextTemplateTest extends PrintTestCase {
+
+    @Test
+    public void testParse() {
+        final TextTemplate template = TextTemplate.get("Page ${pageNum} of ${pageTot}, ${format %,d population}!");
+        assertEquals(3, template.getNbVariables());
+        assertEquals("Page ", template.getLiteral(0));
+        assertEquals(" of ", template.getLiteral(1));
+        assertEquals(", ", template.getLiteral(2));
+        assertEquals("!", template.getLiteral(3));
+        assertEquals(TextTemplate.Variable.Type.PAGE_NUM, template.getVariable(0).getType());
+        assertEquals(TextTemplate.Variable.Type.PAGE_TOT, template.getVariable(1).getType());
+
+        final TextTemplate.Variable format = template.getVariable(2);
+        assertEquals(TextTemplate.Variable.Type.FORMAT, format.getType());
+        assertEquals("%,d", format.getArgument());
+        assertEquals('d', format.getConversion());
+        assertEquals(TextTemplate.Variable.Type.VALUE, format.getFormatted().getType());
+        assertEquals("population", format.getFormatted().getKey());
+    }
+
+    @Test
+    public void testConstant() {
+        final TextTemplate template = TextTemplate.get("no variable");
+        assertTrue(template.isConstant());
+        assertEquals("no variable", template.getLiteral(0));
+        assertSame(template, TextTemplate.get("no variable"));
+    }
+}
@@ -0,0 +1,263 @@
+package org.pvalsecc.concurrent;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OrderedResultsExecutorTest {
+    @Test
+    public void testOrderPerCollector() throws Exception {
+        OrderedResultsExecutor<Integer> executor = new OrderedResultsExecutor<Integer>(8, "test");
+        executor.start();
+        try {
+            final int nbTasks = 200;
+            Collector first = new Collector(nbTasks);
+            Collector second = new Collector(nbTasks);
+            for (int i = 0; i < nbTasks; ++i) {
+                executor.addTask(new SleepTask(i, null, null), first);
+                executor.addTask(new SleepTask(i, null, null), second);
+            }
+            first.await();
+            second.await();
+            first.checkOrder();
+            second.checkOrder();
+            assertNoJobs(executor);
+        } finally {
+            executor.stop();
+        }
+    }
+
+    @Test
+    public void testFairness() throws Exception {
+        OrderedResultsExecutor<Integer> executor = new OrderedResultsExecutor<Integer>(2, "test");
+        executor.start();
+        try {
+            Collector big = new Collector(100);
+            Collector small = new Collector(2);
+            for (int i = 0; i < 100; ++i) {
+                executor.addTask(new SleepTask(i, null, null), big);
+            }
+            executor.addTask(new SleepTask(0, null, null), small);
+            executor.addTask(new SleepTask(1, null, null), small);
+
+            small.await();
+            assertTrue("the small job had to wait for the big one", big.latch.getCount() > 50);
+            big.await();
+            big.checkOrder();
+            small.checkOrder();
+        } finally {
+            executor.stop();
+        }
+    }
+
+    @Test
+    public void testPerHostLimit() throws Exception {
+        OrderedResultsExecutor<Integer> executor = new OrderedResultsExecutor<Integer>(8, 2, "test");
+        executor.start();
+        try {
+            final AtomicInteger running = new AtomicInteger(0);
+            final AtomicInteger maxRunning = new AtomicInteger(0);
+            Collector collector = new Collector(40);
+            for (int i = 0; i < 40; ++i) {
+                if (i % 2 == 0) {
+                    executor.addTask(new SleepTask(i, "slow.example.com", new AtomicInteger[]{running, maxRunning}), collector);
+                } else {
+                    executor.addTask(new SleepTask(i, "other.example.com", null), collector);
+                }
+            }
+            collector.await();
+            collector.checkOrder();
+            assertTrue("max running=" + maxRunning.get(), maxRunning.get() <= 2);
+        } finally {
+            executor.stop();
+        }
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        OrderedResultsExecutor<Integer> executor = new OrderedResultsExecutor<Integer>(1, "test");
+        executor.start();
+        try {
+            //the task 3 fails and the collector fails on the result 5
+            Collector collector = new Collector(10) {
+                @Override
+                public void handle(Integer result) {
+                    super.handle(result);
+                    if (result == 5) {
+                        throw new IllegalStateException("handle failed");
+                    }
+                }
+            };
+            for (int i = 0; i < 10; ++i) {
+                if (i == 3) {
+                    executor.addTask(new OrderedResultsExecutor.Task<Integer>() {
+                        public Integer process() {
+                            throw new IllegalArgumentException("process failed");
+                        }
+                    }, collector);
+                } else {
+                    executor.addTask(new SleepTask(i, null, null), collector);
+                }
+            }
+            collector.await();
+            assertEquals(9, collector.results.size());
+            assertEquals(1, collector.errors.size());
+            assertTrue(collector.errors.get(0) instanceof IllegalArgumentException);
+            assertEquals(Integer.valueOf(2), collector.results.get(2));
+            assertEquals(Integer.valueOf(4), collector.results.get(3));
+
+            //the only executor thread must still be alive
+            Collector next = new Collector(1);
+            executor.addTask(new SleepTask(0, null, null), next);
+            next.await();
+            assertNoJobs(executor);
+        } finally {
+            executor.stop();
+        }
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        OrderedResultsExecutor<Integer> executor = new OrderedResultsExecutor<Integer>(1, "test");
+        executor.start();
+        try {
+            final List<Runnable> dones = new ArrayList<Runnable>();
+            final CountDownLatch started = new CountDownLatch(5);
+            Collector async = new Collector(6);
+            for (int i = 0; i < 5; ++i) {
+                final int value = i;
+                executor.addTask(new OrderedResultsExecutor.AsyncTask<Integer>() {
+                    public boolean startAsync(Runnable done) {
+                        synchronized (dones) {
+                            dones.add(done);
+                        }
+                        started.countDown();
+                        return true;
+                    }
+
+                    public Integer process() {
+                        return value;
+                    }
+                }, async);
+            }
+            executor.addTask(new SleepTask(5, null, null), async);
+
+            //the only executor thread is not blocked by the pending operations
+            assertTrue("timeout", started.await(30, TimeUnit.SECONDS));
+            Collector other = new Collector(10);
+            for (int i = 0; i < 10; ++i) {
+                executor.addTask(new SleepTask(i, null, null), other);
+            }
+            other.await();
+            other.checkOrder();
+            assertEquals(0, async.results.size());
+
+            //finish the operations from another thread, in the reverse order
+            final Thread finisher = new Thread() {
+                public void run() {
+                    for (int i = dones.size() - 1; i >= 0; --i) {
+                        dones.get(i).run();
+                    }
+                }
+            };
+            finisher.start();
+            finisher.join();
+            async.await();
+            async.checkOrder();
+            assertEquals(6, async.results.size());
+            assertNoJobs(executor);
+        } finally {
+            executor.stop();
+        }
+    }
+
+    /**
+     * The job is released just after its last result has been handled.
+     */
+    private static void assertNoJobs(OrderedResultsExecutor<Integer> executor) throws InterruptedException {
+        for (int i = 0; i < 3000 && executor.getNbJobs() != 0; ++i) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, executor.getNbJobs());
+    }
+
+    private static class SleepTask implements OrderedResultsExecutor.HostTask<Integer> {
+        private final int value;
+        private final String host;
+        private final AtomicInteger[] counters;
+
+        public SleepTask(int value, String host, AtomicInteger[] counters) {
+            this.value = value;
+            this.host = host;
+            this.counters = counters;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public Integer process() {
+            if (counters != null) {
+                final int cur = counters[0].incrementAndGet();
+                int max;
+                while ((max = counters[1].get()) < cur && !counters[1].compareAndSet(max, cur)) {
+                    //retry
+                }
+            }
+            try {
+                Thread.sleep((value * 7) % 5);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            } finally {
+                if (counters != null) {
+                    counters[0].decrementAndGet();
+                }
+            }
+            return value;
+        }
+    }
+
+    private static class Collector implements OrderedResultsExecutor.ResultCollector<Integer> {
+        private final List<Integer> results = new ArrayList<Integer>();
+        private final List<Throwable> errors = new ArrayList<Throwable>();
+        private final CountDownLatch latch;
+        private volatile boolean concurrentCall = false;
+        private final AtomicInteger inHandle = new AtomicInteger(0);
+
+        public Collector(int nbResults) {
+            latch = new CountDownLatch(nbResults);
+        }
+
+        public void handle(Integer result) {
+            if (inHandle.incrementAndGet() != 1) {
+                concurrentCall = true;
+            }
+            results.add(result);
+            inHandle.decrementAndGet();
+            latch.countDown();
+        }
+
+        public void handleError(Throwable error) {
+            errors.add(error);
+            latch.countDown();
+        }
+
+        public void await() throws InterruptedException {
+            assertTrue("timeout", latch.await(30, TimeUnit.SECONDS));
+        }
+
+        public void checkOrder() {
+            assertTrue("handle called concurrently", !concurrentCall);
+            for (int i = 0; i < results.size(); ++i) {
+                assertEquals(i, results.get(i).intValue());
+            }
+        }
+    }
+}